@@ -0,0 +1,269 @@
+import java.io.BufferedReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.annotation.JSONField;
+
+/**
+ * Runs registered benchmarks with the same methodology as JMH's average time mode.
+ * Each benchmark runs in a fresh JVM fork by default, so the profile built up by one benchmark
+ * (for example the receiver types seen at a call site) cannot slow down or speed up the next.
+ * Within a fork, timed warmup iterations let the JIT compile the hot paths before the measured iterations.
+ */
+public class BenchmarkRunner {
+    /**
+     * A unit of benchmarked work, run repeatedly until an iteration's time is up.
+     */
+    public interface Workload {
+        /**
+         * Performs one invocation of the benchmark.
+         * @return A value depending on the work done, consumed by the runner so the JIT cannot remove the work.
+         * @throws Exception If the benchmark failed.
+         */
+        long run() throws Exception;
+    }
+
+    /**
+     * The measured score of one benchmark.
+     */
+    public static class Result {
+        @JSONField(name = "benchmark", ordinal = 0)
+        public String benchmark; // The name of the benchmark.
+
+        @JSONField(name = "iterations", ordinal = 1)
+        public int iterations; // The number of measured iterations across all forks.
+
+        @JSONField(name = "score", ordinal = 2)
+        public double score; // The mean time per operation in nanoseconds.
+
+        @JSONField(name = "error", ordinal = 3)
+        public double error; // The half width of the 99% confidence interval of the score in nanoseconds.
+
+        @JSONField(name = "unit", ordinal = 4)
+        public String unit = "ns/op"; // The unit of the score and error.
+    }
+
+    private static final String FORK_OPTION = "--in-fork"; // Marks the command line of a forked JVM running one benchmark.
+    private static final String FORK_RESULT_PREFIX = "ITERATION "; // Prefixes each iteration score printed by a fork.
+
+    private final Map<String, Workload> workloads = new LinkedHashMap<>(); // The registered benchmarks, in registration order.
+    private final Map<String, Long> operationsPerInvocation = new LinkedHashMap<>(); // The number of operations performed by each invocation.
+    private int warmupIterations = 5; // The number of unmeasured iterations per fork.
+    private int measurementIterations = 5; // The number of measured iterations per fork.
+    private long iterationMillis = 1000; // The length of each iteration in milliseconds.
+    private int forks = 1; // The number of JVM forks per benchmark, or 0 to run in this JVM.
+    private String filter = ""; // Only benchmarks whose names contain this are run.
+    private String jsonFileName; // The file to write the results to as JSON, or null.
+    private String forkedBenchmark; // The single benchmark to run when this JVM is a fork, or null.
+    private long sink; // Accumulates workload results so their work stays live.
+
+    /**
+     * Registers a benchmark.
+     * @param name The name of the benchmark.
+     * @param operations The number of operations each invocation performs, used to report time per operation.
+     * @param workload The work of one invocation.
+     */
+    public void register(String name, long operations, Workload workload) {
+        workloads.put(name, workload);
+        operationsPerInvocation.put(name, operations);
+    }
+
+    /**
+     * Reads the runner options from the command line, leaving unrecognised arguments for the caller.
+     * @param args The command line arguments.
+     * @return The arguments not used by the runner.
+     */
+    public List<String> parseOptions(String[] args) {
+        List<String> remaining = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case ("--warmup"):
+                    warmupIterations = Integer.parseInt(args[++i]);
+                    break;
+                case ("--iterations"):
+                    measurementIterations = Integer.parseInt(args[++i]);
+                    break;
+                case ("--time"):
+                    iterationMillis = Long.parseLong(args[++i]);
+                    break;
+                case ("--forks"):
+                    forks = Integer.parseInt(args[++i]);
+                    break;
+                case ("--filter"):
+                    filter = args[++i];
+                    break;
+                case ("--json"):
+                    jsonFileName = args[++i];
+                    break;
+                case (FORK_OPTION):
+                    forkedBenchmark = args[++i];
+                    break;
+                default:
+                    remaining.add(args[i]);
+            }
+        }
+        return remaining;
+    }
+
+    /**
+     * Runs every registered benchmark matching the filter and prints a summary table.
+     * When this JVM is a fork, runs just its benchmark and prints the score of each iteration for the parent.
+     * @param args The full command line arguments, passed on to forks.
+     * @throws Exception If a benchmark failed.
+     */
+    public void run(String[] args) throws Exception {
+        if (forkedBenchmark != null) {
+            for (double score : measure(forkedBenchmark)) {
+                System.out.println(FORK_RESULT_PREFIX + score);
+            }
+            return;
+        }
+
+        List<Result> results = new ArrayList<>();
+        System.out.printf("%-48s %5s %12s %10s  %s%n", "Benchmark", "Cnt", "Score", "Error", "Units");
+        for (String name : workloads.keySet()) {
+            if (!name.contains(filter)) {
+                continue;
+            }
+            List<Double> scores = new ArrayList<>();
+            if (forks == 0) {
+                scores.addAll(measure(name));
+            } else {
+                for (int fork = 0; fork < forks; fork++) {
+                    scores.addAll(runFork(name, args));
+                }
+            }
+            Result result = summarise(name, scores);
+            results.add(result);
+            System.out.printf("%-48s %5d %12.3f +- %7.3f  %s%n", result.benchmark, result.iterations, result.score, result.error, result.unit);
+        }
+
+        if (jsonFileName != null) {
+            try (FileWriter writer = new FileWriter(jsonFileName)) {
+                writer.write(JSON.toJSONString(results));
+            }
+        }
+    }
+
+    /**
+     * Runs the warmup and measured iterations of one benchmark in this JVM.
+     * @param name The name of the benchmark.
+     * @return The time per operation of each measured iteration in nanoseconds.
+     * @throws Exception If the benchmark failed.
+     */
+    private List<Double> measure(String name) throws Exception {
+        Workload workload = workloads.get(name);
+        if (workload == null) {
+            throw new Exception("Unknown benchmark '" + name + "'.");
+        }
+        long operations = operationsPerInvocation.get(name);
+        for (int i = 0; i < warmupIterations; i++) {
+            iteration(workload, operations);
+        }
+        List<Double> scores = new ArrayList<>();
+        for (int i = 0; i < measurementIterations; i++) {
+            scores.add(iteration(workload, operations));
+        }
+        return scores;
+    }
+
+    /**
+     * Invokes a workload repeatedly for the length of one iteration.
+     * @param workload The work of one invocation.
+     * @param operations The number of operations each invocation performs.
+     * @return The mean time per operation in nanoseconds.
+     * @throws Exception If the benchmark failed.
+     */
+    private double iteration(Workload workload, long operations) throws Exception {
+        long deadline = System.nanoTime() + iterationMillis * 1_000_000;
+        long start = System.nanoTime();
+        long invocations = 0;
+        long end;
+        do {
+            sink += workload.run();
+            invocations++;
+            end = System.nanoTime();
+        } while (end < deadline);
+        return (double) (end - start) / (invocations * operations);
+    }
+
+    /**
+     * Runs one benchmark in a fresh JVM with the same class path and options.
+     * @param name The name of the benchmark.
+     * @param args The full command line arguments.
+     * @return The time per operation of each measured iteration in nanoseconds.
+     * @throws Exception If the fork could not be started or failed.
+     */
+    private List<Double> runFork(String name, String[] args) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + "/bin/java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(System.getProperty("sun.java.command").split(" ")[0]);
+        for (String arg : args) {
+            command.add(arg);
+        }
+        command.add(FORK_OPTION);
+        command.add(name);
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        List<Double> scores = new ArrayList<>();
+        StringBuilder output = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(FORK_RESULT_PREFIX)) {
+                    scores.add(Double.parseDouble(line.substring(FORK_RESULT_PREFIX.length())));
+                } else {
+                    output.append(line).append('\n');
+                }
+            }
+        }
+        if (process.waitFor() != 0) {
+            throw new IOException("The fork running '" + name + "' failed:\n" + output);
+        }
+        return scores;
+    }
+
+    /**
+     * Summarises the iteration scores of a benchmark as a mean and a 99% confidence interval.
+     * @param name The name of the benchmark.
+     * @param scores The time per operation of each measured iteration.
+     * @return The result.
+     */
+    private static Result summarise(String name, List<Double> scores) {
+        Result result = new Result();
+        result.benchmark = name;
+        result.iterations = scores.size();
+        double sum = 0;
+        for (double score : scores) {
+            sum += score;
+        }
+        result.score = sum / scores.size();
+        if (scores.size() > 1) {
+            double squares = 0;
+            for (double score : scores) {
+                squares += (score - result.score) * (score - result.score);
+            }
+            double standardDeviation = Math.sqrt(squares / (scores.size() - 1));
+            result.error = 2.576 * standardDeviation / Math.sqrt(scores.size());
+        } else {
+            result.error = Double.NaN;
+        }
+        return result;
+    }
+
+    /**
+     * Gets the accumulated workload results, which keeps them from being optimised away.
+     * @return The accumulated results.
+     */
+    public long getSink() {
+        return sink;
+    }
+}
@@ -0,0 +1,270 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmarks of the simulator hot paths: trace parsing, address decomposition, cache lookups and the full simulation.
+ * Every benchmark reports the mean time per memory operation, so scores can be compared across changes.
+ * Synthetic operations come from a fixed seed, and a real trace can be sampled with --trace for end to end runs.
+ */
+public class SimulatorBenchmarks {
+    /**
+     * Registers and runs the benchmarks.
+     * @param args The runner options (see BenchmarkRunner), plus --trace &lt;file&gt; and --sample &lt;n&gt;.
+     * @throws Exception If a benchmark failed.
+     */
+    public static void main(String[] args) throws Exception {
+        BenchmarkRunner runner = new BenchmarkRunner();
+        List<String> remaining = runner.parseOptions(args);
+        String sampledTraceFileName = null;
+        int sampleSize = DEFAULT_SAMPLE_SIZE;
+        for (int i = 0; i < remaining.size(); i++) {
+            switch (remaining.get(i)) {
+                case ("--trace"):
+                    sampledTraceFileName = remaining.get(++i);
+                    break;
+                case ("--sample"):
+                    sampleSize = Integer.parseInt(remaining.get(++i));
+                    break;
+                default:
+                    System.err.println("Unknown option '" + remaining.get(i) + "'.");
+                    System.exit(1);
+            }
+        }
+
+        SimulatorBenchmarks benchmarks = new SimulatorBenchmarks();
+        benchmarks.registerAll(runner);
+        if (sampledTraceFileName != null) {
+            benchmarks.registerSampled(runner, sampledTraceFileName, sampleSize);
+        }
+        runner.run(args);
+    }
+
+    private static final long SEED = 42; // The seed of the synthetic operations, fixed so every run measures the same work.
+    private static final int OPERATIONS = 1 << 16; // The number of synthetic operations per invocation.
+    private static final int DEFAULT_SAMPLE_SIZE = 1 << 20; // The number of operations read from a sampled trace by default.
+    private static final String[] KINDS = { "direct", "2way", "4way", "8way", "full" }; // The kinds of cache benchmarked.
+    private static final String[] POLICIES = { "rr", "lru", "lfu", "plru", "srrip", "brrip", "arc", "random" }; // The replacement policies benchmarked.
+
+    private final long[] programCounters = new long[OPERATIONS]; // The program counter of each synthetic operation.
+    private final long[] addresses = new long[OPERATIONS]; // The memory address of each synthetic operation.
+    private final int[] sizes = new int[OPERATIONS]; // The size of each synthetic operation.
+    private final boolean[] writes = new boolean[OPERATIONS]; // Whether each synthetic operation is a write.
+    private final String[] lines = new String[OPERATIONS]; // The text trace line of each synthetic operation.
+    private byte[] textTrace; // The synthetic operations as a text trace.
+    private byte[] binaryTrace; // The synthetic operations as a fixed width binary trace.
+    private byte[] deltaTrace; // The synthetic operations as a delta encoded binary trace.
+
+    /**
+     * Generates the synthetic operations and their encoded traces.
+     * The address mix is a hot stack region, a sequential stream and random heap accesses,
+     * with some larger operations that overrun a line.
+     * @throws Exception If the binary traces could not be encoded.
+     */
+    SimulatorBenchmarks() throws Exception {
+        Random random = new Random(SEED);
+        long streamAddress = 0x10000000L;
+        StringBuilder text = new StringBuilder(OPERATIONS * 40);
+        for (int i = 0; i < OPERATIONS; i++) {
+            int region = random.nextInt(100);
+            if (region < 60) {
+                addresses[i] = 0x7ffc39280000L + (random.nextInt(4096) & ~7);
+            } else if (region < 90) {
+                streamAddress = streamAddress + 8 < 0x10800000L ? streamAddress + 8 : 0x10000000L;
+                addresses[i] = streamAddress;
+            } else {
+                addresses[i] = 0x20000000L + random.nextInt(1 << 26);
+            }
+            int sizeChoice = random.nextInt(100);
+            sizes[i] = sizeChoice < 70 ? 8 : sizeChoice < 85 ? 4 : sizeChoice < 95 ? 1 : 32;
+            writes[i] = random.nextInt(4) == 0;
+            programCounters[i] = 0x7f3ba6b3f000L + random.nextInt(2048);
+            lines[i] = String.format("%016x %016x %c %03d", programCounters[i], addresses[i], writes[i] ? 'W' : 'R', sizes[i]);
+            text.append(lines[i]).append('\n');
+        }
+        textTrace = text.toString().getBytes(StandardCharsets.US_ASCII);
+        binaryTrace = encode(false);
+        deltaTrace = encode(true);
+    }
+
+    /**
+     * Encodes the synthetic operations as a binary trace.
+     * @param delta Whether to delta encode the trace.
+     * @return The bytes of the binary trace.
+     * @throws Exception If the trace could not be encoded.
+     */
+    private byte[] encode(boolean delta) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (BinaryTraceWriter writer = new BinaryTraceWriter(output, delta, true)) {
+            for (int i = 0; i < OPERATIONS; i++) {
+                writer.write(programCounters[i], addresses[i], sizes[i], writes[i]);
+            }
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Creates and initialises a cache.
+     * @param name The name of the cache.
+     * @param size The total size of the cache in bytes.
+     * @param lineSize The size of each cache line in bytes.
+     * @param kind The kind of cache.
+     * @param replacementPolicy The replacement / eviction policy.
+     * @return The initialised cache.
+     * @throws Exception If the cache kind is not supported.
+     */
+    private static Cache cache(String name, int size, int lineSize, String kind, String replacementPolicy) throws Exception {
+        Cache cache = new Cache();
+        cache.name = name;
+        cache.size = size;
+        cache.lineSize = lineSize;
+        cache.kind = kind;
+        cache.replacementPolicyString = replacementPolicy;
+        cache.initialise();
+        return cache;
+    }
+
+    /**
+     * Creates a simulator with a three level hierarchy similar to a desktop processor.
+     * @return The simulator.
+     * @throws Exception If a cache kind is not supported.
+     */
+    private static CacheSimulator threeLevelSimulator() throws Exception {
+        CacheSimulator simulator = new CacheSimulator();
+        simulator.useCaches(new ArrayList<>(Arrays.asList(
+                cache("L1", 32768, 64, "8way", "lru"),
+                cache("L2", 262144, 64, "8way", "lru"),
+                cache("L3", 2097152, 64, "8way", "lru"))));
+        return simulator;
+    }
+
+    /**
+     * Registers the benchmarks that use synthetic operations.
+     * @param runner The runner to register with.
+     * @throws Exception If a cache kind is not supported.
+     */
+    void registerAll(BenchmarkRunner runner) throws Exception {
+        // Trace parsing: the original substring / parse path and each trace reader.
+        runner.register("parse.substring", OPERATIONS, () -> {
+            long sum = 0;
+            for (String line : lines) {
+                BinaryAddress memoryAddress = new BinaryAddress(line.substring(17, 33));
+                int size = Integer.parseInt(line.substring(36, 39));
+                sum += memoryAddress.address + size;
+            }
+            return sum;
+        });
+        runner.register("parse.text", OPERATIONS, () -> readAll(new TextTraceReader(new ByteArrayInputStream(textTrace))));
+        runner.register("parse.binary", OPERATIONS, () -> readAll(new BinaryTraceReader(new ByteArrayInputStream(binaryTrace))));
+        runner.register("parse.binaryDelta", OPERATIONS, () -> readAll(new BinaryTraceReader(new ByteArrayInputStream(deltaTrace))));
+
+        // Address decomposition into tag, set and offset.
+        Cache decompositionCache = cache("decomposition", 32768, 64, "4way", "lru");
+        BinaryAddress[] memoryAddresses = new BinaryAddress[OPERATIONS];
+        for (int i = 0; i < OPERATIONS; i++) {
+            memoryAddresses[i] = new BinaryAddress(addresses[i]);
+        }
+        runner.register("address.getSet", OPERATIONS, () -> {
+            long sum = 0;
+            for (BinaryAddress memoryAddress : memoryAddresses) {
+                sum += memoryAddress.getSet(decompositionCache);
+            }
+            return sum;
+        });
+        runner.register("address.getTag", OPERATIONS, () -> {
+            long sum = 0;
+            for (BinaryAddress memoryAddress : memoryAddresses) {
+                sum += memoryAddress.getTag(decompositionCache);
+            }
+            return sum;
+        });
+        runner.register("address.getOffset", OPERATIONS, () -> {
+            long sum = 0;
+            for (BinaryAddress memoryAddress : memoryAddresses) {
+                sum += memoryAddress.getOffset(decompositionCache);
+            }
+            return sum;
+        });
+
+        // Single cache lookups for each kind and replacement policy.
+        for (String kind : KINDS) {
+            for (String policy : POLICIES) {
+                Cache cache = cache(kind, 32768, 64, kind, policy);
+                runner.register("cache." + kind + "." + policy, OPERATIONS, () -> {
+                    long hits = 0;
+                    for (long address : addresses) {
+                        if (cache.performOperation(address)) {
+                            hits++;
+                        }
+                    }
+                    return hits;
+                });
+            }
+        }
+
+        // The full simulation, walking each operation and its overrun down the hierarchy level by level until it hits.
+        CacheSimulator singleLevel = new CacheSimulator();
+        singleLevel.useCaches(new ArrayList<>(Arrays.asList(cache("L1", 32768, 64, "8way", "lru"))));
+        runner.register("simulate.synthetic.l1", OPERATIONS, () -> simulate(singleLevel, addresses, sizes, OPERATIONS));
+        CacheSimulator threeLevel = threeLevelSimulator();
+        runner.register("simulate.synthetic.l1l2l3", OPERATIONS, () -> simulate(threeLevel, addresses, sizes, OPERATIONS));
+    }
+
+    /**
+     * Registers the full simulation over the first operations of a real trace.
+     * @param runner The runner to register with.
+     * @param fileName The file name of the trace.
+     * @param sampleSize The maximum number of operations to read.
+     * @throws Exception If the trace could not be read.
+     */
+    void registerSampled(BenchmarkRunner runner, String fileName, int sampleSize) throws Exception {
+        long[] sampledAddresses = new long[sampleSize];
+        int[] sampledSizes = new int[sampleSize];
+        int count = 0;
+        try (TraceReader reader = TraceReader.open(fileName, false)) {
+            while (count < sampleSize && reader.next()) {
+                sampledAddresses[count] = reader.address;
+                sampledSizes[count] = reader.size;
+                count++;
+            }
+        }
+        int sampled = count;
+        CacheSimulator threeLevel = threeLevelSimulator();
+        runner.register("simulate.sampled.l1l2l3", sampled, () -> simulate(threeLevel, sampledAddresses, sampledSizes, sampled));
+    }
+
+    /**
+     * Reads every operation of a trace.
+     * @param reader The reader of the trace.
+     * @return The sum of the addresses and sizes read.
+     * @throws Exception If the trace could not be read.
+     */
+    private static long readAll(TraceReader reader) throws Exception {
+        long sum = 0;
+        try (TraceReader closing = reader) {
+            while (closing.next()) {
+                sum += closing.address + closing.size;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Simulates operations on a hierarchy.
+     * @param simulator The simulator holding the hierarchy.
+     * @param operationAddresses The memory address of each operation.
+     * @param operationSizes The size of each operation.
+     * @param count The number of operations.
+     * @return The hits of the first level, which depend on the work done.
+     */
+    private static long simulate(CacheSimulator simulator, long[] operationAddresses, int[] operationSizes, int count) {
+        for (int i = 0; i < count; i++) {
+            simulator.simulateMemoryOp(operationAddresses[i], operationSizes[i]);
+        }
+        return simulator.caches.get(0).hits;
+    }
+}
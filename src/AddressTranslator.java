@@ -0,0 +1,262 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.alibaba.fastjson2.annotation.JSONField;
+
+/**
+ * Translates the virtual addresses of a trace into physical addresses ahead of the cache hierarchy,
+ * so physically indexed caches see the set conflicts of the pages the program was given rather than of its virtual layout.
+ * Pages are mapped to physical frames on first touch by a deterministic allocation policy:
+ * sequential takes the next free frame, random takes a free frame from a seeded generator,
+ * and coloring takes the next free frame of the same color as the virtual page, so a page keeps the cache sets it
+ * would map to untranslated. The color of a page is its page number modulo the number of colors, which by default is
+ * the number of pages one way of the largest cache spans.
+ *
+ * Each translation looks the virtual page number up in the TLBs, which are caches of one entry per page,
+ * so they reuse the set indexing and replacement of Cache. A miss in every TLB is a page walk.
+ * The page table maps virtual page numbers to frames in a primitive hash map, and a small direct mapped memo
+ * of recent translations keeps most operations from looking the page table up at all.
+ */
+public class AddressTranslator {
+    /**
+     * JSON fields used in serialisation and / or deserialisation.
+     */
+    @JSONField(name = "page_size", serialize = false)
+    public int pageSize = 4096; // The size of each page in bytes, 4096 or 2097152.
+
+    @JSONField(name = "allocation", serialize = false)
+    public String allocationString = "sequential"; // How pages are given frames: "sequential", "random" or "coloring".
+
+    @JSONField(name = "seed", serialize = false)
+    public long seed = 1; // The seed of the random allocation.
+
+    @JSONField(name = "physical_memory", serialize = false)
+    public long physicalMemory = 1L << 34; // The size of physical memory in bytes, which bounds the frames allocated.
+
+    @JSONField(name = "colors", serialize = false)
+    public int colors; // The number of page colors, or 0 for the pages spanned by one way of the largest cache.
+
+    @JSONField(name = "tlbs")
+    public List<Cache> tlbs = new ArrayList<>(); // The TLBs, from the highest level to the lowest, each given its number of entries as size.
+
+    @JSONField(name = "page_walks", deserialize = false)
+    public long pageWalks; // The number of translations missing every TLB.
+
+    /**
+     * Other variables used throughout the code.
+     */
+    private static final int MEMO_BITS = 8; // The log2 of the number of translations memoised.
+    private Allocation allocation; // How pages are given frames as an enum value.
+    private int pageBits; // The number of bits of the page offset.
+    private long pageMask; // Masks the page offset of an address.
+    private int frameCount; // The number of frames of physical memory.
+    private Cache[] tlbLevels; // The TLBs as an array, indexed by level.
+    private LongIntMap pageTable; // Maps each virtual page number touched to its frame.
+    private long[] memoPages; // The virtual page number of each memoised translation, or -1 for none.
+    private int[] memoFrames; // The frame of each memoised translation.
+    private int nextFrame; // The next frame given out by sequential allocation.
+    private long randomState; // The state of the xorshift generator of random allocation. Never 0.
+    private long[] usedFrames; // Bitmap of the frames given out by random allocation.
+    private int[] nextFrameOfColor; // The number of frames of each color given out by coloring allocation.
+
+    /**
+     * An enum holding the page allocation policies.
+     */
+    enum Allocation {
+        SEQUENTIAL,
+        RANDOM,
+        COLORING
+    }
+
+    /**
+     * An initialisation method used instead of a constructor to let JSON parsing to use the default constructor.
+     * @param caches The initialised caches of the hierarchy, whose largest way span sets the default number of colors.
+     * @throws Exception If the page size, allocation policy, physical memory or number of colors is unsupported,
+     * or a TLB is invalid.
+     */
+    void initialise(List<Cache> caches) throws Exception {
+        if (pageSize != 4096 && pageSize != 2097152) {
+            throw new Exception("The page size " + pageSize + " is not supported by the simulator! Pages must be 4096 or 2097152 bytes.");
+        }
+        pageBits = Cache.log2(pageSize);
+        pageMask = pageSize - 1;
+        if (physicalMemory < pageSize || physicalMemory % pageSize != 0 || physicalMemory / pageSize > Integer.MAX_VALUE) {
+            throw new Exception("The physical memory must be a whole number of pages, at most " + Integer.MAX_VALUE + " of them.");
+        }
+        frameCount = (int) (physicalMemory / pageSize);
+
+        switch (allocationString) {
+            case ("sequential"):
+                allocation = Allocation.SEQUENTIAL;
+                break;
+            case ("random"):
+                allocation = Allocation.RANDOM;
+                randomState = RandomPolicy.mix(seed);
+                usedFrames = new long[(frameCount + 63) >>> 6];
+                break;
+            case ("coloring"):
+                allocation = Allocation.COLORING;
+                if (colors == 0) {
+                    colors = 1;
+                    for (Cache cache : caches) {
+                        long waySize = cache.size / Cache.waysOf(cache.kind, cache.size / cache.lineSize);
+                        colors = (int) Math.max(colors, Math.min(frameCount, waySize / pageSize));
+                    }
+                }
+                if (colors < 1 || colors > frameCount) {
+                    throw new Exception("The number of page colors must be positive and at most the number of frames.");
+                }
+                nextFrameOfColor = new int[colors];
+                break;
+            default:
+                throw new Exception("The page allocation policy '" + allocationString + "' is not supported by the simulator!");
+        }
+
+        // TLBs hold one entry per page and are looked up by virtual page number.
+        for (Cache tlb : tlbs) {
+            if (tlb.lineSize != 0) {
+                throw new Exception("The TLB " + tlb.name + " holds one entry per page, so it takes no line_size.");
+            }
+            tlb.lineSize = 1;
+            tlb.initialise();
+            if (tlb.modelsWrites() || tlb.prefetches()) {
+                throw new Exception("The TLB " + tlb.name + " cannot have a write policy or a prefetcher.");
+            }
+        }
+        tlbLevels = tlbs.toArray(new Cache[0]);
+        pageTable = new LongIntMap(1 << 16, -1);
+        memoPages = new long[1 << MEMO_BITS];
+        memoFrames = new int[1 << MEMO_BITS];
+        Arrays.fill(memoPages, -1);
+    }
+
+    /**
+     * Starts keeping the statistics of the extended report for every TLB.
+     */
+    void enableExtendedStatistics() {
+        for (Cache tlb : tlbLevels) {
+            tlb.enableExtendedStatistics();
+        }
+    }
+
+    /**
+     * Translates a virtual address, looking its page up in the TLBs and giving the page a frame if it has none yet.
+     * @param address The virtual address.
+     * @return The physical address.
+     * @throws IllegalStateException If the page needs a frame but physical memory is full.
+     */
+    long translate(long address) {
+        long page = address >>> pageBits;
+        Cache[] tlbLevels = this.tlbLevels;
+        int level = 0;
+        while (level < tlbLevels.length && !tlbLevels[level].performOperation(page)) {
+            level++;
+        }
+        if (level == tlbLevels.length && level > 0) {
+            pageWalks++;
+        }
+
+        int slot = (int) (page & ((1 << MEMO_BITS) - 1));
+        int frame;
+        if (memoPages[slot] == page) {
+            frame = memoFrames[slot];
+        } else {
+            frame = pageTable.get(page);
+            if (frame < 0) {
+                frame = allocate(page);
+                pageTable.put(page, frame);
+            }
+            memoPages[slot] = page;
+            memoFrames[slot] = frame;
+        }
+        return (long) frame << pageBits | (address & pageMask);
+    }
+
+    /**
+     * Gives a page touched for the first time a frame by the allocation policy.
+     * @param page The virtual page number.
+     * @return The frame.
+     * @throws IllegalStateException If physical memory is full.
+     */
+    private int allocate(long page) {
+        if (pageTable.size() >= frameCount) {
+            throw new IllegalStateException("The trace touches more pages than fit in the physical memory of the translation.");
+        }
+        if (allocation == Allocation.SEQUENTIAL) {
+            return nextFrame++;
+        } else if (allocation == Allocation.RANDOM) {
+            // Draw frames until a free one comes up, which stays quick while physical memory is mostly free.
+            while (true) {
+                randomState = RandomPolicy.next(randomState);
+                int frame = (int) (((randomState * 0x2545F4914F6CDD1DL) >>> 1) % frameCount);
+                if ((usedFrames[frame >>> 6] & (1L << frame)) == 0) {
+                    usedFrames[frame >>> 6] |= 1L << frame;
+                    return frame;
+                }
+            }
+        }
+        int color = (int) (page % colors);
+        long frame = (long) nextFrameOfColor[color] * colors + color;
+        if (frame >= frameCount) {
+            throw new IllegalStateException("The trace touches more pages of one color than fit in the physical memory of the translation.");
+        }
+        nextFrameOfColor[color]++;
+        return (int) frame;
+    }
+
+    /**
+     * Gets the number of pages given a frame, for the JSON output.
+     * @return The number of pages mapped.
+     */
+    @JSONField(name = "pages")
+    public long getPages() {
+        return pageTable.size();
+    }
+
+    /**
+     * Writes the TLBs, page table and allocation state to a checkpoint.
+     * @param output The checkpoint being written.
+     * @throws IOException If the checkpoint could not be written.
+     */
+    void writeState(CheckpointOutput output) throws IOException {
+        output.writeLong(pageWalks);
+        for (Cache tlb : tlbLevels) {
+            tlb.writeState(output);
+        }
+        pageTable.writeState(output);
+        output.writeInt(nextFrame);
+        output.writeLong(randomState);
+        output.writeLongs(usedFrames);
+        output.writeInts(nextFrameOfColor);
+    }
+
+    /**
+     * Restores the TLBs, page table and allocation state from a checkpoint written by writeState for the same translation.
+     * @param input The checkpoint being read.
+     * @throws IOException If the checkpoint could not be read or does not match the translation.
+     */
+    void readState(CheckpointInput input) throws IOException {
+        pageWalks = input.readLong();
+        for (Cache tlb : tlbLevels) {
+            tlb.readState(input);
+        }
+        pageTable.readState(input);
+        nextFrame = input.readInt();
+        randomState = input.readLong();
+        input.readLongs(usedFrames);
+        input.readInts(nextFrameOfColor);
+        Arrays.fill(memoPages, -1);
+    }
+
+    /**
+     * Zeroes the TLB statistics, keeping the TLB contents and the pages mapped, so a warmed hierarchy starts measuring afresh.
+     */
+    void resetStatistics() {
+        pageWalks = 0;
+        for (Cache tlb : tlbLevels) {
+            tlb.resetStatistics();
+        }
+    }
+}
@@ -0,0 +1,269 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Adaptive replacement cache (ARC) replacement, applied to each set separately.
+ * The lines of a set are split between T1, holding blocks used once since they were filled, and T2, holding blocks
+ * used again. Ghost lists B1 and B2 remember the tags recently evicted from T1 and T2.
+ * A miss on a tag in B1 means T1 was too small, so the target size p of T1 grows, and a miss on a tag in B2 shrinks it.
+ * Victims come from T1 while it is larger than p and from T2 otherwise, always taking the least recently used line.
+ * Recency within each list is kept with a per set clock, as in LRU, and the ghost lists are small unordered arrays,
+ * so each operation scans at most the lines and ghosts of one set.
+ */
+final class ArcPolicy extends ReplacementPolicy {
+    private static final int NONE = -1; // Marks a tag found in neither ghost list.
+    private static final int RECENT_GHOSTS = 0; // The index of B1, the ghosts of T1.
+    private static final int FREQUENT_GHOSTS = 1; // The index of B2, the ghosts of T2.
+    private static final byte NOT_ADAPTED = -2; // Marks a set whose next fill has not been looked up by victim.
+
+    private final int setSize; // The number of lines per set, which is also the capacity of each ghost list.
+    private final boolean[] frequent; // Whether each line is in T2 rather than T1.
+    private final long[] lastUses; // The value of the set's clock when each line was last used.
+    private final long[] lineTags; // The tag held by each line, remembered for the ghost lists when it is evicted.
+    private final long[] clocks; // A counter per set incremented on each use of one of its lines or ghosts.
+    private final int[] targets; // The target size p of T1 for each set.
+    private final int[] recentCounts; // The size of T1 for each set.
+    private final int[] frequentCounts; // The size of T2 for each set.
+    private final long[] ghostTags; // The tags of the ghost lists. B1 and B2 of set s start at (2s) * setSize and (2s + 1) * setSize.
+    private final long[] ghostUses; // The value of the set's clock when each ghost was added.
+    private final int[] ghostCounts; // The size of each ghost list, B1 of set s at 2s and B2 at 2s + 1.
+    private final byte[] foundGhostLists; // For each set, the ghost list victim found the tag of the next fill in, NONE, or NOT_ADAPTED.
+
+    /**
+     * Creates the policy with every list empty.
+     * @param numberOfSets The number of sets in the cache.
+     * @param setSize The number of lines per set.
+     */
+    ArcPolicy(int numberOfSets, int setSize) {
+        super(Kind.ARC);
+        this.setSize = setSize;
+        int numberOfLines = numberOfSets * setSize;
+        frequent = new boolean[numberOfLines];
+        lastUses = new long[numberOfLines];
+        lineTags = new long[numberOfLines];
+        clocks = new long[numberOfSets];
+        targets = new int[numberOfSets];
+        recentCounts = new int[numberOfSets];
+        frequentCounts = new int[numberOfSets];
+        ghostTags = new long[numberOfLines * 2];
+        ghostUses = new long[numberOfLines * 2];
+        ghostCounts = new int[numberOfSets * 2];
+        foundGhostLists = new byte[numberOfSets];
+        Arrays.fill(foundGhostLists, NOT_ADAPTED);
+    }
+
+    @Override
+    public void hit(int setNumber, int firstLine, int line) {
+        // A block used again moves to (or stays at the most recent end of) T2.
+        if (!frequent[line]) {
+            frequent[line] = true;
+            recentCounts[setNumber]--;
+            frequentCounts[setNumber]++;
+        }
+        lastUses[line] = ++clocks[setNumber];
+    }
+
+    @Override
+    public int victim(int setNumber, int firstLine, int endLine, long tag) {
+        int ghostList = adapt(setNumber, tag);
+        foundGhostLists[setNumber] = (byte) ghostList;
+        if (ghostList == NONE) {
+            // A block in no list. Keep T1 and B1 within one set's worth of tags, and all four lists within two.
+            int recentGhosts = ghostCounts[setNumber * 2 + RECENT_GHOSTS];
+            if (recentCounts[setNumber] + recentGhosts >= setSize) {
+                if (recentGhosts == 0) {
+                    // T1 fills the set, so evict its least recently used line without remembering it.
+                    int line = leastRecent(setNumber, firstLine, endLine, false);
+                    recentCounts[setNumber]--;
+                    return line;
+                }
+                removeLeastRecentGhost(setNumber, RECENT_GHOSTS);
+            } else if (recentCounts[setNumber] + frequentCounts[setNumber] + recentGhosts
+                    + ghostCounts[setNumber * 2 + FREQUENT_GHOSTS] >= 2 * setSize) {
+                removeLeastRecentGhost(setNumber, FREQUENT_GHOSTS);
+            }
+        }
+        return replace(setNumber, firstLine, endLine, ghostList == FREQUENT_GHOSTS);
+    }
+
+    @Override
+    public void fill(int setNumber, int firstLine, int line, long tag) {
+        int ghostList = foundGhostLists[setNumber];
+        if (ghostList == NOT_ADAPTED) {
+            // Filling an invalid line, so the set is not full and nothing needs to be evicted, only the ghosts trimmed.
+            ghostList = adapt(setNumber, tag);
+            if (ghostList == NONE) {
+                int recentGhosts = ghostCounts[setNumber * 2 + RECENT_GHOSTS];
+                if (recentCounts[setNumber] + recentGhosts >= setSize && recentGhosts > 0) {
+                    removeLeastRecentGhost(setNumber, RECENT_GHOSTS);
+                } else if (recentCounts[setNumber] + frequentCounts[setNumber] + recentGhosts
+                        + ghostCounts[setNumber * 2 + FREQUENT_GHOSTS] >= 2 * setSize) {
+                    removeLeastRecentGhost(setNumber, FREQUENT_GHOSTS);
+                }
+            }
+        }
+        foundGhostLists[setNumber] = NOT_ADAPTED;
+
+        // A block remembered by a ghost list has been used before, so it goes straight to T2.
+        frequent[line] = ghostList != NONE;
+        if (ghostList != NONE) {
+            frequentCounts[setNumber]++;
+        } else {
+            recentCounts[setNumber]++;
+        }
+        lastUses[line] = ++clocks[setNumber];
+        lineTags[line] = tag;
+    }
+
+    @Override
+    public void invalidate(int setNumber, int firstLine, int line) {
+        // The line leaves T1 or T2 without becoming a ghost, as it was not chosen by the policy.
+        if (frequent[line]) {
+            frequentCounts[setNumber]--;
+        } else {
+            recentCounts[setNumber]--;
+        }
+    }
+
+    /**
+     * Looks for a tag in the ghost lists of a set, adapting the target size of T1 and removing the ghost if found.
+     * @param setNumber The number of the set.
+     * @param tag The tag of the block being filled.
+     * @return The ghost list the tag was found in, or NONE.
+     */
+    private int adapt(int setNumber, long tag) {
+        for (int list = RECENT_GHOSTS; list <= FREQUENT_GHOSTS; list++) {
+            int first = (setNumber * 2 + list) * setSize;
+            int end = first + ghostCounts[setNumber * 2 + list];
+            for (int ghost = first; ghost < end; ghost++) {
+                if (ghostTags[ghost] == tag) {
+                    int recentGhosts = ghostCounts[setNumber * 2 + RECENT_GHOSTS];
+                    int frequentGhosts = ghostCounts[setNumber * 2 + FREQUENT_GHOSTS];
+                    if (list == RECENT_GHOSTS) {
+                        targets[setNumber] = Math.min(setSize, targets[setNumber] + Math.max(1, frequentGhosts / recentGhosts));
+                    } else {
+                        targets[setNumber] = Math.max(0, targets[setNumber] - Math.max(1, recentGhosts / frequentGhosts));
+                    }
+                    removeGhost(setNumber, list, ghost);
+                    return list;
+                }
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Evicts the least recently used line of T1 or T2 according to the target size of T1, remembering its tag as a ghost.
+     * @param setNumber The number of the set.
+     * @param firstLine The index of the first line of the set.
+     * @param endLine The index one past the last line of the set.
+     * @param inFrequentGhosts Whether the tag being filled was found in B2.
+     * @return The index of the line to evict.
+     */
+    private int replace(int setNumber, int firstLine, int endLine, boolean inFrequentGhosts) {
+        int recent = recentCounts[setNumber];
+        int target = targets[setNumber];
+        boolean fromRecent = recent > 0 && (recent > target || (inFrequentGhosts && recent == target) || frequentCounts[setNumber] == 0);
+        int line = leastRecent(setNumber, firstLine, endLine, !fromRecent);
+        if (fromRecent) {
+            recentCounts[setNumber]--;
+            addGhost(setNumber, RECENT_GHOSTS, lineTags[line]);
+        } else {
+            frequentCounts[setNumber]--;
+            addGhost(setNumber, FREQUENT_GHOSTS, lineTags[line]);
+        }
+        return line;
+    }
+
+    /**
+     * Finds the least recently used line of T1 or T2 in a set.
+     * @param setNumber The number of the set.
+     * @param firstLine The index of the first line of the set.
+     * @param endLine The index one past the last line of the set.
+     * @param inFrequent Whether to search T2 rather than T1.
+     * @return The index of the line.
+     */
+    private int leastRecent(int setNumber, int firstLine, int endLine, boolean inFrequent) {
+        int leastRecent = -1;
+        for (int line = firstLine; line < endLine; line++) {
+            if (frequent[line] == inFrequent && (leastRecent < 0 || lastUses[line] < lastUses[leastRecent])) {
+                leastRecent = line;
+            }
+        }
+        return leastRecent;
+    }
+
+    /**
+     * Adds a tag to the most recent end of a ghost list, dropping its least recent ghost if it is full.
+     * @param setNumber The number of the set.
+     * @param list The ghost list.
+     * @param tag The tag to remember.
+     */
+    private void addGhost(int setNumber, int list, long tag) {
+        if (ghostCounts[setNumber * 2 + list] == setSize) {
+            removeLeastRecentGhost(setNumber, list);
+        }
+        int ghost = (setNumber * 2 + list) * setSize + ghostCounts[setNumber * 2 + list]++;
+        ghostTags[ghost] = tag;
+        ghostUses[ghost] = ++clocks[setNumber];
+    }
+
+    /**
+     * Removes the least recent ghost of a ghost list.
+     * @param setNumber The number of the set.
+     * @param list The ghost list.
+     */
+    private void removeLeastRecentGhost(int setNumber, int list) {
+        int first = (setNumber * 2 + list) * setSize;
+        int end = first + ghostCounts[setNumber * 2 + list];
+        int leastRecent = first;
+        for (int ghost = first + 1; ghost < end; ghost++) {
+            if (ghostUses[ghost] < ghostUses[leastRecent]) {
+                leastRecent = ghost;
+            }
+        }
+        removeGhost(setNumber, list, leastRecent);
+    }
+
+    /**
+     * Removes a ghost by moving the last ghost of its list into its place.
+     * @param setNumber The number of the set.
+     * @param list The ghost list.
+     * @param ghost The index of the ghost.
+     */
+    private void removeGhost(int setNumber, int list, int ghost) {
+        int last = (setNumber * 2 + list) * setSize + --ghostCounts[setNumber * 2 + list];
+        ghostTags[ghost] = ghostTags[last];
+        ghostUses[ghost] = ghostUses[last];
+    }
+
+    @Override
+    public void writeState(CheckpointOutput output) throws IOException {
+        output.writeBooleans(frequent);
+        output.writeLongs(lastUses);
+        output.writeLongs(lineTags);
+        output.writeLongs(clocks);
+        output.writeInts(targets);
+        output.writeInts(recentCounts);
+        output.writeInts(frequentCounts);
+        output.writeLongs(ghostTags);
+        output.writeLongs(ghostUses);
+        output.writeInts(ghostCounts);
+        output.writeBytes(foundGhostLists);
+    }
+
+    @Override
+    public void readState(CheckpointInput input) throws IOException {
+        input.readBooleans(frequent);
+        input.readLongs(lastUses);
+        input.readLongs(lineTags);
+        input.readLongs(clocks);
+        input.readInts(targets);
+        input.readInts(recentCounts);
+        input.readInts(frequentCounts);
+        input.readLongs(ghostTags);
+        input.readLongs(ghostUses);
+        input.readInts(ghostCounts);
+        input.readBytes(foundGhostLists);
+    }
+}
@@ -49,19 +49,13 @@ public class BinaryAddress {
 
     /**
      * Gets the set number of this address for a specific cache.
-     * This is held in the middle of an address.
+     * This is held in the middle of an address unless the cache indexes its sets by modulo or hash.
      * @param cache The cache to translate to.
      * @return The set number of the address.
      */
     public int getSet(Cache cache) {
-        // Determine the number of bits to shift the address to the right to remove the offset.
-        int offsetBits = cache.getOffsetBits();
-
-        // Define a mask to take only the final bits of the shifted address, which correspond to the set.
-        long setMask = (1L << cache.getSetBits()) - 1;
-
-        // Get the set by shifting the address and then extracting the final bits using the mask.
-        return (int) ((address >>> offsetBits) & setMask);
+        // Let the cache map the address, as caches with modulo or hash set indexing do not take the set from its bits.
+        return cache.getSet(address);
     }
 
     /**
@@ -0,0 +1,254 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Reads memory operations from a binary program trace written by BinaryTraceWriter.
+ * Records are decoded from a reused byte buffer with no per record allocation or text parsing.
+ */
+public class BinaryTraceReader extends TraceReader {
+    private static final int BUFFER_SIZE = 1 << 16; // The size of the read buffer in bytes.
+
+    private final InputStream input; // The stream the trace is read from.
+    private final byte[] buffer = new byte[BUFFER_SIZE + BinaryTraceWriter.MAX_RECORD_LENGTH]; // Reused buffer holding raw bytes of the trace, padded for decoding past the limit.
+    private int position; // The index of the next unread byte in the buffer.
+    private int limit; // The index one past the last valid byte in the buffer.
+    private boolean endOfInput; // Whether the underlying stream has been fully read.
+    private long bufferOffset; // The offset in the trace file of the first byte in the buffer.
+    private boolean fromFile; // Whether the trace is read straight from a file, so byte offsets can be reopened.
+    private final boolean delta; // Whether records are delta / varint encoded.
+    private final boolean programCounters; // Whether records include program counters.
+    private final int filteredLevels; // The number of cache levels the trace was filtered through, or 0 for a program trace.
+
+    /**
+     * Checks whether a file is a binary trace by looking for the magic bytes at its start.
+     * @param fileName The file name of the trace.
+     * @return Whether the file is a binary trace.
+     * @throws IOException If the file could not be read.
+     */
+    public static boolean isBinaryTrace(String fileName) throws IOException {
+        try (InputStream stream = new FileInputStream(fileName)) {
+            byte[] magic = stream.readNBytes(BinaryTraceWriter.MAGIC.length);
+            return Arrays.equals(magic, BinaryTraceWriter.MAGIC);
+        }
+    }
+
+    /**
+     * Opens a binary trace reader on a file.
+     * @param fileName The file name of the binary trace.
+     * @throws IOException If the file could not be opened or has an invalid header.
+     */
+    public BinaryTraceReader(String fileName) throws IOException {
+        this(new FileInputStream(fileName));
+        fromFile = true;
+    }
+
+    /**
+     * Opens a binary trace reader on a file at the byte offset of a record, after reading the header.
+     * @param fileName The file name of the binary trace.
+     * @param byteOffset The byte offset of the next record to read, as returned by getByteOffset.
+     * @throws IOException If the file could not be opened or has an invalid header.
+     */
+    public BinaryTraceReader(String fileName, long byteOffset) throws IOException {
+        this(new FileInputStream(fileName));
+        fromFile = true;
+        if (byteOffset > BinaryTraceWriter.HEADER_SIZE) {
+            ((FileInputStream) input).getChannel().position(byteOffset);
+            bufferOffset = byteOffset;
+            position = 0;
+            limit = 0;
+            endOfInput = false;
+        }
+    }
+
+    /**
+     * Creates a binary trace reader on an input stream and reads the header.
+     * @param input The stream to read the trace from.
+     * @throws IOException If the header could not be read or is invalid.
+     */
+    public BinaryTraceReader(InputStream input) throws IOException {
+        this.input = input;
+        fill();
+        if (limit < BinaryTraceWriter.HEADER_SIZE
+                || !Arrays.equals(buffer, 0, BinaryTraceWriter.MAGIC.length, BinaryTraceWriter.MAGIC, 0, BinaryTraceWriter.MAGIC.length)) {
+            throw new IOException("Not a binary trace.");
+        }
+        if (buffer[4] != BinaryTraceWriter.VERSION) {
+            throw new IOException("Unsupported binary trace version " + buffer[4] + ".");
+        }
+        int flags = buffer[5];
+        delta = (flags & BinaryTraceWriter.FLAG_DELTA) != 0;
+        programCounters = (flags & BinaryTraceWriter.FLAG_PROGRAM_COUNTERS) != 0;
+        filteredLevels = buffer[6] & 0xFF;
+        position = BinaryTraceWriter.HEADER_SIZE;
+    }
+
+    /**
+     * Reads the next memory operation into the operation fields.
+     * @return Whether an operation was read (false at the end of the trace).
+     * @throws IOException If the trace could not be read or ends part way through a record.
+     */
+    @Override
+    public boolean next() throws IOException {
+        if (limit - position < BinaryTraceWriter.MAX_RECORD_LENGTH) {
+            fill();
+            if (position == limit) {
+                return false;
+            }
+        }
+
+        int sizeAndKind;
+        if (delta) {
+            address += unzigzag(readVarLong());
+            sizeAndKind = (int) readVarLong();
+            if (programCounters) {
+                programCounter += unzigzag(readVarLong());
+            }
+        } else {
+            address = readLong();
+            sizeAndKind = (buffer[position] & 0xFF) | (buffer[position + 1] & 0xFF) << 8;
+            position += 2;
+            if (programCounters) {
+                programCounter = readLong();
+            }
+        }
+        if (position > limit) {
+            throw new IOException("Binary trace ends part way through a record.");
+        }
+        size = sizeAndKind >>> 1;
+        write = (sizeAndKind & 1) != 0;
+        return true;
+    }
+
+    /**
+     * Moves past memory operations without decoding them.
+     * Fixed width records are skipped by moving the position over whole records.
+     * Delta records depend on the records before them, so they are still decoded.
+     * @param count The number of operations to skip.
+     * @return The number of operations skipped, which is less than the count only at the end of the trace.
+     * @throws IOException If the trace could not be read or ends part way through a record.
+     */
+    @Override
+    public long skip(long count) throws IOException {
+        if (delta) {
+            return super.skip(count);
+        }
+        int recordLength = Long.BYTES + 2 + (programCounters ? Long.BYTES : 0);
+        long skipped = 0;
+        while (skipped < count) {
+            long buffered = (limit - position) / recordLength;
+            if (buffered == 0) {
+                fill();
+                if (limit - position < recordLength) {
+                    if (position != limit) {
+                        throw new IOException("Binary trace ends part way through a record.");
+                    }
+                    break;
+                }
+                continue;
+            }
+            long records = Math.min(buffered, count - skipped);
+            position += (int) records * recordLength;
+            skipped += records;
+        }
+        return skipped;
+    }
+
+    /**
+     * Gets the number of cache levels the trace was filtered through.
+     * @return The number of filtered levels, or 0 for a program trace.
+     */
+    @Override
+    public int getFilteredLevels() {
+        return filteredLevels;
+    }
+
+    /**
+     * Gets whether the records of the trace include program counters.
+     * @return Whether the program counters are read, rather than left at 0.
+     */
+    @Override
+    public boolean hasProgramCounters() {
+        return programCounters;
+    }
+
+    /**
+     * Gets the byte offset in the trace file of the next record to read.
+     * @return The byte offset, or -1 if the trace is not read straight from a file (such as a decompressed trace).
+     */
+    @Override
+    public long getByteOffset() {
+        return fromFile ? bufferOffset + position : -1;
+    }
+
+    /**
+     * Moves any unread bytes to the start of the buffer and fills the rest of it from the stream.
+     * @throws IOException If the stream could not be read.
+     */
+    private void fill() throws IOException {
+        int remaining = limit - position;
+        System.arraycopy(buffer, position, buffer, 0, remaining);
+        bufferOffset += position;
+        position = 0;
+        limit = remaining;
+        while (!endOfInput && limit < BUFFER_SIZE) {
+            int read = input.read(buffer, limit, BUFFER_SIZE - limit);
+            if (read < 0) {
+                endOfInput = true;
+            } else {
+                limit += read;
+            }
+        }
+        // Zero the unused part of the buffer so a truncated record decodes harmlessly before being detected.
+        Arrays.fill(buffer, limit, limit + BinaryTraceWriter.MAX_RECORD_LENGTH, (byte) 0);
+    }
+
+    /**
+     * Reads a little-endian 8 byte long from the buffer.
+     * @return The value read.
+     */
+    private long readLong() {
+        long value = 0;
+        for (int i = Long.BYTES - 1; i >= 0; i--) {
+            value = (value << 8) | (buffer[position + i] & 0xFF);
+        }
+        position += Long.BYTES;
+        return value;
+    }
+
+    /**
+     * Reads an unsigned varint from the buffer.
+     * @return The value read.
+     * @throws IOException If the varint is longer than 10 bytes.
+     */
+    private long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            byte b = buffer[position++];
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in binary trace.");
+    }
+
+    /**
+     * Reverses zigzag encoding.
+     * @param value The zigzag encoded value.
+     * @return The signed value.
+     */
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Closes the underlying stream.
+     * @throws IOException If the stream could not be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
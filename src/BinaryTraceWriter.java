@@ -0,0 +1,194 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes memory operations to a compact binary program trace, which can be read back much faster than the text format.
+ *
+ * Format: an 8 byte header followed by one record per operation. All multi-byte values are little-endian.
+ * Header: the magic bytes "CSTB", a version byte, a flags byte, the number of cache levels filtered out of the trace
+ * (0 for a program trace) and a reserved byte.
+ * Fixed records: the memory address (8 bytes), the size and kind packed as (size << 1 | write) (2 bytes),
+ * then the program counter (8 bytes) if FLAG_PROGRAM_COUNTERS is set.
+ * Delta records (FLAG_DELTA): the same fields as varints, with the memory address and program counter
+ * stored as zigzag encoded differences from those of the previous record.
+ */
+public class BinaryTraceWriter implements AutoCloseable {
+    static final byte[] MAGIC = { 'C', 'S', 'T', 'B' }; // The magic bytes at the start of every binary trace.
+    static final int VERSION = 1; // The version of the format written.
+    static final int HEADER_SIZE = 8; // The size of the header in bytes.
+    static final int FLAG_DELTA = 1; // Flag marking records as delta / varint encoded.
+    static final int FLAG_PROGRAM_COUNTERS = 2; // Flag marking records as including program counters.
+    static final int MAX_FIXED_SIZE = 0x7FFF; // The largest operation size that fits in a fixed record.
+    static final int MAX_RECORD_LENGTH = 30; // The largest possible record in bytes (three 10 byte varints).
+    private static final int BUFFER_SIZE = 1 << 16; // The size of the write buffer in bytes.
+
+    private final OutputStream output; // The stream the trace is written to.
+    private final byte[] buffer = new byte[BUFFER_SIZE]; // Buffer of encoded records waiting to be written.
+    private int position; // The number of bytes currently in the buffer.
+    private final boolean delta; // Whether records are delta / varint encoded.
+    private final boolean programCounters; // Whether records include program counters.
+    private long previousAddress; // The memory address of the previous record, used for delta encoding.
+    private long previousProgramCounter; // The program counter of the previous record, used for delta encoding.
+
+    /**
+     * Creates a binary trace file and writes its header.
+     * @param fileName The file name of the binary trace.
+     * @param delta Whether to delta / varint encode records.
+     * @param programCounters Whether to include program counters in records.
+     * @throws IOException If the file could not be created.
+     */
+    public BinaryTraceWriter(String fileName, boolean delta, boolean programCounters) throws IOException {
+        this(new FileOutputStream(fileName), delta, programCounters, 0);
+    }
+
+    /**
+     * Creates a binary trace file holding the misses of the highest cache levels and writes its header.
+     * @param fileName The file name of the binary trace.
+     * @param delta Whether to delta / varint encode records.
+     * @param programCounters Whether to include program counters in records.
+     * @param filteredLevels The number of cache levels the trace was filtered through.
+     * @throws IOException If the file could not be created.
+     */
+    public BinaryTraceWriter(String fileName, boolean delta, boolean programCounters, int filteredLevels) throws IOException {
+        this(new FileOutputStream(fileName), delta, programCounters, filteredLevels);
+    }
+
+    /**
+     * Creates a binary trace writer on an output stream and writes the header.
+     * @param output The stream to write the trace to.
+     * @param delta Whether to delta / varint encode records.
+     * @param programCounters Whether to include program counters in records.
+     */
+    public BinaryTraceWriter(OutputStream output, boolean delta, boolean programCounters) {
+        this(output, delta, programCounters, 0);
+    }
+
+    /**
+     * Creates a binary trace writer on an output stream and writes the header.
+     * @param output The stream to write the trace to.
+     * @param delta Whether to delta / varint encode records.
+     * @param programCounters Whether to include program counters in records.
+     * @param filteredLevels The number of cache levels the trace was filtered through, or 0 for a program trace.
+     */
+    public BinaryTraceWriter(OutputStream output, boolean delta, boolean programCounters, int filteredLevels) {
+        this.output = output;
+        this.delta = delta;
+        this.programCounters = programCounters;
+
+        System.arraycopy(MAGIC, 0, buffer, 0, MAGIC.length);
+        buffer[4] = VERSION;
+        buffer[5] = (byte) ((delta ? FLAG_DELTA : 0) | (programCounters ? FLAG_PROGRAM_COUNTERS : 0));
+        buffer[6] = (byte) filteredLevels;
+        position = HEADER_SIZE;
+    }
+
+    /**
+     * Writes a memory operation to the trace.
+     * @param programCounter The program counter of the operation. Ignored if program counters are not included.
+     * @param address The memory address of the operation.
+     * @param size The size of the operation.
+     * @param write Whether the operation is a write.
+     * @throws IOException If the trace could not be written or the size cannot be encoded.
+     */
+    public void write(long programCounter, long address, int size, boolean write) throws IOException {
+        if (size < 0 || (!delta && size > MAX_FIXED_SIZE)) {
+            throw new IOException("Operation size " + size + " cannot be stored in a binary trace.");
+        }
+        if (buffer.length - position < MAX_RECORD_LENGTH) {
+            flush();
+        }
+
+        int sizeAndKind = size << 1 | (write ? 1 : 0);
+        if (delta) {
+            writeVarLong(zigzag(address - previousAddress));
+            writeVarLong(sizeAndKind);
+            if (programCounters) {
+                writeVarLong(zigzag(programCounter - previousProgramCounter));
+            }
+            previousAddress = address;
+            previousProgramCounter = programCounter;
+        } else {
+            writeLong(address);
+            buffer[position++] = (byte) sizeAndKind;
+            buffer[position++] = (byte) (sizeAndKind >>> 8);
+            if (programCounters) {
+                writeLong(programCounter);
+            }
+        }
+    }
+
+    /**
+     * Converts a text program trace into a binary trace.
+     * @param textFileName The file name of the text trace, which may be gzip compressed.
+     * @param binaryFileName The file name of the binary trace to create.
+     * @param delta Whether to delta / varint encode records.
+     * @param programCounters Whether to include program counters in records.
+     * @return The number of operations converted.
+     * @throws IOException If either trace could not be read or written.
+     */
+    public static long convert(String textFileName, String binaryFileName, boolean delta, boolean programCounters) throws IOException {
+        long operations = 0;
+        try (TraceReader reader = new TextTraceReader(DecompressingInputStream.open(textFileName));
+                BinaryTraceWriter writer = new BinaryTraceWriter(binaryFileName, delta, programCounters)) {
+            while (reader.next()) {
+                writer.write(reader.programCounter, reader.address, reader.size, reader.write);
+                operations++;
+            }
+        }
+        return operations;
+    }
+
+    /**
+     * Zigzag encodes a signed value so that small negative values also become small unsigned values.
+     * @param value The value to encode.
+     * @return The zigzag encoded value.
+     */
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Appends a value to the buffer as a little-endian 8 byte long.
+     * @param value The value to append.
+     */
+    private void writeLong(long value) {
+        for (int i = 0; i < Long.BYTES; i++) {
+            buffer[position++] = (byte) (value >>> (i * 8));
+        }
+    }
+
+    /**
+     * Appends an unsigned value to the buffer as a varint of 7 bits per byte, with the top bit marking continuation.
+     * @param value The value to append.
+     */
+    private void writeVarLong(long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    /**
+     * Writes the buffered records to the stream.
+     * @throws IOException If the stream could not be written.
+     */
+    public void flush() throws IOException {
+        output.write(buffer, 0, position);
+        position = 0;
+    }
+
+    /**
+     * Writes any buffered records and closes the stream.
+     * @throws IOException If the stream could not be written or closed.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            output.close();
+        }
+    }
+}
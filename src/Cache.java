@@ -1,6 +1,5 @@
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.io.IOException;
+import java.util.List;
 
 import com.alibaba.fastjson2.annotation.JSONField;
 
@@ -23,22 +22,50 @@ public class Cache {
     @JSONField(name = "replacement_policy", serialize = false)
     public String replacementPolicyString = "rr"; // A string representation of the replacement / eviction policy.
 
+    @JSONField(name = "replacement_seed", serialize = false)
+    public long replacementSeed = 1; // The seed of the random choices made by the replacement policy (random and brrip).
+
+    @JSONField(name = "set_indexing", serialize = false)
+    public String setIndexingString = "bits"; // How addresses map to sets: "bits", "modulo" or "hash".
+
+    @JSONField(name = "write_policy", serialize = false)
+    public String writePolicyString; // "write-back" or "write-through", or null to treat writes as reads unless another level models writes.
+
+    @JSONField(name = "write_allocate", serialize = false)
+    public Boolean writeAllocate; // Whether a write miss fills a line, or null for the default of the write policy.
+
+    @JSONField(name = "prefetcher", serialize = false)
+    public String prefetcherString; // "next-line", "stride" or "stream", or null for no prefetcher.
+
+    @JSONField(name = "prefetch_degree", serialize = false)
+    public int prefetchDegree = 1; // The number of blocks prefetched each time the prefetcher triggers.
+
+    @JSONField(name = "prefetch_table_size", serialize = false)
+    public int prefetchTableSize; // The number of entries of the stride or stream table, or 0 for the default of the prefetcher.
+
+    @JSONField(name = "prefetch_latency", serialize = false)
+    public int prefetchLatency = 16; // The number of demand accesses of the cache a prefetch takes to arrive, for counting late prefetches.
+
     @JSONField(name = "hits", deserialize = false)
-    public int hits; // The number of hits of this cache after simulating a program.
+    public long hits; // The number of hits of this cache after simulating a program.
 
     @JSONField(name = "misses", deserialize = false)
-    public int misses; // The number of misses of this cache after simulating a program.
+    public long misses; // The number of misses of this cache after simulating a program.
 
     /**
      * Other variables used throughout the code.
      */
     public static final int ADDRESS_SPACE_SIZE = 64; // The size of the address space in bits. At 64 this is the same as Long.SIZE.
-    private ArrayList<LinkedList<CacheLine>> sets; // Sets of cache lines holding memory addresses.
-    private ReplacementPolicy replacementPolicy; // The replacement / eviction policy of the cache as an enum value.
+    private int numberOfSets; // The number of sets in the cache.
+    private long[] tags; // The tag held by each line. Lines of a set are stored contiguously, so line = set * setSize + way.
+    private long[] validBits; // Bitmap of the valid bit of each line.
+    private FullyAssociativeIndex fullyAssociativeIndex; // Constant time lookup and replacement for fully associative caches, or null.
+    private ReplacementPolicy replacementPolicy; // The replacement / eviction policy of the cache, holding its metadata for every line.
+    private SetIndexing setIndexing; // How addresses map to sets as an enum value.
     @JSONField(name = "accesses", serialize = false, deserialize = false)
-    private int accesses; // The number of accesses of this cache. Used for diagnostics.
+    private long accesses; // The number of accesses of this cache. Reported by the extended report.
     @JSONField(name = "overruns", serialize = false, deserialize = false)
-    public int overruns; // The number of overruns of this cache. Used for diagnostics.
+    public long overruns; // The number of overruns of this cache. Reported by the extended report.
     @JSONField(name = "set_size", serialize = false, deserialize = false)
     private int setSize; // The number of cache lines per set.
     @JSONField(serialize = false, deserialize = false)
@@ -49,78 +76,463 @@ public class Cache {
     private int tagBits; // The number of bits used for the tag in cache addressing.
 
     /**
-     * An enum holding replacement / eviction policies to make checking simpler and faster.
+     * Addressing constants precomputed from the bit counts so the simulation loop only shifts and masks.
+     */
+    @JSONField(serialize = false, deserialize = false)
+    long offsetMask; // Masks the offset of an address.
+    @JSONField(serialize = false, deserialize = false)
+    long setMask; // Masks the set of an address after shifting out the offset.
+    @JSONField(serialize = false, deserialize = false)
+    int tagShift; // The right shift taking an address to its tag.
+    @JSONField(serialize = false, deserialize = false)
+    long blockSize; // The distance between the addresses of adjacent blocks.
+
+    /**
+     * Write policy state, only used when the hierarchy models writes.
+     */
+    private WritePolicy writePolicy; // The write policy of the cache, or null if writes are treated as reads.
+    private boolean allocateOnWrite; // Whether a write miss fills a line.
+    private long[] dirtyBits; // Bitmap of the dirty bit of each line, set by writes to a write-back cache.
+    private int lastLine; // The line most recently hit or filled, tracked only while writes are modelled or levels interact.
+    private boolean victimDirty; // Whether the most recent fill evicted a dirty line that still has to be written back.
+    private long victimAddress; // The address of the block held by the dirty line evicted by the most recent fill.
+    @JSONField(serialize = false, deserialize = false)
+    long writebacks; // The number of dirty lines written back to the next level or main memory.
+    @JSONField(serialize = false, deserialize = false)
+    long writeThroughs; // The number of writes passed on to the next level or main memory by a write-through cache.
+
+    /**
+     * Extended statistics state, only used when the extended report is requested.
+     * Misses are classified with the 3C model: a compulsory miss is the first access to a block,
+     * a capacity miss would also miss in a fully associative LRU cache of the same size (the shadow cache),
+     * and a conflict miss would hit in the shadow cache.
+     */
+    private boolean extendedStatistics; // Whether the extended statistics are kept and reported.
+    private LongIntMap seenBlocks; // The block numbers accessed so far, used as a set.
+    private FullyAssociativeIndex shadowIndex; // The fully associative LRU shadow cache, indexed by block number.
+    private long[] shadowTags; // The block number held by each line of the shadow cache.
+    @JSONField(serialize = false, deserialize = false)
+    long evictions; // The number of valid lines replaced by fills.
+    @JSONField(serialize = false, deserialize = false)
+    long compulsoryMisses; // The number of misses on blocks never accessed before.
+    @JSONField(serialize = false, deserialize = false)
+    long capacityMisses; // The number of misses that the shadow cache also misses.
+    @JSONField(serialize = false, deserialize = false)
+    long conflictMisses; // The number of misses that the shadow cache hits.
+
+    /**
+     * Sampling state, only used when the hits and misses are estimated from sampled windows of the trace.
+     */
+    private boolean sampled; // Whether the hits and misses are estimates.
+    private long samplingHitsError; // The half width of the confidence interval of the estimated hits.
+    private long samplingMissesError; // The half width of the confidence interval of the estimated misses.
+
+    /**
+     * Inclusion state, only used when the hierarchy is inclusive or exclusive rather than non-inclusive (NINE).
+     * A cache below the first level of an inclusive hierarchy marks each line whose block the level above may also hold,
+     * a reverse index that limits back-invalidations on eviction to the blocks actually copied above.
+     * A cache below the first level of an exclusive hierarchy is only filled with the victims of the level above,
+     * and gives its line up when the level above takes the block back.
+     */
+    private Inclusion inclusion = Inclusion.NINE; // How the contents of this cache relate to those of the levels above.
+    private Cache upperLevel; // The level above, whose copies an inclusive cache invalidates when it evicts a block, or null.
+    private long[] upperCopyBits; // Bitmap marking the lines whose block the level above may also hold, or null.
+    private boolean keepsVictims; // Whether evicted blocks are kept for the level below, as in an exclusive hierarchy above its last level.
+    private boolean victimPending; // Whether the most recent fill evicted a block still to be inserted in the level below.
+    private long evictedAddress; // The address of the block evicted by the most recent fill.
+    private boolean tracksLines; // Whether the last line is tracked and evictions are recorded, for write policies, inclusion or prefetching.
+    @JSONField(serialize = false, deserialize = false)
+    long backInvalidations; // The number of lines invalidated because a lower level of an inclusive hierarchy evicted their block.
+    @JSONField(serialize = false, deserialize = false)
+    long victimInsertions; // The number of victims of the level above inserted into this cache in an exclusive hierarchy.
+
+    /**
+     * Prefetch state, only used when the cache has a prefetcher.
+     * A useful prefetch is a prefetched line later hit by a demand access, and a late one is useful but hit within
+     * the prefetch latency, so the demand access would still have waited for it. A polluting prefetch evicted a block
+     * that a later demand access missed on, which is found with a pollution filter of the blocks prefetches evicted.
+     */
+    @JSONField(serialize = false, deserialize = false)
+    Prefetcher prefetcher; // The prefetcher of the cache, or null.
+    private long[] prefetchedBits; // Bitmap of the lines filled by a prefetch and not yet used by a demand access.
+    private long[] prefetchTimes; // The number of accesses of the cache when each line was prefetched.
+    private long[] pollutionFilter; // The block number plus one (0 is empty) of blocks evicted by prefetches, hashed by block number.
+    private int pollutionShift; // The right shift taking a hashed block number to a pollution filter slot.
+    private boolean prefetching; // Whether a prefetch fill is in progress, so its eviction goes in the pollution filter.
+    private boolean prefetchHit; // Whether the most recent demand access hit a prefetched line for the first time.
+    @JSONField(serialize = false, deserialize = false)
+    long prefetchesIssued; // The number of prefetches filled into the cache.
+    @JSONField(serialize = false, deserialize = false)
+    long prefetchesUseful; // The number of prefetched lines hit by a demand access before being evicted.
+    @JSONField(serialize = false, deserialize = false)
+    long prefetchesLate; // The number of useful prefetches hit within the prefetch latency.
+    @JSONField(serialize = false, deserialize = false)
+    long prefetchesPolluting; // The number of demand misses on blocks evicted by a prefetch.
+
+    @JSONField(serialize = false, deserialize = false)
+    ProgramCounterSketch missProgramCounters; // The program counters causing the most misses, or null unless requested.
+
+    /**
+     * An enum holding the ways addresses can be mapped to sets.
+     * BITS takes the set from the bits above the offset, which needs a power of two number of sets.
+     * MODULO takes the block number modulo the number of sets, and HASH scrambles the block number first
+     * (as the slice hashing of shared last level caches does), so both work for any number of sets.
+     * Under MODULO and HASH the tag is the whole block number, as the set no longer follows from its low bits.
+     */
+    enum SetIndexing {
+        BITS,
+        MODULO,
+        HASH
+    }
+
+    /**
+     * An enum holding the ways the contents of the levels of a hierarchy can relate.
+     * NINE (non-inclusive non-exclusive) fills every level on a miss and never removes blocks from other levels.
+     * INCLUSIVE also fills every level, but a level evicting a block invalidates any copies of it in the levels above.
+     * EXCLUSIVE only fills the first level on a miss, moving blocks up on hits and inserting victims into the level below.
      */
-    enum ReplacementPolicy {
-        RR,
-        LRU,
-        LFU
+    enum Inclusion {
+        NINE,
+        INCLUSIVE,
+        EXCLUSIVE
+    }
+
+    /**
+     * An enum holding write policies.
+     */
+    enum WritePolicy {
+        WRITE_BACK,
+        WRITE_THROUGH
     }
 
     /**
      * An initialisation method used instead of a constructor to let JSON parsing to use the default constructor.
-     * @throws Exception if the cache kind specified in the JSON is unsupported.
+     * @throws Exception if the cache kind, replacement policy or set indexing specified in the JSON is unsupported,
+     * or the geometry of the cache is invalid.
      */
     void initialise() throws Exception {
-        // Define set properties by considering the number of lines in the cache and the kind of cache.
+        // Check the geometry, then define set properties by considering the number of lines in the cache and the kind of cache.
+        if (size <= 0 || lineSize <= 0) {
+            throw new Exception("The size and line size of cache '" + name + "' must be positive!");
+        }
+        if (size % lineSize != 0) {
+            throw new Exception("The size " + size + " of cache '" + name + "' is not a multiple of its line size " + lineSize + "!");
+        }
         int numberOfLines = size / lineSize;
-        int numberOfSets;
-        switch (kind) {
-            case ("direct"):
-                numberOfSets = numberOfLines;
-                break;
-            case ("full"):
-                numberOfSets = 1;
-                break;
-            case ("2way"):
-                numberOfSets = numberOfLines / 2;
+        setSize = waysOf(kind, numberOfLines);
+        if (setSize < 1 || setSize > numberOfLines || numberOfLines % setSize != 0) {
+            throw new Exception("The " + numberOfLines + " lines of cache '" + name + "' cannot be split into sets of " + setSize + " ways!");
+        }
+        numberOfSets = numberOfLines / setSize;
+
+        // Allocate the line storage for whole sets. All lines start invalid.
+        numberOfLines = numberOfSets * setSize;
+        tags = new long[numberOfLines];
+        validBits = new long[(numberOfLines + Long.SIZE - 1) / Long.SIZE];
+
+        // Create the replacement policy, which allocates the metadata it uses for every line.
+        // Fully associative caches look lines up in an index instead of scanning their single set.
+        replacementPolicy = ReplacementPolicy.create(replacementPolicyString, numberOfSets, setSize, replacementSeed);
+        if (numberOfSets == 1 && setSize > 1) {
+            fullyAssociativeIndex = new FullyAssociativeIndex(setSize, replacementPolicy);
+        }
+
+        // Calculate the number of bits used for each part for addressing this cache.
+        // Sets not indexed by bits take no bits of the address, leaving the whole block number as the tag.
+        switch (setIndexingString) {
+            case ("bits"):
+                setIndexing = SetIndexing.BITS;
+                if (Integer.bitCount(numberOfSets) != 1) {
+                    throw new Exception("The " + numberOfSets + " sets of cache '" + name + "' are not a power of two, so they cannot be indexed by bits!"
+                            + " Use a set_indexing of \"modulo\" or \"hash\".");
+                }
+                setBits = log2(numberOfSets);
                 break;
-            case ("4way"):
-                numberOfSets = numberOfLines / 4;
+            case ("modulo"):
+                setIndexing = SetIndexing.MODULO;
+                setBits = 0;
                 break;
-            case ("8way"):
-                numberOfSets = numberOfLines / 8;
+            case ("hash"):
+                setIndexing = SetIndexing.HASH;
+                setBits = 0;
                 break;
             default:
-                throw new Exception("The cache type '" + kind + "' is not supported by the simulator!");
+                throw new Exception("The set indexing '" + setIndexingString + "' is not supported by the simulator!");
+        }
+        if (Integer.bitCount(lineSize) != 1) {
+            throw new Exception("The line size " + lineSize + " of cache '" + name + "' is not a power of two!");
+        }
+        offsetBits = log2(lineSize);
+        tagBits = ADDRESS_SPACE_SIZE - setBits - offsetBits;
+        offsetMask = (1L << offsetBits) - 1;
+        setMask = (1L << setBits) - 1;
+        tagShift = ADDRESS_SPACE_SIZE - tagBits;
+        blockSize = 1L << offsetBits;
+
+        // Model writes if the config asks for it.
+        if (writePolicyString != null || writeAllocate != null) {
+            enableWrites();
         }
-        setSize = numberOfLines / numberOfSets;
 
-        // Initialise each set with cache lines.
-        sets = new ArrayList<>(numberOfSets);
-        for (int setNumber = 0; setNumber < numberOfSets; setNumber++) {
-            LinkedList<CacheLine> cacheLines = new LinkedList<>();
-            sets.add(cacheLines);
-            for (int lineNumber = 0; lineNumber < setSize; lineNumber++) {
-                cacheLines.add(new CacheLine());
+        // Attach the prefetcher if the config asks for one.
+        if (prefetcherString != null) {
+            if (prefetchDegree < 1 || prefetchTableSize < 0 || prefetchLatency < 0) {
+                throw new Exception("The prefetch degree of cache '" + name + "' must be positive and its table size and latency not negative!");
             }
+            prefetcher = Prefetcher.create(prefetcherString, prefetchDegree, prefetchTableSize);
+            prefetchedBits = new long[validBits.length];
+            prefetchTimes = new long[numberOfLines];
+            int slots = Integer.highestOneBit(Math.max(1, numberOfLines - 1)) << 1;
+            pollutionFilter = new long[slots];
+            pollutionShift = Long.SIZE - Integer.numberOfTrailingZeros(slots);
+            tracksLines = true;
         }
+    }
 
-        // Set the replacement policy.
-        switch (replacementPolicyString) {
-            case ("lru"):
-                replacementPolicy = ReplacementPolicy.LRU;
+    /**
+     * Starts modelling writes, using the configured write policy or writing back and allocating on writes by default.
+     * Write-back caches allocate on writes by default and write-through caches do not.
+     * @throws Exception if the write policy specified in the JSON is unsupported.
+     */
+    void enableWrites() throws Exception {
+        switch (writePolicyString == null ? "write-back" : writePolicyString) {
+            case ("write-back"):
+                writePolicy = WritePolicy.WRITE_BACK;
                 break;
-            case ("lfu"):
-                replacementPolicy = ReplacementPolicy.LFU;
+            case ("write-through"):
+                writePolicy = WritePolicy.WRITE_THROUGH;
                 break;
             default:
-                replacementPolicy = ReplacementPolicy.RR;
+                throw new Exception("The write policy '" + writePolicyString + "' is not supported by the simulator!");
         }
+        allocateOnWrite = writeAllocate != null ? writeAllocate : writePolicy == WritePolicy.WRITE_BACK;
+        dirtyBits = new long[validBits.length];
+        tracksLines = true;
+    }
 
-        // Calculate the number of bits used for each part for addressing this cache.
-        setBits = (int) log2(numberOfSets);
-        offsetBits = (int) log2(lineSize);
-        tagBits = ADDRESS_SPACE_SIZE - setBits - offsetBits;
+    /**
+     * Sets how the contents of this cache relate to those of the levels above it.
+     * @param inclusion The inclusion policy of the hierarchy.
+     * @param upperLevel The level above this cache, or null for the first level.
+     * @param lastLevel Whether this is the last level of the hierarchy.
+     */
+    void enableInclusion(Inclusion inclusion, Cache upperLevel, boolean lastLevel) {
+        this.inclusion = inclusion;
+        if (inclusion == Inclusion.INCLUSIVE && upperLevel != null) {
+            this.upperLevel = upperLevel;
+            upperCopyBits = new long[validBits.length];
+            tracksLines = true;
+        } else if (inclusion == Inclusion.EXCLUSIVE && !lastLevel) {
+            keepsVictims = true;
+            tracksLines = true;
+        }
+    }
+
+    /**
+     * Starts keeping the statistics of the extended report, creating the shadow cache used to classify misses.
+     */
+    void enableExtendedStatistics() {
+        extendedStatistics = true;
+        int numberOfLines = numberOfSets * setSize;
+        seenBlocks = new LongIntMap(numberOfLines, -1);
+        shadowIndex = new FullyAssociativeIndex(numberOfLines, new LruPolicy(1, numberOfLines));
+        shadowTags = new long[numberOfLines];
+    }
+
+    /**
+     * Starts tracking the program counters causing the most misses.
+     * @param reported The number of program counters to report.
+     */
+    void enableMissAttribution(int reported) {
+        missProgramCounters = new ProgramCounterSketch(reported);
+    }
+
+    /**
+     * Checks whether this cache keeps the statistics of the extended report.
+     * @return Whether the extended statistics are kept.
+     */
+    boolean keepsExtendedStatistics() {
+        return extendedStatistics;
+    }
+
+    /**
+     * Checks whether this cache has a prefetcher.
+     * @return Whether the cache prefetches.
+     */
+    boolean prefetches() {
+        return prefetcher != null;
+    }
+
+    /**
+     * Checks whether this cache models writes.
+     * @return Whether writes are modelled.
+     */
+    boolean modelsWrites() {
+        return writePolicy != null;
+    }
+
+    /**
+     * Describes the configuration the state of this cache depends on, so a checkpoint is only restored into the same cache.
+     * @return The description of the configuration.
+     */
+    private String describeConfiguration() {
+        return name + " " + size + " " + lineSize + " " + kind + " " + replacementPolicyString + " " + replacementSeed + " "
+                + setIndexingString + " " + writePolicy + " " + allocateOnWrite + " " + extendedStatistics + " " + inclusion + " "
+                + prefetcherString + " " + prefetchDegree + " " + prefetchTableSize + " " + prefetchLatency + " " + (missProgramCounters != null);
+    }
+
+    /**
+     * Writes the lines, replacement metadata and statistics of this cache to a checkpoint.
+     * @param output The checkpoint being written.
+     * @throws IOException If the checkpoint could not be written or the replacement policy cannot be saved.
+     */
+    void writeState(CheckpointOutput output) throws IOException {
+        output.writeString(describeConfiguration());
+        output.writeLong(hits);
+        output.writeLong(misses);
+        output.writeLong(accesses);
+        output.writeLong(overruns);
+        output.writeLong(writebacks);
+        output.writeLong(writeThroughs);
+        output.writeLong(evictions);
+        output.writeLong(compulsoryMisses);
+        output.writeLong(capacityMisses);
+        output.writeLong(conflictMisses);
+        output.writeLong(backInvalidations);
+        output.writeLong(victimInsertions);
+        output.writeLong(prefetchesIssued);
+        output.writeLong(prefetchesUseful);
+        output.writeLong(prefetchesLate);
+        output.writeLong(prefetchesPolluting);
+        output.writeLongs(tags);
+        output.writeLongs(validBits);
+        output.writeLongs(dirtyBits);
+        output.writeLongs(upperCopyBits);
+        output.writeLongs(prefetchedBits);
+        output.writeLongs(prefetchTimes);
+        output.writeLongs(pollutionFilter);
+        if (prefetcher != null) {
+            prefetcher.writeState(output);
+        }
+        if (missProgramCounters != null) {
+            missProgramCounters.writeState(output);
+        }
+        replacementPolicy.writeState(output);
+        if (fullyAssociativeIndex != null) {
+            fullyAssociativeIndex.writeState(output);
+        }
+        if (extendedStatistics) {
+            seenBlocks.writeState(output);
+            shadowIndex.writeState(output);
+            output.writeLongs(shadowTags);
+        }
+    }
+
+    /**
+     * Restores the lines, replacement metadata and statistics of this cache from a checkpoint written by writeState.
+     * @param input The checkpoint being read.
+     * @throws IOException If the checkpoint could not be read or was written for a different cache configuration.
+     */
+    void readState(CheckpointInput input) throws IOException {
+        String configuration = input.readString();
+        if (!configuration.equals(describeConfiguration())) {
+            throw new IOException("The checkpoint of cache '" + name + "' was written for a different configuration ("
+                    + configuration + ") than the current one (" + describeConfiguration() + ").");
+        }
+        hits = input.readLong();
+        misses = input.readLong();
+        accesses = input.readLong();
+        overruns = input.readLong();
+        writebacks = input.readLong();
+        writeThroughs = input.readLong();
+        evictions = input.readLong();
+        compulsoryMisses = input.readLong();
+        capacityMisses = input.readLong();
+        conflictMisses = input.readLong();
+        backInvalidations = input.readLong();
+        victimInsertions = input.readLong();
+        prefetchesIssued = input.readLong();
+        prefetchesUseful = input.readLong();
+        prefetchesLate = input.readLong();
+        prefetchesPolluting = input.readLong();
+        input.readLongs(tags);
+        input.readLongs(validBits);
+        input.readLongs(dirtyBits);
+        input.readLongs(upperCopyBits);
+        input.readLongs(prefetchedBits);
+        input.readLongs(prefetchTimes);
+        input.readLongs(pollutionFilter);
+        if (prefetcher != null) {
+            prefetcher.readState(input);
+        }
+        if (missProgramCounters != null) {
+            missProgramCounters.readState(input);
+        }
+        replacementPolicy.readState(input);
+        if (fullyAssociativeIndex != null) {
+            fullyAssociativeIndex.readState(input);
+        }
+        if (extendedStatistics) {
+            seenBlocks.readState(input);
+            shadowIndex.readState(input);
+            input.readLongs(shadowTags);
+        }
+    }
+
+    /**
+     * Sets every statistic back to zero, keeping the lines, so a warmed cache starts measuring afresh.
+     */
+    void resetStatistics() {
+        hits = 0;
+        misses = 0;
+        accesses = 0;
+        overruns = 0;
+        writebacks = 0;
+        writeThroughs = 0;
+        evictions = 0;
+        compulsoryMisses = 0;
+        capacityMisses = 0;
+        conflictMisses = 0;
+        backInvalidations = 0;
+        victimInsertions = 0;
+        prefetchesIssued = 0;
+        prefetchesUseful = 0;
+        prefetchesLate = 0;
+        prefetchesPolluting = 0;
+        if (missProgramCounters != null) {
+            missProgramCounters.clear();
+        }
+    }
+
+    /**
+     * Gets the number of ways (lines per set) of a kind of cache.
+     * @param kind The kind of cache: "direct", "full" or "&lt;n&gt;way".
+     * @param numberOfLines The number of lines in the cache.
+     * @return The number of ways.
+     * @throws Exception if the kind is not supported.
+     */
+    static int waysOf(String kind, int numberOfLines) throws Exception {
+        switch (kind) {
+            case ("direct"):
+                return 1;
+            case ("full"):
+                return numberOfLines;
+            default:
+                if (kind.matches("[1-9][0-9]{0,8}way")) {
+                    return Integer.parseInt(kind.substring(0, kind.length() - 3));
+                }
+                throw new Exception("The cache type '" + kind + "' is not supported by the simulator!"
+                        + " Supported types are direct, full and <n>way.");
+        }
     }
 
     /**
-     * Returns the logarithm with base 2 of a int value.
-     * @param value The value to get the logarithm of.
+     * Returns the logarithm with base 2 of a power of two.
+     * @param value The value to get the logarithm of, which must be a positive power of two.
      * @return The logarithm with base 2 of the input value.
      */
-    public double log2(int value) {
-        return Math.log(value) / Math.log(2);
+    public static int log2(int value) {
+        return Integer.numberOfTrailingZeros(value);
     }
 
     /**
@@ -129,97 +541,874 @@ public class Cache {
      * @return Whether the memory operation resulted in a hit or not (miss).
      */
     public boolean performOperation(BinaryAddress memoryAddress) {
-        // Keep track of cache accesses.
+        return performOperation(memoryAddress.address);
+    }
+
+    /**
+     * Performs a memory operation on a cache line with consideration for replacement policy.
+     * Works directly on the flat line arrays, so no objects are allocated.
+     * @param address The memory address of the memory operation.
+     * @return Whether the memory operation resulted in a hit or not (miss).
+     */
+    public boolean performOperation(long address) {
+        // Keep track of cache accesses, hits and misses.
+        accesses++;
+        boolean hit = access(address, true);
+        if (extendedStatistics) {
+            classify(address, hit, true);
+        }
+        if (upperCopyBits != null) {
+            upperCopyBits[lastLine >>> 6] |= 1L << lastLine;
+        }
+        if (prefetcher != null) {
+            recordPrefetchUse(address, hit);
+        }
+        if (hit) {
+            hits++;
+            return true;
+        }
+        misses++;
+        return false;
+    }
+
+    /**
+     * Performs a memory operation, applying the write policy if it is a write and writes are modelled.
+     * A write to a write-back cache marks its line dirty. A write miss without write allocation leaves the set unchanged.
+     * Writing through to the next level and writing back evicted dirty lines is left to the caller (see takeDirtyVictim).
+     * @param address The memory address of the memory operation.
+     * @param write Whether the memory operation is a write.
+     * @return Whether the memory operation resulted in a hit or not (miss).
+     */
+    public boolean performOperation(long address, boolean write) {
+        if (!write || writePolicy == null) {
+            return performOperation(address);
+        }
         accesses++;
+        boolean hit = access(address, allocateOnWrite);
+        if (extendedStatistics) {
+            classify(address, hit, allocateOnWrite);
+        }
+        if (hit) {
+            hits++;
+        } else {
+            misses++;
+        }
+        if ((hit || allocateOnWrite) && writePolicy == WritePolicy.WRITE_BACK) {
+            dirtyBits[lastLine >>> 6] |= 1L << lastLine;
+        }
+        if ((hit || allocateOnWrite) && upperCopyBits != null) {
+            upperCopyBits[lastLine >>> 6] |= 1L << lastLine;
+        }
+        if (prefetcher != null) {
+            recordPrefetchUse(address, hit);
+        }
+        return hit;
+    }
 
-        // Get the correct set and block number by translating the memory address to get its set and tag for this cache.
-        int setNumber = memoryAddress.getSet(this);
-        long tag = memoryAddress.getTag(this);
-        LinkedList<CacheLine> set = sets.get(setNumber);
-
-        // Look through the set to look for a line matching the existing tag.
-        Iterator<CacheLine> setIterator = set.iterator();
-        while (setIterator.hasNext()) {
-            CacheLine line = setIterator.next();
-            // If the line does not have its valid bit set, it is a compulsory miss.
-            if (!line.getValid()) {
-                // Track the miss and update the line.
-                misses++;
-                line.updateTag(tag);
-
-                // Initialise the line.
-                switch (replacementPolicy) {
-                    case LFU:
-                        // Reset the frequency of the line for LFU.
-                        line.resetFrequency();
-                        break;
-                    default:
-                        // Move back to the front of the list for LRU and RR.
-                        if (line != set.peek()) {
-                            setIterator.remove();
-                            set.addFirst(line);
-                        }
+    /**
+     * Counts the first demand hit on a prefetched line as a useful (and possibly late) prefetch,
+     * and a demand miss on a block a prefetch evicted as a polluting one.
+     * @param address The memory address of the demand access.
+     * @param hit Whether the demand access hit.
+     */
+    private void recordPrefetchUse(long address, boolean hit) {
+        prefetchHit = false;
+        if (hit) {
+            long bit = 1L << lastLine;
+            if ((prefetchedBits[lastLine >>> 6] & bit) != 0) {
+                prefetchedBits[lastLine >>> 6] &= ~bit;
+                prefetchHit = true;
+                prefetchesUseful++;
+                if (accesses - prefetchTimes[lastLine] <= prefetchLatency) {
+                    prefetchesLate++;
                 }
-                return false; // Return as a miss.
-            } else if (line.getTag() == tag) { // If the line is valid and the tag matches, it is a hit.
-                hits++;
+            }
+        } else {
+            long block = address >>> offsetBits;
+            int slot = (int) ((block * 0x9E3779B97F4A7C15L) >>> pollutionShift);
+            if (pollutionFilter[slot] == block + 1) {
+                pollutionFilter[slot] = 0;
+                prefetchesPolluting++;
+            }
+        }
+    }
 
+    /**
+     * Trains the prefetcher on the most recent demand access.
+     * The addresses of the blocks it chose can then be read with getPrefetchAddress.
+     * @param programCounter The program counter of the operation, or 0 if the trace has none.
+     * @param address The memory address of the demand access.
+     * @param hit Whether the demand access hit.
+     * @return The number of blocks to prefetch.
+     */
+    int trainPrefetcher(long programCounter, long address, boolean hit) {
+        return prefetcher.train(programCounter, address >>> offsetBits, !hit, prefetchHit);
+    }
+
+    /**
+     * Gets the address of a block chosen by the most recent training of the prefetcher.
+     * @param index The index of the block, below the count returned by trainPrefetcher.
+     * @return The address of the block.
+     */
+    long getPrefetchAddress(int index) {
+        return prefetcher.candidates[index] << offsetBits;
+    }
+
+    /**
+     * Fills a line with a block chosen by the prefetcher, without touching the hits and misses.
+     * Fetching the block from the levels below is left to the caller (see fetch).
+     * @param address The address of the block.
+     * @return Whether the prefetch was issued, which it is not if the cache already holds the block.
+     */
+    boolean prefetch(long address) {
+        if (findLine(address) >= 0) {
+            return false;
+        }
+        prefetching = true;
+        access(address, true);
+        prefetching = false;
+        prefetchesIssued++;
+        prefetchedBits[lastLine >>> 6] |= 1L << lastLine;
+        prefetchTimes[lastLine] = accesses;
+        return true;
+    }
+
+    /**
+     * Looks up a block prefetched by a level above, filling it on a miss as a demand miss would,
+     * but without touching the hits and misses or training the prefetcher of this cache.
+     * @param address The address of the block.
+     * @return Whether the cache already held the block, so the levels below need not be fetched from.
+     */
+    boolean fetch(long address) {
+        boolean hit = access(address, true);
+        if (upperCopyBits != null) {
+            upperCopyBits[lastLine >>> 6] |= 1L << lastLine;
+        }
+        return hit;
+    }
+
+    /**
+     * Performs a memory operation on a cache below the first level of an exclusive hierarchy.
+     * A hit gives the line up to the level above, which has just filled the block, and a miss fills nothing.
+     * @param address The memory address of the memory operation.
+     * @return Whether the memory operation resulted in a hit or not (miss).
+     */
+    public boolean performExclusiveOperation(long address) {
+        accesses++;
+        int line = findLine(address);
+        boolean hit = line >= 0;
+        if (extendedStatistics) {
+            classify(address, hit, false);
+        }
+        if (hit) {
+            hits++;
+            invalidateLine(line, address);
+            return true;
+        }
+        misses++;
+        return false;
+    }
+
+    /**
+     * Inserts a victim of the level above in an exclusive hierarchy, without touching the hits and misses.
+     * The block evicted to make room, if any, can then be taken with takeVictim.
+     * @param address The address of the victim block.
+     */
+    void insertVictim(long address) {
+        victimInsertions++;
+        access(address, true);
+    }
+
+    /**
+     * Checks whether the most recent fill of an exclusive hierarchy evicted a block, clearing the check for the next fill.
+     * The address of the evicted block is then available from getEvictedAddress.
+     * @return Whether a block was evicted and has to be inserted in the level below.
+     */
+    boolean takeVictim() {
+        boolean pending = victimPending;
+        victimPending = false;
+        return pending;
+    }
+
+    /**
+     * Gets the address of the block evicted by the most recent fill of an exclusive hierarchy.
+     * @return The address of the evicted block.
+     */
+    long getEvictedAddress() {
+        return evictedAddress;
+    }
+
+    /**
+     * Invalidates any lines holding part of a block evicted by the level below in an inclusive hierarchy,
+     * along with their own copies in the levels above.
+     * @param address The address of the evicted block.
+     * @param length The line size of the level below.
+     * @return Whether any invalidated line was dirty, so its changes have to be written back with the evicted block.
+     */
+    boolean backInvalidate(long address, int length) {
+        boolean dirty = false;
+        long blockAddress = address & ~offsetMask;
+        int blockCount = (int) (((address & offsetMask) + length + lineSize - 1) >>> offsetBits);
+        for (int block = 0; block < blockCount; block++, blockAddress += blockSize) {
+            int line = findLine(blockAddress);
+            if (line >= 0) {
+                backInvalidations++;
+                dirty |= invalidateLine(line, blockAddress);
+            }
+        }
+        return dirty;
+    }
+
+    /**
+     * Checks whether the cache holds a block, without updating the replacement metadata.
+     * @param address The address of the block.
+     * @return Whether a valid line holds the block.
+     */
+    boolean holds(long address) {
+        return findLine(address) >= 0;
+    }
+
+    /**
+     * Invalidates the line holding a block that another core is writing, as a coherence directory does.
+     * Any changes in the line are dropped, as the writing core takes the block over with them.
+     * @param address The address of the block.
+     * @return Whether the cache held the block.
+     */
+    boolean invalidateBlock(long address) {
+        int line = findLine(address);
+        if (line < 0) {
+            return false;
+        }
+        invalidateLine(line, address);
+        return true;
+    }
+
+    /**
+     * Clears the dirty bit of the line holding a modified block that another core is reading,
+     * as a coherence directory downgrading the block to shared does.
+     * @param address The address of the block.
+     * @return Whether the line was dirty, so its changes have to be written back to the shared levels.
+     */
+    boolean cleanBlock(long address) {
+        if (dirtyBits == null) {
+            return false;
+        }
+        int line = findLine(address);
+        if (line < 0 || (dirtyBits[line >>> 6] & (1L << line)) == 0) {
+            return false;
+        }
+        dirtyBits[line >>> 6] &= ~(1L << line);
+        return true;
+    }
+
+    /**
+     * Finds the line holding a memory address without updating the replacement metadata.
+     * @param address The memory address.
+     * @return The index of the line, or -1 if no valid line holds the address.
+     */
+    private int findLine(long address) {
+        long tag = address >>> tagShift;
+        if (fullyAssociativeIndex != null) {
+            return fullyAssociativeIndex.find(tag);
+        }
+        int firstLine = getSet(address) * setSize;
+        for (int line = firstLine; line < firstLine + setSize; line++) {
+            if (tags[line] == tag && isValid(line)) {
+                return line;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Invalidates a line, first invalidating the copies of its block in the level above if an inclusive hierarchy marked it.
+     * @param line The index of the line.
+     * @param address The address of the block held by the line.
+     * @return Whether the line or any copy above it was dirty.
+     */
+    private boolean invalidateLine(int line, long address) {
+        long bit = 1L << line;
+        boolean dirty = false;
+        if (upperCopyBits != null && (upperCopyBits[line >>> 6] & bit) != 0) {
+            upperCopyBits[line >>> 6] &= ~bit;
+            dirty = upperLevel.backInvalidate(address, lineSize);
+        }
+        if (dirtyBits != null && (dirtyBits[line >>> 6] & bit) != 0) {
+            dirtyBits[line >>> 6] &= ~bit;
+            dirty = true;
+        }
+        validBits[line >>> 6] &= ~bit;
+        if (prefetchedBits != null) {
+            prefetchedBits[line >>> 6] &= ~bit;
+        }
+        if (fullyAssociativeIndex != null) {
+            fullyAssociativeIndex.invalidate(line, tags[line]);
+        } else {
+            int setNumber = line / setSize;
+            replacementPolicy.invalidate(setNumber, setNumber * setSize, line);
+        }
+        return dirty;
+    }
+
+    /**
+     * Accesses the shadow cache with the same block as the real cache, classifying the access if it missed.
+     * @param address The memory address of the memory operation.
+     * @param hit Whether the real cache hit.
+     * @param allocate Whether the real cache filled a line on a miss, which the shadow cache mirrors.
+     */
+    private void classify(long address, boolean hit, boolean allocate) {
+        long blockNumber = address >>> offsetBits;
+        int line = shadowIndex.find(blockNumber);
+        boolean shadowHit = line >= 0;
+        if (shadowHit) {
+            shadowIndex.hit(line);
+        } else if (allocate) {
+            line = shadowIndex.fill(blockNumber, shadowTags);
+            shadowTags[line] = blockNumber;
+        }
+        boolean seen = seenBlocks.get(blockNumber) >= 0;
+        if (!seen) {
+            seenBlocks.put(blockNumber, 0);
+        }
+        if (hit) {
+            return;
+        }
+        if (!seen) {
+            compulsoryMisses++;
+        } else if (!shadowHit) {
+            capacityMisses++;
+        } else {
+            conflictMisses++;
+        }
+    }
+
+    /**
+     * Writes a block passed down from a higher level (a writeback or a write-through) without touching the statistics.
+     * @param address The memory address of the write.
+     * @return Whether the block is held by this cache after the write. If not, the write has to continue to the next level.
+     */
+    boolean absorbWrite(long address) {
+        if (!access(address, allocateOnWrite) && !allocateOnWrite) {
+            return false;
+        }
+        if (writePolicy == WritePolicy.WRITE_BACK) {
+            dirtyBits[lastLine >>> 6] |= 1L << lastLine;
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the most recent fill evicted a dirty line, clearing the check for the next fill.
+     * The address of the evicted block is then available from getVictimAddress.
+     * @return Whether a dirty line was evicted and has to be written back.
+     */
+    boolean takeDirtyVictim() {
+        boolean dirty = victimDirty;
+        victimDirty = false;
+        return dirty;
+    }
+
+    /**
+     * Gets the address of the block held by the dirty line evicted by the most recent fill.
+     * @return The address of the evicted block.
+     */
+    long getVictimAddress() {
+        return victimAddress;
+    }
+
+    /**
+     * Checks whether this cache writes through to the next level.
+     * @return Whether the write policy is write-through.
+     */
+    boolean writesThrough() {
+        return writePolicy == WritePolicy.WRITE_THROUGH;
+    }
+
+    /**
+     * Checks whether a write miss fills a line of this cache.
+     * @return Whether the cache allocates on writes.
+     */
+    boolean allocatesOnWrite() {
+        return allocateOnWrite;
+    }
+
+    /**
+     * Looks up a memory address and updates the lines of its set, without touching the statistics.
+     * Only the set the address maps to is read or written, so threads may access disjoint groups of sets concurrently
+     * as long as each group is made of whole blocks of 64 sets, so no two groups share a word of the valid bitmap,
+     * and writes are not modelled.
+     * @param address The memory address of the memory operation.
+     * @return Whether the memory operation resulted in a hit or not (miss).
+     */
+    boolean access(long address) {
+        return access(address, true);
+    }
+
+    /**
+     * Looks up a memory address and updates the lines of its set, without touching the statistics.
+     * @param address The memory address of the memory operation.
+     * @param allocate Whether to fill a line on a miss.
+     * @return Whether the memory operation resulted in a hit or not (miss).
+     */
+    private boolean access(long address, boolean allocate) {
+        // Get the correct set and tag by translating the memory address for this cache.
+        int setNumber = getSet(address);
+        long tag = address >>> tagShift;
+        if (fullyAssociativeIndex != null) {
+            return accessFullyAssociative(tag, allocate);
+        }
+        int firstLine = setNumber * setSize;
+        int endLine = firstLine + setSize;
+
+        // Look through the set for a valid line matching the tag.
+        for (int line = firstLine; line < endLine; line++) {
+            if (tags[line] == tag && isValid(line)) {
                 // Refresh the line.
-                switch (replacementPolicy) {
-                    case LRU:
-                        // Move the line back to the front of the cache line list if not already for LRU.
-                        if (line != set.peek()) {
-                            setIterator.remove();
-                            set.addFirst(line);
-                        }
-                        break;
-                    case LFU:
-                        // Increment the frequency for LFU.
-                        line.incrementFrequency();
-                        break;
-                    default: // Nothing to do for RR.
+                hit(setNumber, firstLine, line);
+                if (tracksLines) {
+                    lastLine = line;
                 }
                 return true; // Return as a hit.
             }
         }
+        if (!allocate) {
+            return false; // Return as a miss without filling a line.
+        }
 
-        // If we didn't miss because of the valid bit, then this is either a capacity or a conflict miss.
-        // Evict and replace the line.
-        misses++;
-        replace(set, tag);
+        // Fill the first invalid line of the set if there is one, which is a compulsory miss.
+        // Otherwise this is either a capacity or a conflict miss, so evict and replace a line.
+        int line = firstInvalidLine(firstLine, endLine);
+        if (line < 0) {
+            line = victim(setNumber, firstLine, endLine, tag);
+            evictions++;
+            if (tracksLines) {
+                evict(line, setNumber);
+            }
+        }
+        fill(setNumber, firstLine, line, tag);
+        return false; // Return as a miss.
+    }
+
+    /**
+     * Looks up a tag in a fully associative cache using its index instead of scanning the lines.
+     * @param tag The tag of the memory address of the operation.
+     * @param allocate Whether to fill a line on a miss.
+     * @return Whether the memory operation resulted in a hit or not (miss).
+     */
+    private boolean accessFullyAssociative(long tag, boolean allocate) {
+        int line = fullyAssociativeIndex.find(tag);
+        if (line >= 0) {
+            fullyAssociativeIndex.hit(line);
+            if (tracksLines) {
+                lastLine = line;
+            }
+            return true; // Return as a hit.
+        }
+        if (!allocate) {
+            return false; // Return as a miss without filling a line.
+        }
+
+        line = fullyAssociativeIndex.fill(tag, tags);
+        if (isValid(line)) {
+            evictions++;
+            if (tracksLines) {
+                evict(line, 0);
+            }
+        }
+        if (tracksLines) {
+            lastLine = line;
+        }
+        tags[line] = tag;
+        validBits[line >>> 6] |= 1L << line;
         return false; // Return as a miss.
     }
 
     /**
-     * Evicts a block from the cache and replaces it.
-     * @param set The set that the cache line is a part of.
-     * @param newTag The tag of the new block.
+     * Checks the valid bit of a line.
+     * @param line The index of the line.
+     * @return Whether the line holds valid data.
+     */
+    private boolean isValid(int line) {
+        return (validBits[line >>> 6] & (1L << line)) != 0;
+    }
+
+    /**
+     * Finds the first line of a set that does not hold valid data.
+     * @param firstLine The index of the first line of the set.
+     * @param endLine The index one past the last line of the set.
+     * @return The index of the first invalid line, or -1 if the set is full.
      */
-    void replace(LinkedList<CacheLine> set, long newTag) {
-        switch (replacementPolicy) {
+    private int firstInvalidLine(int firstLine, int endLine) {
+        for (int line = firstLine; line < endLine; line++) {
+            if (!isValid(line)) {
+                return line;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Updates the replacement metadata of a line after a hit.
+     * The built in policies are final classes, so switching on the kind binds each call statically.
+     * @param setNumber The number of the set.
+     * @param firstLine The index of the first line of the set.
+     * @param line The index of the line that was hit.
+     */
+    private void hit(int setNumber, int firstLine, int line) {
+        switch (replacementPolicy.kind) {
+            case RR:
+                break; // Nothing to do for RR.
+            case LRU:
+                ((LruPolicy) replacementPolicy).hit(setNumber, firstLine, line);
+                break;
             case LFU:
-                // Evict the least frequently used cache line for LFU by checking the frequency of each.
-                CacheLine leastFrequentlyUsed = set.getFirst();
-                for (CacheLine line : set) {
-                    if (line.getFrequency() < leastFrequentlyUsed.getFrequency()) {
-                        leastFrequentlyUsed = line;
-                    }
-                }
-                leastFrequentlyUsed.updateTag(newTag);
-                leastFrequentlyUsed.resetFrequency();
+                ((LfuPolicy) replacementPolicy).hit(setNumber, firstLine, line);
                 break;
+            case PLRU:
+                ((TreePlruPolicy) replacementPolicy).hit(setNumber, firstLine, line);
+                break;
+            case RRIP:
+                ((RripPolicy) replacementPolicy).hit(setNumber, firstLine, line);
+                break;
+            default:
+                replacementPolicy.hit(setNumber, firstLine, line);
+        }
+    }
+
+    /**
+     * Chooses the line of a full set to evict according to the replacement policy.
+     * @param setNumber The number of the set.
+     * @param firstLine The index of the first line of the set.
+     * @param endLine The index one past the last line of the set.
+     * @param tag The tag of the block about to be filled.
+     * @return The index of the line to evict.
+     */
+    private int victim(int setNumber, int firstLine, int endLine, long tag) {
+        switch (replacementPolicy.kind) {
+            case RR:
+                return ((RoundRobinPolicy) replacementPolicy).victim(setNumber, firstLine, endLine, tag);
+            case LRU:
+                return ((LruPolicy) replacementPolicy).victim(setNumber, firstLine, endLine, tag);
+            case LFU:
+                return ((LfuPolicy) replacementPolicy).victim(setNumber, firstLine, endLine, tag);
+            case PLRU:
+                return ((TreePlruPolicy) replacementPolicy).victim(setNumber, firstLine, endLine, tag);
+            case RRIP:
+                return ((RripPolicy) replacementPolicy).victim(setNumber, firstLine, endLine, tag);
             default:
-                // Move the line at the back of the cache line list to the front and update it with the new tag for LRU and RR.
-                CacheLine lastLine = set.removeLast();
-                lastLine.updateTag(newTag);
-                set.addFirst(lastLine);
+                return replacementPolicy.victim(setNumber, firstLine, endLine, tag);
         }
     }
 
+    /**
+     * Records a line about to be replaced: its writeback if it is dirty, and its block for the level below in an exclusive hierarchy.
+     * In an inclusive hierarchy the copies of the block above are invalidated first, and their changes written back with it.
+     * A block evicted by a prefetch is remembered in the pollution filter.
+     * @param line The index of the line.
+     * @param setNumber The number of the set the line is in.
+     */
+    private void evict(int line, int setNumber) {
+        long bit = 1L << line;
+        long address = setIndexing == SetIndexing.BITS ? (tags[line] << tagShift) | ((long) setNumber << offsetBits) : tags[line] << tagShift;
+        boolean dirty = dirtyBits != null && (dirtyBits[line >>> 6] & bit) != 0;
+        if (upperCopyBits != null && (upperCopyBits[line >>> 6] & bit) != 0) {
+            upperCopyBits[line >>> 6] &= ~bit;
+            dirty |= upperLevel.backInvalidate(address, lineSize);
+        }
+        if (dirty) {
+            dirtyBits[line >>> 6] &= ~bit;
+            victimDirty = true;
+            victimAddress = address;
+        }
+        if (keepsVictims) {
+            victimPending = true;
+            evictedAddress = address;
+        }
+        if (prefetchedBits != null) {
+            prefetchedBits[line >>> 6] &= ~bit;
+            if (prefetching) {
+                long block = address >>> offsetBits;
+                pollutionFilter[(int) ((block * 0x9E3779B97F4A7C15L) >>> pollutionShift)] = block + 1;
+            }
+        }
+    }
+
+    /**
+     * Places a new block in a line and initialises its replacement metadata.
+     * @param setNumber The number of the set the line is in.
+     * @param firstLine The index of the first line of the set.
+     * @param line The index of the line.
+     * @param tag The tag of the new block.
+     */
+    private void fill(int setNumber, int firstLine, int line, long tag) {
+        tags[line] = tag;
+        validBits[line >>> 6] |= 1L << line;
+        if (tracksLines) {
+            lastLine = line;
+        }
+        switch (replacementPolicy.kind) {
+            case RR:
+                break; // Nothing to do for RR.
+            case LRU:
+                ((LruPolicy) replacementPolicy).fill(setNumber, firstLine, line, tag);
+                break;
+            case LFU:
+                ((LfuPolicy) replacementPolicy).fill(setNumber, firstLine, line, tag);
+                break;
+            case PLRU:
+                ((TreePlruPolicy) replacementPolicy).fill(setNumber, firstLine, line, tag);
+                break;
+            case RRIP:
+                ((RripPolicy) replacementPolicy).fill(setNumber, firstLine, line, tag);
+                break;
+            default:
+                replacementPolicy.fill(setNumber, firstLine, line, tag);
+        }
+    }
+
+    /**
+     * Adds the results of accesses made through access() to the statistics.
+     * @param accessCount The number of accesses made.
+     * @param hitCount The number of those accesses that hit.
+     */
+    void recordAccesses(long accessCount, long hitCount) {
+        accesses += accessCount;
+        hits += hitCount;
+        misses += accessCount - hitCount;
+    }
+
+    /**
+     * Gets the set number of a memory address in this cache.
+     * @param address The memory address.
+     * @return The set number of the address.
+     */
+    int getSet(long address) {
+        if (setIndexing == SetIndexing.BITS) {
+            return (int) ((address >>> offsetBits) & setMask);
+        }
+        long blockNumber = address >>> offsetBits;
+        if (setIndexing == SetIndexing.MODULO) {
+            return (int) Long.remainderUnsigned(blockNumber, numberOfSets);
+        }
+        // Scramble the block number with a multiplicative hash and scale its top bits to the number of sets.
+        long hash = (blockNumber * 0x9E3779B97F4A7C15L) >>> 32;
+        return (int) ((hash * numberOfSets) >>> 32);
+    }
+
+    /**
+     * Gets the tag of a memory address in this cache.
+     * @param address The memory address.
+     * @return The tag of the address.
+     */
+    long getTag(long address) {
+        return address >>> tagShift;
+    }
+
+    /**
+     * Gets the number of sets in this cache.
+     * @return The number of sets.
+     */
+    int getNumberOfSets() {
+        return numberOfSets;
+    }
+
     /**
      * Getters
      */
 
+    /**
+     * Gets the number of lines invalidated by the levels below, for the JSON output.
+     * @return The number of back-invalidations, or null if the hierarchy is not inclusive so the field is left out.
+     */
+    @JSONField(name = "back_invalidations")
+    public Long getBackInvalidations() {
+        return inclusion == Inclusion.INCLUSIVE ? backInvalidations : null;
+    }
+
+    /**
+     * Gets the number of victims of the level above inserted into this cache, for the JSON output.
+     * @return The number of victim insertions, or null if the hierarchy is not exclusive so the field is left out.
+     */
+    @JSONField(name = "victim_insertions")
+    public Long getVictimInsertions() {
+        return inclusion == Inclusion.EXCLUSIVE ? victimInsertions : null;
+    }
+
+    /**
+     * Gets the number of prefetches issued, for the JSON output.
+     * @return The number of prefetches filled into the cache, or null if the cache has no prefetcher so the field is left out.
+     */
+    @JSONField(name = "prefetch_issued")
+    public Long getPrefetchIssued() {
+        return prefetcher != null ? prefetchesIssued : null;
+    }
+
+    /**
+     * Gets the number of useful prefetches, for the JSON output.
+     * @return The number of prefetched lines later hit, or null if the cache has no prefetcher so the field is left out.
+     */
+    @JSONField(name = "prefetch_useful")
+    public Long getPrefetchUseful() {
+        return prefetcher != null ? prefetchesUseful : null;
+    }
+
+    /**
+     * Gets the number of late prefetches, for the JSON output.
+     * @return The number of useful prefetches hit within the prefetch latency, or null if the cache has no prefetcher.
+     */
+    @JSONField(name = "prefetch_late")
+    public Long getPrefetchLate() {
+        return prefetcher != null ? prefetchesLate : null;
+    }
+
+    /**
+     * Gets the number of polluting prefetches, for the JSON output.
+     * @return The number of demand misses on blocks evicted by prefetches, or null if the cache has no prefetcher.
+     */
+    @JSONField(name = "prefetch_polluting")
+    public Long getPrefetchPolluting() {
+        return prefetcher != null ? prefetchesPolluting : null;
+    }
+
+    /**
+     * Gets the program counters causing the most misses, for the JSON output.
+     * @return The program counters with their misses, most first, or null unless requested so the field is left out.
+     */
+    @JSONField(name = "top_miss_pcs")
+    public List<ProgramCounterSketch.Entry> getTopMissProgramCounters() {
+        return missProgramCounters != null ? missProgramCounters.getTopEntries() : null;
+    }
+
+    /**
+     * Gets the number of dirty lines written back, for the JSON output.
+     * @return The number of writebacks, or null if writes are not modelled so the field is left out.
+     */
+    @JSONField(name = "writebacks")
+    public Long getWritebacks() {
+        return writePolicy != null ? writebacks : null;
+    }
+
+    /**
+     * Gets the number of writes passed on by a write-through cache, for the JSON output.
+     * @return The number of write-throughs, or null if writes are not modelled so the field is left out.
+     */
+    @JSONField(name = "write_throughs")
+    public Long getWriteThroughs() {
+        return writePolicy != null ? writeThroughs : null;
+    }
+
+    /**
+     * Marks the hits and misses as estimates from sampling, with the precision of each.
+     * @param hitsError The half width of the confidence interval of the estimated hits.
+     * @param missesError The half width of the confidence interval of the estimated misses.
+     */
+    void setSamplingErrors(long hitsError, long missesError) {
+        sampled = true;
+        samplingHitsError = hitsError;
+        samplingMissesError = missesError;
+    }
+
+    /**
+     * Gets the half width of the confidence interval of the estimated misses.
+     * @return The error of the misses, or 0 if they are not estimates.
+     */
+    long getSamplingMissesError() {
+        return samplingMissesError;
+    }
+
+    /**
+     * Gets the half width of the confidence interval of the estimated hits, for the JSON output.
+     * @return The error of the hits, or null if they are not estimates so the field is left out.
+     */
+    @JSONField(name = "hits_error")
+    public Long getHitsError() {
+        return sampled ? samplingHitsError : null;
+    }
+
+    /**
+     * Gets the half width of the confidence interval of the estimated misses, for the JSON output.
+     * @return The error of the misses, or null if they are not estimates so the field is left out.
+     */
+    @JSONField(name = "misses_error")
+    public Long getMissesError() {
+        return sampled ? samplingMissesError : null;
+    }
+
+    /**
+     * Gets the number of accesses of this cache.
+     * @return The number of accesses.
+     */
+    long getAccesses() {
+        return accesses;
+    }
+
+    /**
+     * Gets the number of accesses, for the extended report.
+     * @return The number of accesses, or null if the extended report is off so the field is left out.
+     */
+    @JSONField(name = "accesses")
+    public Long getReportedAccesses() {
+        return extendedStatistics ? accesses : null;
+    }
+
+    /**
+     * Gets the number of accesses that overran into the next block, for the extended report.
+     * @return The number of overruns, or null if the extended report is off so the field is left out.
+     */
+    @JSONField(name = "overruns")
+    public Long getReportedOverruns() {
+        return extendedStatistics ? overruns : null;
+    }
+
+    /**
+     * Gets the number of valid lines replaced, for the extended report.
+     * @return The number of evictions, or null if the extended report is off so the field is left out.
+     */
+    @JSONField(name = "evictions")
+    public Long getEvictions() {
+        return extendedStatistics ? evictions : null;
+    }
+
+    /**
+     * Gets the number of compulsory misses, for the extended report.
+     * @return The number of compulsory misses, or null if the extended report is off so the field is left out.
+     */
+    @JSONField(name = "compulsory_misses")
+    public Long getCompulsoryMisses() {
+        return extendedStatistics ? compulsoryMisses : null;
+    }
+
+    /**
+     * Gets the number of capacity misses, for the extended report.
+     * @return The number of capacity misses, or null if the extended report is off so the field is left out.
+     */
+    @JSONField(name = "capacity_misses")
+    public Long getCapacityMisses() {
+        return extendedStatistics ? capacityMisses : null;
+    }
+
+    /**
+     * Gets the number of conflict misses, for the extended report.
+     * @return The number of conflict misses, or null if the extended report is off so the field is left out.
+     */
+    @JSONField(name = "conflict_misses")
+    public Long getConflictMisses() {
+        return extendedStatistics ? conflictMisses : null;
+    }
+
+    /**
+     * Gets the fraction of accesses that missed, for the extended report.
+     * Typed as a Number because fastjson writes out a null Double instead of leaving the field out.
+     * @return The miss rate, or null if the extended report is off so the field is left out.
+     */
+    @JSONField(name = "miss_rate")
+    public Number getMissRate() {
+        if (!extendedStatistics) {
+            return null;
+        }
+        return accesses == 0 ? 0.0 : (double) misses / accesses;
+    }
+
     /**
      * Gets the number of tag bits used by this cache.
      * @return The number of tag bits used by this cache.
@@ -1,6 +1,15 @@
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -12,20 +21,258 @@ import com.alibaba.fastjson2.annotation.JSONField;
  */
 public class CacheSimulator {
     public static void main(String[] args) {
+        if (args.length >= 1 && args[0].equals("convert")) {
+            convert(args);
+            return;
+        } else if (args.length >= 1 && args[0].equals("sweep")) {
+            SweepSimulator.run(args);
+            return;
+        } else if (args.length >= 1 && args[0].equals("stack")) {
+            StackDistanceAnalyser.run(args);
+            return;
+        } else if (args.length >= 1 && args[0].equals("filter")) {
+            filter(args);
+            return;
+        } else if (args.length >= 1 && args[0].equals("multicore")) {
+            MultiCoreSimulator.run(args);
+            return;
+        }
+
         if (args.length < 2) {
             System.err.println(
-                    "Invalid arguments. Arguments must be in the form:\n ./CacheSimulator <path to json cache file> <path to trace file>");
+                    "Invalid arguments. Arguments must be in the form:\n ./CacheSimulator <path to json cache file> <path to trace file> [--mmap] [--shards <n>] [--extended] [--interval <n> --interval-file <file> [--interval-binary]]"
+                            + " [--sample <period> [--sample-window <n>] [--sample-warmup <n>] [--sample-warming functional|none]]"
+                            + " [--checkpoint <file> [--checkpoint-interval <seconds>]] [--resume <file> | --warm-start <file>] [--top-pcs <k>]"
+                            + "\n ./CacheSimulator convert <path to text trace file> <path to binary trace file> [--delta] [--no-pc]"
+                            + "\n ./CacheSimulator filter <path to json cache file> <path to trace file> <path to filtered trace file> [--delta] [--no-pc]"
+                            + "\n ./CacheSimulator sweep <path to trace file> <path to json cache file>... [--mmap] [--threads <n>] [--extended]"
+                            + "\n ./CacheSimulator stack <path to trace file> [--line-size <bytes>]... [--kind <kind>]... [--max-size <bytes>] [--mmap]"
+                            + "\n ./CacheSimulator multicore <path to json multi-core cache file> <path to trace file>... [--mmap] [--extended]");
+            System.exit(1);
+        }
+
+        CacheSimulator simulator = new CacheSimulator();
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+                case ("--mmap"):
+                    simulator.memoryMapped = true;
+                    break;
+                case ("--shards"):
+                    if (i + 1 == args.length) {
+                        System.err.println("Option '--shards' needs a number of threads.");
+                        System.exit(1);
+                    }
+                    simulator.shards = Integer.parseInt(args[++i]);
+                    break;
+                case ("--extended"):
+                    simulator.extendedReport = true;
+                    break;
+                case ("--interval"):
+                    if (i + 1 == args.length) {
+                        System.err.println("Option '--interval' needs a number of operations.");
+                        System.exit(1);
+                    }
+                    simulator.interval = Long.parseLong(args[++i]);
+                    break;
+                case ("--interval-file"):
+                    if (i + 1 == args.length) {
+                        System.err.println("Option '--interval-file' needs a file name.");
+                        System.exit(1);
+                    }
+                    simulator.intervalFileName = args[++i];
+                    break;
+                case ("--interval-binary"):
+                    simulator.intervalBinary = true;
+                    break;
+                case ("--sample"):
+                case ("--sample-window"):
+                case ("--sample-warmup"):
+                case ("--sample-warming"):
+                    if (i + 1 == args.length) {
+                        System.err.println("Option '" + args[i] + "' needs a value.");
+                        System.exit(1);
+                    }
+                    simulator.setSamplingOption(args[i], args[++i]);
+                    break;
+                case ("--checkpoint"):
+                case ("--checkpoint-interval"):
+                case ("--resume"):
+                case ("--warm-start"):
+                    if (i + 1 == args.length) {
+                        System.err.println("Option '" + args[i] + "' needs a value.");
+                        System.exit(1);
+                    }
+                    simulator.setCheckpointOption(args[i], args[++i]);
+                    break;
+                case ("--top-pcs"):
+                    if (i + 1 == args.length) {
+                        System.err.println("Option '--top-pcs' needs a number of program counters.");
+                        System.exit(1);
+                    }
+                    simulator.topProgramCounters = Integer.parseInt(args[++i]);
+                    if (simulator.topProgramCounters < 1) {
+                        System.err.println("Option '--top-pcs' needs a positive number of program counters.");
+                        System.exit(1);
+                    }
+                    break;
+                default:
+                    System.err.println("Unknown option '" + args[i] + "'.");
+                    System.exit(1);
+            }
+        }
+        if (simulator.resumeFileName != null && simulator.warmStartFileName != null) {
+            System.err.println("Options '--resume' and '--warm-start' cannot be given together.");
+            System.exit(1);
+        }
+        if (simulator.checkpointInterval < 0) {
+            System.err.println("Option '--checkpoint-interval' needs a number of seconds that is not negative.");
+            System.exit(1);
+        }
+        if ((simulator.interval > 0) != (simulator.intervalFileName != null) || simulator.interval < 0) {
+            System.err.println("Options '--interval' and '--interval-file' must be given together, with a positive number of operations.");
+            System.exit(1);
+        }
+        if (simulator.samplePeriod < 0 || simulator.samplePeriod > 0
+                && (simulator.sampleWindow <= 0 || simulator.sampleWarmup < 0 || simulator.sampleWindow + simulator.sampleWarmup > simulator.samplePeriod)) {
+            System.err.println("The sample window must be positive and fit in the sample period together with the sample warmup.");
+            System.exit(1);
+        }
+        simulator.simulate(args[0], args[1]);
+    }
+
+    /**
+     * Filters a trace through the caches of a config, writing their misses as a binary trace to replay on lower levels.
+     * Prints the statistics of the filtering caches as the default command does.
+     * @param args The command line arguments, starting with "filter".
+     */
+    static void filter(String[] args) {
+        if (args.length < 4) {
+            System.err.println(
+                    "Invalid arguments. Arguments must be in the form:\n ./CacheSimulator filter <path to json cache file> <path to trace file> <path to filtered trace file> [--delta] [--no-pc]");
             System.exit(1);
         }
 
-        new CacheSimulator().simulate(args[0], args[1]);
+        boolean delta = false;
+        boolean programCounters = true;
+        for (int i = 4; i < args.length; i++) {
+            switch (args[i]) {
+                case ("--delta"):
+                    delta = true;
+                    break;
+                case ("--no-pc"):
+                    programCounters = false;
+                    break;
+                default:
+                    System.err.println("Unknown option '" + args[i] + "'.");
+                    System.exit(1);
+            }
+        }
+
+        CacheSimulator simulator = new CacheSimulator();
+        try {
+            simulator.readConfiguration(args[1]);
+            long operations = simulator.filterTrace(args[2], args[3], delta, programCounters);
+            simulator.finishSimulation();
+            System.out.println(JSON.toJSONString(simulator));
+            System.err.println("Filtered the trace into " + operations + " operations.");
+        } catch (IOException e) {
+            System.err.println("Could not filter trace:\n" + e.getMessage());
+            System.exit(1);
+        } catch (Exception e) {
+            System.err.println(e.toString());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Converts a text trace into a binary trace, which later runs detect and read directly.
+     * @param args The command line arguments, starting with "convert".
+     */
+    static void convert(String[] args) {
+        if (args.length < 3) {
+            System.err.println(
+                    "Invalid arguments. Arguments must be in the form:\n ./CacheSimulator convert <path to text trace file> <path to binary trace file> [--delta] [--no-pc]");
+            System.exit(1);
+        }
+
+        boolean delta = false;
+        boolean programCounters = true;
+        for (int i = 3; i < args.length; i++) {
+            switch (args[i]) {
+                case ("--delta"):
+                    delta = true;
+                    break;
+                case ("--no-pc"):
+                    programCounters = false;
+                    break;
+                default:
+                    System.err.println("Unknown option '" + args[i] + "'.");
+                    System.exit(1);
+            }
+        }
+
+        try {
+            long operations = BinaryTraceWriter.convert(args[1], args[2], delta, programCounters);
+            System.err.println("Converted " + operations + " operations.");
+        } catch (IOException e) {
+            System.err.println("Could not convert trace:\n" + e.getMessage());
+            System.exit(1);
+        }
     }
 
     @JSONField(name = "caches", deserialize = false)
     public List<Cache> caches; // The caches to simulate.
 
     @JSONField(name = "main_memory_accesses", deserialize = false)
-    public int main_memory_accesses; // The number of main memory accesses performed. Equal to the misses of the lowest cache level.
+    public long main_memory_accesses; // The number of main memory accesses performed. Equal to the misses of the lowest cache level.
+
+    @JSONField(name = "instruction_cache", deserialize = false)
+    public Cache instructionCache; // The first level instruction cache fed by the program counters, or null for a unified first level.
+
+    @JSONField(name = "translation", deserialize = false)
+    public AddressTranslator translator; // Translates virtual trace addresses to physical ones ahead of the caches, or null to use them as they are.
+
+    private Cache[] levels; // The caches to simulate as an array, indexed by level.
+    private boolean[] overrunPending; // Whether each level has the next block of an overrun waiting to be simulated.
+    private long[] overrunAddresses; // The address of the waiting block of each level.
+    private int[] overrunSizes; // The size remaining of the operation at the waiting block of each level.
+    private boolean[] overrunWrites; // Whether the operation at the waiting block of each level is a write.
+
+    private boolean modelWrites; // Whether any cache models writes, which makes every cache model them.
+    private boolean[] writeThroughPending; // Whether each level has a write-through waiting for the levels below to finish.
+    private long[] writeThroughAddresses; // The address of the waiting write-through of each level.
+    private int[] writeThroughLengths; // The number of bytes of the waiting write-through of each level.
+    private long mainMemoryWrites; // The number of writes reaching main memory when writes are modelled.
+    private boolean prefetching; // Whether any cache has a prefetcher.
+    private int[] prefetchCounts; // The number of blocks each level's prefetcher chose, issued once the levels below have finished.
+    private long mainMemoryPrefetches; // The number of prefetched blocks fetched from main memory.
+    private Cache.Inclusion inclusion = Cache.Inclusion.NINE; // How the contents of the levels relate, from the inclusion of the config.
+    private long operations; // The number of trace operations simulated, counted only while saving or resuming checkpoints.
+    private int filteredLevels; // The number of cache levels the trace was filtered through before reaching the first level.
+    private long[] missAddresses; // The addresses of the last level misses of the current operation, collected only while filtering.
+    private int[] missSizes; // The sizes passed on by the last level misses of the current operation.
+    private int missCount; // The number of last level misses of the current operation.
+
+    boolean memoryMapped; // Whether to memory map the trace file instead of streaming it.
+    int shards = 1; // The number of threads to partition the sets of each cache across. 1 simulates on the calling thread.
+    boolean extendedReport; // Whether to report accesses, overruns, the 3C classification of misses and evictions for each cache.
+    long interval; // The number of trace operations per interval statistics record, or 0 for no interval statistics.
+    String intervalFileName; // The file to write interval statistics to.
+    boolean intervalBinary; // Whether to write interval statistics in the binary form rather than as JSON.
+    long samplePeriod; // The number of operations per sampling period, or 0 to simulate every operation.
+    long sampleWindow = 10000; // The number of measured operations at the end of each sampling period.
+    long sampleWarmup = 10000; // The number of detailed but unmeasured operations before each sampled window.
+    boolean functionalWarming = true; // Whether to warm the caches between sampled windows rather than skip the operations.
+    String checkpointFileName; // The file to save checkpoints of the simulation to, or null to save none.
+    long checkpointInterval = 300; // The number of seconds between checkpoints saved while the trace is simulated.
+    String resumeFileName; // The checkpoint to resume the simulation from, or null to start at the first operation.
+    String warmStartFileName; // The checkpoint whose cache contents the simulation starts with, or null to start with empty caches.
+    int topProgramCounters; // The number of program counters causing the most misses to report for each cache, or 0 for none.
+
+    private static final int CHECKPOINT_CHECK_MASK = (1 << 16) - 1; // The clock is checked for a due checkpoint every 2^16 operations.
+
+    @JSONField(name = "sampling", deserialize = false)
+    public SampledSimulator.SamplingSummary sampling; // How the trace was sampled, or null if every operation was simulated.
 
     /**
      * Simulates a cache running a specific program.
@@ -37,19 +284,57 @@ public class CacheSimulator {
             // Read the cache configuration.
             readConfiguration(cacheConfigFileName);
 
-            // Read in and simulate each memory operation.
-            try (BufferedReader reader = new BufferedReader(new FileReader(programTraceFileName))) {
-                reader.lines().forEach(line -> {
-                    BinaryAddress memoryAddress = new BinaryAddress(line.substring(17, 33));
-                    int size = Integer.parseInt(line.substring(36, 39));
-                    simulateMemoryOp(memoryAddress, size, 0);
-                });
+            if ((checkpointFileName != null || resumeFileName != null) && (shards > 1 || samplePeriod > 0 || interval > 0)) {
+                throw new Exception("Checkpoints cannot be saved or resumed with --shards, --sample or --interval.");
             }
 
-            // The number of main memory accesses is equal to the misses of the lowest cache level.
-            main_memory_accesses = caches.get(caches.size() - 1).misses;
+            // Read in and simulate each memory operation, after restoring the state of a checkpoint if asked to.
+            // The trace is decoded straight into primitives, so nothing is allocated per operation.
+            long traceSize = new File(programTraceFileName).length();
+            try (TraceReader reader = resumeFileName != null || warmStartFileName != null
+                    ? restoreCheckpoint(programTraceFileName, traceSize)
+                    : TraceReader.open(programTraceFileName, memoryMapped)) {
+                setFilteredLevels(reader.getFilteredLevels());
+                checkProgramCounters(reader);
+                if (shards > 1) {
+                    if (modelWrites) {
+                        throw new Exception("Write policies cannot be simulated with --shards.");
+                    } else if (extendedReport) {
+                        throw new Exception("The extended report cannot be produced with --shards.");
+                    } else if (interval > 0) {
+                        throw new Exception("Interval statistics cannot be recorded with --shards.");
+                    } else if (samplePeriod > 0) {
+                        throw new Exception("Sampling cannot be combined with --shards.");
+                    } else if (inclusion != Cache.Inclusion.NINE) {
+                        throw new Exception("Inclusive and exclusive hierarchies cannot be simulated with --shards.");
+                    } else if (prefetching) {
+                        throw new Exception("Prefetchers cannot be simulated with --shards.");
+                    } else if (instructionCache != null || topProgramCounters > 0) {
+                        throw new Exception("Instruction caches and --top-pcs cannot be combined with --shards.");
+                    } else if (translator != null) {
+                        throw new Exception("Address translation cannot be simulated with --shards.");
+                    }
+                    new PartitionedSimulator(caches, shards, filteredLevels).simulate(reader);
+                } else if (samplePeriod > 0) {
+                    if (modelWrites || extendedReport || interval > 0 || inclusion != Cache.Inclusion.NINE || prefetching
+                            || instructionCache != null || translator != null || topProgramCounters > 0) {
+                        throw new Exception("Sampling cannot be combined with write policies, inclusion policies, prefetchers, instruction caches,"
+                                + " address translation, --extended, --interval or --top-pcs.");
+                    }
+                    sampling = new SampledSimulator(this, caches, samplePeriod, sampleWindow, sampleWarmup, functionalWarming).simulate(reader);
+                } else if (interval > 0) {
+                    simulateIntervals(reader);
+                } else if (checkpointFileName != null) {
+                    simulateWithCheckpoints(reader, traceSize);
+                } else {
+                    while (reader.next()) {
+                        simulateMemoryOp(reader.programCounter, reader.address, reader.size, reader.write);
+                    }
+                }
+            }
 
             // Print the simulation data to the console.
+            finishSimulation();
             System.out.println(JSON.toJSONString(this));
         } catch (IOException e) {
             System.err.println("Could not read cache information from file:\n" + e.getMessage());
@@ -59,34 +344,672 @@ public class CacheSimulator {
     }
 
     /**
-     * Simulates a memory operation.
-     * @param memoryAddress The memory address of the operation.
+     * Sets one of the sampling options from the command line.
+     * @param option The option, such as "--sample".
+     * @param value The value of the option.
+     */
+    void setSamplingOption(String option, String value) {
+        switch (option) {
+            case ("--sample"):
+                samplePeriod = Long.parseLong(value);
+                break;
+            case ("--sample-window"):
+                sampleWindow = Long.parseLong(value);
+                break;
+            case ("--sample-warmup"):
+                sampleWarmup = Long.parseLong(value);
+                break;
+            default:
+                if (!value.equals("functional") && !value.equals("none")) {
+                    System.err.println("Option '--sample-warming' must be 'functional' or 'none'.");
+                    System.exit(1);
+                }
+                functionalWarming = value.equals("functional");
+        }
+    }
+
+    /**
+     * Sets the number of cache levels the trace was filtered through, so overruns are counted as in the full hierarchy.
+     * @param filteredLevels The number of filtered levels, or 0 for a program trace.
+     * @throws Exception If the hierarchy models writes, which depend on the writes the filtered levels passed down,
+     * is inclusive or exclusive, which depends on the evictions of the filtered levels,
+     * has an instruction cache, whose fetches the filtered levels have mixed into the trace,
+     * or translates addresses, which the filtered levels may already have translated.
+     */
+    void setFilteredLevels(int filteredLevels) throws Exception {
+        if (filteredLevels > 0 && modelWrites) {
+            throw new Exception("Write policies cannot be simulated on a filtered trace.");
+        } else if (filteredLevels > 0 && inclusion != Cache.Inclusion.NINE) {
+            throw new Exception("Inclusive and exclusive hierarchies cannot be simulated on a filtered trace.");
+        } else if (filteredLevels > 0 && instructionCache != null) {
+            throw new Exception("Instruction caches cannot be simulated on a filtered trace.");
+        } else if (filteredLevels > 0 && translator != null) {
+            throw new Exception("Address translation cannot be simulated on a filtered trace.");
+        }
+        this.filteredLevels = filteredLevels;
+    }
+
+    /**
+     * Checks that a trace has the program counters an instruction cache or the attribution of misses needs.
+     * @param reader The reader of the trace.
+     * @throws Exception If the trace has no program counters but they are needed.
+     */
+    void checkProgramCounters(TraceReader reader) throws Exception {
+        if ((instructionCache != null || topProgramCounters > 0) && !reader.hasProgramCounters()) {
+            throw new Exception("The trace has no program counters to feed the instruction cache or attribute misses to.");
+        }
+    }
+
+    /**
+     * Simulates a trace on the hierarchy and writes the blocks that miss in the last level, with the size passed on,
+     * as a binary trace. Replaying it on the levels below gives them the same results as simulating the full hierarchy.
+     * Already filtered traces can be filtered further, adding up the filtered levels.
+     * @param programTraceFileName The file name of the trace to filter.
+     * @param filteredTraceFileName The file name of the filtered binary trace to create.
+     * @param delta Whether to delta / varint encode records.
+     * @param programCounters Whether to include the program counter of the operation causing each miss.
+     * @return The number of operations in the filtered trace.
+     * @throws IOException If either trace could not be read or written.
+     * @throws Exception If the hierarchy models writes, is inclusive or exclusive, prefetches into the levels below
+     * or has an instruction cache.
+     */
+    long filterTrace(String programTraceFileName, String filteredTraceFileName, boolean delta, boolean programCounters) throws Exception {
+        if (modelWrites) {
+            throw new Exception("Traces cannot be filtered through caches with write policies.");
+        } else if (inclusion != Cache.Inclusion.NINE) {
+            throw new Exception("Traces cannot be filtered through inclusive or exclusive caches.");
+        } else if (prefetching) {
+            throw new Exception("Traces cannot be filtered through caches with prefetchers.");
+        } else if (instructionCache != null) {
+            throw new Exception("Traces cannot be filtered through an instruction cache.");
+        }
+        missAddresses = new long[16];
+        missSizes = new int[16];
+        long written = 0;
+        try (TraceReader reader = TraceReader.open(programTraceFileName, memoryMapped)) {
+            setFilteredLevels(reader.getFilteredLevels());
+            checkProgramCounters(reader);
+            try (BinaryTraceWriter writer = new BinaryTraceWriter(filteredTraceFileName, delta, programCounters, filteredLevels + levels.length)) {
+                while (reader.next()) {
+                    simulateMemoryOp(reader.programCounter, reader.address, reader.size, false);
+                    for (int i = 0; i < missCount; i++) {
+                        writer.write(reader.programCounter, missAddresses[i], missSizes[i], false);
+                    }
+                    written += missCount;
+                    missCount = 0;
+                }
+            }
+        } finally {
+            missAddresses = null;
+            missSizes = null;
+        }
+        return written;
+    }
+
+    /**
+     * Collects a miss of the last level while filtering, growing the miss arrays if necessary.
+     * @param address The address of the block that missed.
+     * @param size The size passed on to the next level.
+     */
+    private void recordMiss(long address, int size) {
+        if (missCount == missAddresses.length) {
+            missAddresses = Arrays.copyOf(missAddresses, missCount * 2);
+            missSizes = Arrays.copyOf(missSizes, missCount * 2);
+        }
+        missAddresses[missCount] = address;
+        missSizes[missCount] = size;
+        missCount++;
+    }
+
+    /**
+     * Sets one of the checkpoint options from the command line.
+     * @param option The option, such as "--checkpoint".
+     * @param value The value of the option.
+     */
+    void setCheckpointOption(String option, String value) {
+        switch (option) {
+            case ("--checkpoint"):
+                checkpointFileName = value;
+                break;
+            case ("--checkpoint-interval"):
+                checkpointInterval = Long.parseLong(value);
+                break;
+            case ("--resume"):
+                resumeFileName = value;
+                break;
+            default:
+                warmStartFileName = value;
+        }
+    }
+
+    /**
+     * Simulates every memory operation of a trace, saving a checkpoint whenever the checkpoint interval has passed
+     * and once more at the end of the trace.
+     * @param reader The reader of the program trace.
+     * @param traceSize The size of the trace file in bytes, saved to check a resumed run reads the same trace.
+     * @throws IOException If the trace could not be read or a checkpoint could not be saved.
+     */
+    private void simulateWithCheckpoints(TraceReader reader, long traceSize) throws IOException {
+        long intervalNanos = checkpointInterval * 1_000_000_000L;
+        long lastCheckpoint = System.nanoTime();
+        while (reader.next()) {
+            simulateMemoryOp(reader.programCounter, reader.address, reader.size, reader.write);
+            if ((++operations & CHECKPOINT_CHECK_MASK) == 0 && System.nanoTime() - lastCheckpoint >= intervalNanos) {
+                saveCheckpoint(reader, traceSize);
+                lastCheckpoint = System.nanoTime();
+            }
+        }
+        saveCheckpoint(reader, traceSize);
+    }
+
+    /**
+     * Saves the state of the hierarchy and the position in the trace to the checkpoint file.
+     * The checkpoint is written to a temporary file that then replaces the previous checkpoint,
+     * so an interrupted save leaves the previous checkpoint intact.
+     * Checkpoint layout: the number of levels, the operations simulated, the trace size, the byte offset of the next
+     * operation (-1 if the reader cannot resume from one), the address and program counter of the last operation,
+     * the main memory writes and prefetches, then the state of each cache, the instruction cache and the translation if there are any.
+     * @param reader The reader of the program trace, positioned after the last simulated operation.
+     * @param traceSize The size of the trace file in bytes.
+     * @throws IOException If the checkpoint could not be saved.
+     */
+    private void saveCheckpoint(TraceReader reader, long traceSize) throws IOException {
+        Path target = Paths.get(checkpointFileName);
+        Path temporary = Paths.get(checkpointFileName + ".tmp");
+        try (CheckpointOutput output = new CheckpointOutput(Files.newOutputStream(temporary))) {
+            output.writeInt(levels.length);
+            output.writeLong(operations);
+            output.writeLong(traceSize);
+            output.writeLong(reader.getByteOffset());
+            output.writeLong(reader.address);
+            output.writeLong(reader.programCounter);
+            output.writeLong(mainMemoryWrites);
+            output.writeLong(mainMemoryPrefetches);
+            for (Cache cache : levels) {
+                cache.writeState(output);
+            }
+            if (instructionCache != null) {
+                instructionCache.writeState(output);
+            }
+            if (translator != null) {
+                translator.writeState(output);
+            }
+        }
+        try {
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Restores the state of the hierarchy from the checkpoint given by --resume or --warm-start and opens the trace.
+     * A resumed run carries on with the statistics and trace position of the checkpoint, seeking straight to the next
+     * operation when the reader supports it and skipping the simulated operations otherwise.
+     * A warm started run keeps only the cache contents and simulates the trace from its first operation.
+     * @param programTraceFileName The file name of the program trace.
+     * @param traceSize The size of the trace file in bytes.
+     * @return The reader of the program trace, positioned at the next operation to simulate.
+     * @throws IOException If the checkpoint or trace could not be read, or the checkpoint does not match the caches.
+     * @throws Exception If a resumed checkpoint was saved while simulating a different trace.
+     */
+    private TraceReader restoreCheckpoint(String programTraceFileName, long traceSize) throws Exception {
+        boolean resume = resumeFileName != null;
+        String fileName = resume ? resumeFileName : warmStartFileName;
+        long byteOffset;
+        long address;
+        long programCounter;
+        try (CheckpointInput input = new CheckpointInput(new FileInputStream(fileName))) {
+            if (input.readInt() != levels.length) {
+                throw new IOException("The checkpoint '" + fileName + "' has a different number of cache levels.");
+            }
+            operations = input.readLong();
+            long checkpointTraceSize = input.readLong();
+            if (resume && checkpointTraceSize != traceSize) {
+                throw new Exception("The checkpoint '" + fileName + "' was saved while simulating a different trace.");
+            }
+            byteOffset = input.readLong();
+            address = input.readLong();
+            programCounter = input.readLong();
+            mainMemoryWrites = input.readLong();
+            mainMemoryPrefetches = input.readLong();
+            for (Cache cache : levels) {
+                cache.readState(input);
+            }
+            if (instructionCache != null) {
+                instructionCache.readState(input);
+            }
+            if (translator != null) {
+                translator.readState(input);
+            }
+        }
+
+        if (!resume) {
+            operations = 0;
+            mainMemoryWrites = 0;
+            mainMemoryPrefetches = 0;
+            for (Cache cache : levels) {
+                cache.resetStatistics();
+            }
+            if (instructionCache != null) {
+                instructionCache.resetStatistics();
+            }
+            if (translator != null) {
+                translator.resetStatistics();
+            }
+            return TraceReader.open(programTraceFileName, memoryMapped);
+        }
+        TraceReader reader = TraceReader.open(programTraceFileName, memoryMapped, byteOffset);
+        if (byteOffset >= 0 && reader.getByteOffset() == byteOffset) {
+            // Delta encoded records continue from the last operation before the offset.
+            reader.address = address;
+            reader.programCounter = programCounter;
+        } else if (reader.skip(operations) < operations) {
+            reader.close();
+            throw new Exception("The trace ended before the operations simulated in the checkpoint '" + fileName + "'.");
+        }
+        return reader;
+    }
+
+    /**
+     * Simulates every memory operation of a trace, writing the statistics of each interval of operations as it ends.
+     * The last interval may be shorter.
+     * @param reader The reader of the program trace.
+     * @throws IOException If the trace could not be read or the statistics could not be written.
+     */
+    private void simulateIntervals(TraceReader reader) throws IOException {
+        try (IntervalStatisticsWriter writer = new IntervalStatisticsWriter(intervalFileName, intervalBinary, getReportedCaches())) {
+            long operations = 0;
+            long nextRecord = interval;
+            while (reader.next()) {
+                simulateMemoryOp(reader.programCounter, reader.address, reader.size, reader.write);
+                if (++operations == nextRecord) {
+                    writer.record(operations);
+                    nextRecord += interval;
+                }
+            }
+            writer.record(operations);
+        }
+    }
+
+    /**
+     * Warms the hierarchy with a memory operation, updating the lines of each level it reaches in the same order as
+     * simulateMemoryOp, but without touching the statistics. Writes are treated as reads.
+     * @param address The memory address of the operation.
      * @param size The size of the operation.
-     * @param cacheIndex The index of the cache to simulate the operation on.
      */
-    void simulateMemoryOp(BinaryAddress memoryAddress, int size, int cacheIndex) {
-        Cache cache = caches.get(cacheIndex);
-        boolean hit = cache.performOperation(memoryAddress);
+    void warmMemoryOp(long address, int size) {
+        warmLevel(0, address, size);
+    }
 
-        // Track the size remaining in the line for misses and block overruns.
-        int lineSizeRemaining = cache.lineSize - (int) memoryAddress.getOffset(cache);
+    /**
+     * Warms one level with a memory operation, passing each block that misses down before moving on to the next block.
+     * @param level The level to warm.
+     * @param address The memory address of the operation.
+     * @param size The size of the operation.
+     */
+    private void warmLevel(int level, long address, int size) {
+        Cache cache = levels[level];
+        while (true) {
+            int lineSizeRemaining = cache.lineSize - (int) (address & cache.offsetMask);
+            if (!cache.access(address) && level + 1 < levels.length) {
+                warmLevel(level + 1, address, lineSizeRemaining);
+            }
+            if (fitsInLine(size, lineSizeRemaining)) {
+                return;
+            }
+            address += cache.blockSize;
+            size -= cache.lineSize;
+        }
+    }
 
-        // On a miss, run the attempted part of same memory operation on the next level if available.
-        if (!hit && cacheIndex < caches.size() - 1) {
-            simulateMemoryOp(memoryAddress, lineSizeRemaining, cacheIndex + 1);
+    /**
+     * Completes the statistics after the whole trace has been simulated.
+     */
+    void finishSimulation() {
+        // The number of main memory accesses is equal to the misses of the lowest cache level,
+        // plus those of an instruction cache with no unified level below it.
+        main_memory_accesses = caches.get(caches.size() - 1).misses;
+        if (instructionCache != null && levels.length == 1) {
+            main_memory_accesses += instructionCache.misses;
         }
+    }
+
+    /**
+     * Gets every cache of the hierarchy, starting with the instruction cache if there is one.
+     * @return The caches in the order they are reported.
+     */
+    List<Cache> getReportedCaches() {
+        if (instructionCache == null) {
+            return caches;
+        }
+        List<Cache> reported = new ArrayList<>();
+        reported.add(instructionCache);
+        reported.addAll(caches);
+        return reported;
+    }
 
-        // If the operation did not fit on the line, run it again for the next block on the same level.
-        if (!fitsInLine(size, lineSizeRemaining)) {
-            // Mark this as an overrun and subtract a hit to avoid counting the overrun as a hit on the same level.
-            cache.overruns++;
-            if (cacheIndex > 0) {
-                cache.hits--;
+    /**
+     * Simulates a read, or any memory operation when writes are not modelled, on the hierarchy, without a program counter.
+     * @param address The memory address of the operation.
+     * @param size The size of the operation.
+     */
+    void simulateMemoryOp(long address, int size) {
+        simulateMemoryOp(0, address, size, false);
+    }
+
+    /**
+     * Simulates a memory operation on the hierarchy.
+     * This walks the hierarchy with a loop instead of recursing, but visits the levels in the same order as the
+     * recursive simulation: a miss is passed down to the next level first, and only once the lower levels are done
+     * does a level move on to the next block of an operation that overran its line.
+     * Each level has at most one such overrun waiting at a time, so the waiting blocks are kept in arrays indexed by level.
+     *
+     * When writes are modelled, a write miss on a level that allocates on writes fetches the block from the next level
+     * as a read, while a write miss on a level that does not allocate passes the write itself down.
+     * Write-throughs are passed down once the fetch below has finished, and dirty lines are written back when evicted.
+     *
+     * In an exclusive hierarchy only the first level is filled on a miss. The levels below give up the lines they hit,
+     * and the victims of each level are inserted into the level below once the levels below it have finished.
+     *
+     * Prefetchers are trained on each demand access of their level, and the blocks they choose are prefetched
+     * once the levels below have served the demand access, as the demand request would be sent first.
+     *
+     * With a split first level, the instruction of the operation is fetched through the instruction cache first.
+     * With address translation, the addresses are translated first.
+     * @param programCounter The program counter of the operation, or 0 if the trace has none.
+     * @param address The memory address of the operation.
+     * @param size The size of the operation.
+     * @param write Whether the operation is a write. Ignored unless writes are modelled.
+     */
+    void simulateMemoryOp(long programCounter, long address, int size, boolean write) {
+        if (translator != null) {
+            simulateTranslatedOp(programCounter, address, size, write);
+            return;
+        }
+        if (instructionCache != null) {
+            fetchInstruction(programCounter, programCounter);
+        }
+        simulateFromLevel(0, programCounter, address, size, write);
+    }
+
+    /**
+     * Simulates a memory operation at virtual addresses on the hierarchy, translating the instruction fetch and each page
+     * the operation touches. Pages adjacent in virtual memory need not be adjacent in physical memory, so an operation
+     * crossing into another page is simulated as one operation per page. The program counter passed on stays virtual,
+     * as prefetchers and the attribution of misses only use it to tell instructions apart.
+     * @param programCounter The program counter of the operation, or 0 if the trace has none.
+     * @param address The virtual memory address of the operation.
+     * @param size The size of the operation.
+     * @param write Whether the operation is a write. Ignored unless writes are modelled.
+     */
+    private void simulateTranslatedOp(long programCounter, long address, int size, boolean write) {
+        AddressTranslator translator = this.translator;
+        if (instructionCache != null) {
+            fetchInstruction(programCounter, translator.translate(programCounter));
+        }
+        int pageRemaining = translator.pageSize - (int) (address & (translator.pageSize - 1));
+        while (size > pageRemaining) {
+            simulateFromLevel(0, programCounter, translator.translate(address), pageRemaining, write);
+            address += pageRemaining;
+            size -= pageRemaining;
+            pageRemaining = translator.pageSize;
+        }
+        simulateFromLevel(0, programCounter, translator.translate(address), size, write);
+    }
+
+    /**
+     * Fetches the instruction at a program counter through the instruction cache.
+     * A miss is passed on to the unified levels below the first level data cache, or to main memory if there are none.
+     * @param programCounter The program counter of the operation.
+     * @param fetchAddress The address the instruction is fetched from, which is the program counter unless it was translated.
+     */
+    private void fetchInstruction(long programCounter, long fetchAddress) {
+        Cache cache = instructionCache;
+        boolean hit = cache.performOperation(fetchAddress);
+        if (topProgramCounters > 0 && !hit) {
+            cache.missProgramCounters.record(programCounter);
+        }
+        int prefetchCount = cache.prefetches() ? cache.trainPrefetcher(programCounter, fetchAddress, hit) : 0;
+        if (!hit && levels.length > 1) {
+            simulateFromLevel(1, programCounter, fetchAddress, cache.lineSize - (int) (fetchAddress & cache.offsetMask), false);
+        }
+        if (prefetchCount > 0) {
+            prefetchInto(cache, prefetchCount, 1);
+        }
+    }
+
+    /**
+     * Simulates a memory operation on the hierarchy from one of its levels down, as simulateMemoryOp describes.
+     * @param level The index of the level the operation starts at.
+     * @param programCounter The program counter of the operation, or 0 if the trace has none.
+     * @param address The memory address of the operation.
+     * @param size The size of the operation.
+     * @param write Whether the operation is a write. Ignored unless writes are modelled.
+     */
+    private void simulateFromLevel(int level, long programCounter, long address, int size, boolean write) {
+        Cache[] levels = this.levels;
+        int lastLevel = levels.length - 1;
+        boolean modelWrites = this.modelWrites;
+        boolean exclusive = inclusion == Cache.Inclusion.EXCLUSIVE;
+        boolean prefetching = this.prefetching;
+        boolean missAttribution = topProgramCounters > 0;
+        int filteredLevels = this.filteredLevels;
+        write &= modelWrites;
+        while (true) {
+            Cache cache = levels[level];
+            boolean hit = exclusive && level > 0 ? cache.performExclusiveOperation(address) : cache.performOperation(address, write);
+            if (missAttribution && !hit) {
+                cache.missProgramCounters.record(programCounter);
+            }
+
+            // Track the size remaining in the line for misses and block overruns.
+            int lineSizeRemaining = cache.lineSize - (int) (address & cache.offsetMask);
+
+            // If the operation did not fit on the line, hold the rest of it for the next block on the same level.
+            if (!fitsInLine(size, lineSizeRemaining)) {
+                // Mark this as an overrun and subtract a hit to avoid counting the overrun as a hit on the same level.
+                // Levels below filtered ones count as the same levels of the full hierarchy.
+                cache.overruns++;
+                if (level + filteredLevels > 0) {
+                    cache.hits--;
+                }
+                overrunPending[level] = true;
+                overrunAddresses[level] = address + cache.blockSize;
+                overrunSizes[level] = size - cache.lineSize;
+                overrunWrites[level] = write;
+            }
+
+            if (modelWrites) {
+                write = applyWritePolicy(level, cache, address, Math.max(1, Math.min(size, lineSizeRemaining)), write, hit);
+            }
+            if (prefetching && cache.prefetches()) {
+                prefetchCounts[level] = cache.trainPrefetcher(programCounter, address, hit);
+            }
+
+            // On a miss, run the attempted part of same memory operation on the next level if available.
+            if (!hit && level < lastLevel) {
+                size = lineSizeRemaining;
+                level++;
+                continue;
             }
 
-            // Get the next block and run the operation with the size remaining of the overrun.
-            BinaryAddress nextBlock = memoryAddress.nextBlock(cache);
-            simulateMemoryOp(nextBlock, size - cache.lineSize, cacheIndex);
+            // Misses of the last level are collected while filtering the trace for the levels below it.
+            if (!hit && missAddresses != null) {
+                recordMiss(address, lineSizeRemaining);
+            }
+
+            // Otherwise resume the deepest level with an overrun waiting, or finish if there is none.
+            // Write-throughs waiting on the way up are passed down first.
+            while (level >= 0 && !overrunPending[level]) {
+                if (modelWrites && writeThroughPending[level]) {
+                    writeThroughPending[level] = false;
+                    writeDown(level + 1, writeThroughAddresses[level], writeThroughLengths[level]);
+                }
+                if (exclusive) {
+                    passVictimDown(level);
+                }
+                if (prefetching && prefetchCounts[level] > 0) {
+                    issuePrefetches(level);
+                }
+                level--;
+            }
+            if (level < 0) {
+                return;
+            }
+            if (modelWrites && writeThroughPending[level]) {
+                writeThroughPending[level] = false;
+                writeDown(level + 1, writeThroughAddresses[level], writeThroughLengths[level]);
+            }
+            if (exclusive) {
+                passVictimDown(level);
+            }
+            if (prefetching && prefetchCounts[level] > 0) {
+                issuePrefetches(level);
+            }
+            overrunPending[level] = false;
+            address = overrunAddresses[level];
+            size = overrunSizes[level];
+            write = overrunWrites[level];
+        }
+    }
+
+    /**
+     * Applies the write policy of a level after a demand access to it.
+     * @param level The index of the level.
+     * @param cache The cache of the level.
+     * @param address The memory address of the access.
+     * @param length The number of bytes of the operation within the line.
+     * @param write Whether the access is a write.
+     * @param hit Whether the access hit.
+     * @return Whether the access passed on to the next level after a miss is a write.
+     */
+    private boolean applyWritePolicy(int level, Cache cache, long address, int length, boolean write, boolean hit) {
+        // Write back the dirty line the fill replaced, if any.
+        if (cache.takeDirtyVictim()) {
+            cache.writebacks++;
+            writeDown(level + 1, cache.getVictimAddress(), cache.lineSize);
+        }
+        if (!write) {
+            return false;
+        }
+
+        // A write miss without write allocation passes the write itself down, ending in main memory after the last level.
+        if (!hit && !cache.allocatesOnWrite()) {
+            if (level == levels.length - 1) {
+                mainMemoryWrites++;
+            }
+            return true;
+        }
+
+        // Otherwise the line holds the write. Write-through caches also pass it down once any fetch below is done.
+        if (cache.writesThrough()) {
+            cache.writeThroughs++;
+            writeThroughPending[level] = true;
+            writeThroughAddresses[level] = address;
+            writeThroughLengths[level] = length;
+        }
+        return false;
+    }
+
+    /**
+     * Writes a range of bytes passed down from a higher level (a writeback or a write-through) into a level.
+     * This is not a demand access, so it updates the lines but not the hits and misses of the level.
+     * Blocks the level does not hold after the write, and write-throughs, continue down, ending in main memory.
+     * @param level The index of the level to write to. One past the last level writes to main memory.
+     * @param address The memory address of the first byte written.
+     * @param length The number of bytes written.
+     */
+    void writeDown(int level, long address, int length) {
+        if (level == levels.length) {
+            mainMemoryWrites++;
+            return;
+        }
+
+        // Write each block of this level the range covers, as line sizes can differ between levels.
+        Cache cache = levels[level];
+        long end = address + length;
+        for (long block = address & ~cache.offsetMask; block < end; block += cache.blockSize) {
+            boolean held = cache.absorbWrite(block);
+            if (cache.takeDirtyVictim()) {
+                cache.writebacks++;
+                writeDown(level + 1, cache.getVictimAddress(), cache.lineSize);
+            }
+            if (!held || cache.writesThrough()) {
+                if (held) {
+                    cache.writeThroughs++;
+                }
+                long start = Math.max(block, address);
+                writeDown(level + 1, start, (int) (Math.min(block + cache.blockSize, end) - start));
+            }
+        }
+    }
+
+    /**
+     * Inserts the block a level of an exclusive hierarchy last evicted, if any, into the level below.
+     * Each block of the level below the victim covers is inserted, as line sizes can differ between levels,
+     * and the victims those insertions evict move on down in turn. The last level drops its victims.
+     * @param level The index of the level.
+     */
+    private void passVictimDown(int level) {
+        Cache cache = levels[level];
+        if (!cache.takeVictim()) {
+            return;
+        }
+        Cache lower = levels[level + 1];
+        long address = cache.getEvictedAddress();
+        long end = address + cache.lineSize;
+        for (long block = address & ~lower.offsetMask; block < end; block += lower.blockSize) {
+            lower.insertVictim(block);
+            if (level + 1 < levels.length - 1) {
+                passVictimDown(level + 1);
+            }
+        }
+    }
+
+    /**
+     * Prefetches the blocks a level's prefetcher chose on its last demand access.
+     * @param level The index of the level.
+     */
+    private void issuePrefetches(int level) {
+        int count = prefetchCounts[level];
+        prefetchCounts[level] = 0;
+        prefetchInto(levels[level], count, level + 1);
+    }
+
+    /**
+     * Prefetches the blocks a cache's prefetcher chose. Each block the cache does not hold is filled into it
+     * and fetched through the levels below as a demand miss would be, until a level holds it,
+     * without touching the hits and misses of any level. Dirty lines the fills evict are written back.
+     * @param cache The prefetching cache.
+     * @param count The number of blocks its prefetcher chose.
+     * @param lowerLevel The index of the level below the cache.
+     */
+    private void prefetchInto(Cache cache, int count, int lowerLevel) {
+        for (int i = 0; i < count; i++) {
+            long address = cache.getPrefetchAddress(i);
+            if (!cache.prefetch(address)) {
+                continue;
+            }
+            if (cache.takeDirtyVictim()) {
+                cache.writebacks++;
+                writeDown(lowerLevel, cache.getVictimAddress(), cache.lineSize);
+            }
+            int lower = lowerLevel;
+            for (; lower < levels.length; lower++) {
+                Cache lowerCache = levels[lower];
+                boolean held = lowerCache.fetch(address);
+                if (lowerCache.takeDirtyVictim()) {
+                    lowerCache.writebacks++;
+                    writeDown(lower + 1, lowerCache.getVictimAddress(), lowerCache.lineSize);
+                }
+                if (held) {
+                    break;
+                }
+            }
+            if (lower == levels.length) {
+                mainMemoryPrefetches++;
+            }
         }
     }
 
@@ -108,6 +1031,15 @@ public class CacheSimulator {
         @JSONField(name = "caches")
         List<Cache> caches;
 
+        @JSONField(name = "inclusion")
+        String inclusion;
+
+        @JSONField(name = "instruction_cache")
+        Cache instructionCache;
+
+        @JSONField(name = "translation")
+        AddressTranslator translation;
+
         public List<Cache> getCaches() {
             return caches;
         }
@@ -115,6 +1047,30 @@ public class CacheSimulator {
         public void setCaches(List<Cache> caches) {
             this.caches = caches;
         }
+
+        public String getInclusion() {
+            return inclusion;
+        }
+
+        public void setInclusion(String inclusion) {
+            this.inclusion = inclusion;
+        }
+
+        public Cache getInstructionCache() {
+            return instructionCache;
+        }
+
+        public void setInstructionCache(Cache instructionCache) {
+            this.instructionCache = instructionCache;
+        }
+
+        public AddressTranslator getTranslation() {
+            return translation;
+        }
+
+        public void setTranslation(AddressTranslator translation) {
+            this.translation = translation;
+        }
     }
 
     /**
@@ -129,13 +1085,150 @@ public class CacheSimulator {
             CacheConfiguration cacheConfiguration = JSON.parseObject(jsonString, CacheConfiguration.class);
 
             // Initialise each of the caches.
-            caches = cacheConfiguration.getCaches();
-            for (Cache cache : caches) {
+            for (Cache cache : cacheConfiguration.getCaches()) {
                 cache.initialise();
             }
+            instructionCache = cacheConfiguration.getInstructionCache();
+            if (instructionCache != null) {
+                instructionCache.initialise();
+            }
+            translator = cacheConfiguration.getTranslation();
+            if (translator != null) {
+                List<Cache> translatedCaches = new ArrayList<>(cacheConfiguration.getCaches());
+                if (instructionCache != null) {
+                    translatedCaches.add(instructionCache);
+                }
+                translator.initialise(translatedCaches);
+            }
+            setInclusion(cacheConfiguration.getInclusion());
+            useCaches(cacheConfiguration.getCaches());
+        }
+    }
+
+    /**
+     * Sets the initialised caches to simulate and allocates the per level state of the simulation loop.
+     * If any cache models writes, the others model them too with their default write policy.
+     * Each cache keeps the extended statistics if the extended report was requested, tracks the program counters
+     * causing its misses if --top-pcs was given, and is linked to the level above it if the hierarchy is inclusive or exclusive.
+     * An instruction cache, set by readConfiguration, is set up the same way, and so are the TLBs of the translation.
+     * @param caches The caches to simulate, from the highest level to the lowest.
+     * @throws Exception If a write policy is unsupported, write policies or prefetchers are combined with an exclusive hierarchy,
+     * or an instruction cache is combined with an inclusive or exclusive one.
+     */
+    void useCaches(List<Cache> caches) throws Exception {
+        this.caches = caches;
+        levels = caches.toArray(new Cache[0]);
+        overrunPending = new boolean[levels.length];
+        overrunAddresses = new long[levels.length];
+        overrunSizes = new int[levels.length];
+        overrunWrites = new boolean[levels.length];
+
+        modelWrites = false;
+        for (Cache cache : levels) {
+            modelWrites |= cache.modelsWrites();
+        }
+        if (modelWrites) {
+            for (Cache cache : levels) {
+                if (!cache.modelsWrites()) {
+                    cache.enableWrites();
+                }
+            }
+        }
+        writeThroughPending = new boolean[levels.length];
+        writeThroughAddresses = new long[levels.length];
+        writeThroughLengths = new int[levels.length];
+
+        if (extendedReport) {
+            for (Cache cache : levels) {
+                cache.enableExtendedStatistics();
+            }
+        }
+
+        prefetching = false;
+        for (Cache cache : levels) {
+            prefetching |= cache.prefetches();
+        }
+        prefetchCounts = new int[levels.length];
+
+        if (topProgramCounters > 0) {
+            for (Cache cache : levels) {
+                cache.enableMissAttribution(topProgramCounters);
+            }
+        }
+        if (translator != null && extendedReport) {
+            translator.enableExtendedStatistics();
+        }
+        if (instructionCache != null) {
+            if (inclusion != Cache.Inclusion.NINE) {
+                throw new Exception("An instruction cache cannot be simulated in an inclusive or exclusive hierarchy.");
+            }
+            if (extendedReport) {
+                instructionCache.enableExtendedStatistics();
+            }
+            if (topProgramCounters > 0) {
+                instructionCache.enableMissAttribution(topProgramCounters);
+            }
+            prefetching |= instructionCache.prefetches();
+        }
+
+        if (inclusion == Cache.Inclusion.EXCLUSIVE && modelWrites) {
+            throw new Exception("Write policies cannot be simulated in an exclusive hierarchy.");
+        } else if (inclusion == Cache.Inclusion.EXCLUSIVE && prefetching) {
+            throw new Exception("Prefetchers cannot be simulated in an exclusive hierarchy.");
+        }
+        for (int level = 0; level < levels.length; level++) {
+            levels[level].enableInclusion(inclusion, level > 0 ? levels[level - 1] : null, level == levels.length - 1);
         }
     }
 
+    /**
+     * Sets the inclusion policy of the hierarchy from the inclusion of a cache config.
+     * @param inclusionString The inclusion policy: "nine" (or null), "inclusive" or "exclusive".
+     * @throws Exception If the inclusion policy is unsupported.
+     */
+    void setInclusion(String inclusionString) throws Exception {
+        switch (inclusionString == null ? "nine" : inclusionString) {
+            case ("nine"):
+                inclusion = Cache.Inclusion.NINE;
+                break;
+            case ("inclusive"):
+                inclusion = Cache.Inclusion.INCLUSIVE;
+                break;
+            case ("exclusive"):
+                inclusion = Cache.Inclusion.EXCLUSIVE;
+                break;
+            default:
+                throw new Exception("The inclusion policy '" + inclusionString + "' is not supported by the simulator!");
+        }
+    }
+
+    /**
+     * Gets the inclusion policy of the hierarchy, for the JSON output.
+     * @return The inclusion policy, or null for the default non-inclusive hierarchy so the field is left out.
+     */
+    @JSONField(name = "inclusion")
+    public String getInclusion() {
+        return inclusion == Cache.Inclusion.NINE ? null : inclusion.name().toLowerCase();
+    }
+
+    /**
+     * Gets the number of writes reaching main memory, for the JSON output.
+     * @return The number of main memory writes, or null if writes are not modelled so the field is left out.
+     */
+    @JSONField(name = "main_memory_writes")
+    public Long getMainMemoryWrites() {
+        return modelWrites ? mainMemoryWrites : null;
+    }
+
+    /**
+     * Gets the number of prefetched blocks fetched from main memory, for the JSON output.
+     * @return The number of main memory prefetches, or null if no cache prefetches so the field is left out.
+     */
+    @JSONField(name = "main_memory_prefetches")
+    public Long getMainMemoryPrefetches() {
+        return prefetching ? mainMemoryPrefetches : null;
+    }
+
     //// LEGACY CODE AND DISCUSSION
     /**
     * Four cases of additional actions required after updating the tag of a line:
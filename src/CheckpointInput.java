@@ -0,0 +1,197 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Reads the state of a simulation back from a checkpoint written by CheckpointOutput.
+ * Arrays are read in bulk, either into the arrays of an already configured hierarchy, whose lengths must match,
+ * or into new arrays for structures that grow.
+ */
+public class CheckpointInput implements AutoCloseable {
+    private final DataInputStream input; // The stream the checkpoint is read from.
+    private final ByteBuffer chunk = ByteBuffer.allocate(CheckpointOutput.CHUNK_SIZE); // Reused buffer holding part of an array being read.
+
+    /**
+     * Creates a checkpoint reader on an input stream and checks the header.
+     * @param input The stream to read the checkpoint from.
+     * @throws IOException If the header could not be read or is not a checkpoint header.
+     */
+    public CheckpointInput(InputStream input) throws IOException {
+        this.input = new DataInputStream(new BufferedInputStream(input, CheckpointOutput.CHUNK_SIZE));
+        byte[] magic = new byte[CheckpointOutput.MAGIC.length];
+        this.input.readFully(magic);
+        if (!Arrays.equals(magic, CheckpointOutput.MAGIC)) {
+            throw new IOException("Not a checkpoint.");
+        }
+        int version = this.input.readInt();
+        if (version != CheckpointOutput.VERSION) {
+            throw new IOException("Unsupported checkpoint version " + version + ".");
+        }
+    }
+
+    /**
+     * Reads a long.
+     * @return The value read.
+     * @throws IOException If the checkpoint could not be read.
+     */
+    public long readLong() throws IOException {
+        return input.readLong();
+    }
+
+    /**
+     * Reads an int.
+     * @return The value read.
+     * @throws IOException If the checkpoint could not be read.
+     */
+    public int readInt() throws IOException {
+        return input.readInt();
+    }
+
+    /**
+     * Reads a boolean.
+     * @return The value read.
+     * @throws IOException If the checkpoint could not be read.
+     */
+    public boolean readBoolean() throws IOException {
+        return input.readBoolean();
+    }
+
+    /**
+     * Reads a string.
+     * @return The value read.
+     * @throws IOException If the checkpoint could not be read.
+     */
+    public String readString() throws IOException {
+        return input.readUTF();
+    }
+
+    /**
+     * Reads an array of longs into a new array.
+     * @return The array read, or null if a missing array was written.
+     * @throws IOException If the checkpoint could not be read.
+     */
+    public long[] readLongs() throws IOException {
+        int length = input.readInt();
+        if (length < 0) {
+            return null;
+        }
+        long[] array = new long[length];
+        readElements(array);
+        return array;
+    }
+
+    /**
+     * Reads an array of longs into an existing array of the same length.
+     * @param array The array to fill, or null if a missing array is expected.
+     * @throws IOException If the checkpoint could not be read or the lengths differ.
+     */
+    public void readLongs(long[] array) throws IOException {
+        if (checkLength(array == null ? -1 : array.length)) {
+            readElements(array);
+        }
+    }
+
+    /**
+     * Reads an array of ints into a new array.
+     * @return The array read, or null if a missing array was written.
+     * @throws IOException If the checkpoint could not be read.
+     */
+    public int[] readInts() throws IOException {
+        int length = input.readInt();
+        if (length < 0) {
+            return null;
+        }
+        int[] array = new int[length];
+        readElements(array);
+        return array;
+    }
+
+    /**
+     * Reads an array of ints into an existing array of the same length.
+     * @param array The array to fill, or null if a missing array is expected.
+     * @throws IOException If the checkpoint could not be read or the lengths differ.
+     */
+    public void readInts(int[] array) throws IOException {
+        if (checkLength(array == null ? -1 : array.length)) {
+            readElements(array);
+        }
+    }
+
+    /**
+     * Reads an array of bytes into an existing array of the same length.
+     * @param array The array to fill, or null if a missing array is expected.
+     * @throws IOException If the checkpoint could not be read or the lengths differ.
+     */
+    public void readBytes(byte[] array) throws IOException {
+        if (checkLength(array == null ? -1 : array.length)) {
+            input.readFully(array);
+        }
+    }
+
+    /**
+     * Reads an array of booleans into an existing array of the same length.
+     * @param array The array to fill, or null if a missing array is expected.
+     * @throws IOException If the checkpoint could not be read or the lengths differ.
+     */
+    public void readBooleans(boolean[] array) throws IOException {
+        if (checkLength(array == null ? -1 : array.length)) {
+            for (int i = 0; i < array.length; i++) {
+                array[i] = input.readByte() != 0;
+            }
+        }
+    }
+
+    /**
+     * Reads the length of an array and checks it against the array being filled.
+     * @param expectedLength The length of the array being filled, or -1 if a missing array is expected.
+     * @return Whether there are elements to read after the length.
+     * @throws IOException If the checkpoint could not be read or the lengths differ.
+     */
+    private boolean checkLength(int expectedLength) throws IOException {
+        int length = input.readInt();
+        if (length != expectedLength) {
+            throw new IOException("The checkpoint does not match the cache configuration.");
+        }
+        return length > 0;
+    }
+
+    /**
+     * Reads the elements of a long array in chunks.
+     * @param array The array to fill.
+     * @throws IOException If the checkpoint could not be read.
+     */
+    private void readElements(long[] array) throws IOException {
+        for (int from = 0; from < array.length; from += CheckpointOutput.CHUNK_SIZE / Long.BYTES) {
+            int count = Math.min(CheckpointOutput.CHUNK_SIZE / Long.BYTES, array.length - from);
+            input.readFully(chunk.array(), 0, count * Long.BYTES);
+            chunk.clear();
+            chunk.asLongBuffer().get(array, from, count);
+        }
+    }
+
+    /**
+     * Reads the elements of an int array in chunks.
+     * @param array The array to fill.
+     * @throws IOException If the checkpoint could not be read.
+     */
+    private void readElements(int[] array) throws IOException {
+        for (int from = 0; from < array.length; from += CheckpointOutput.CHUNK_SIZE / Integer.BYTES) {
+            int count = Math.min(CheckpointOutput.CHUNK_SIZE / Integer.BYTES, array.length - from);
+            input.readFully(chunk.array(), 0, count * Integer.BYTES);
+            chunk.clear();
+            chunk.asIntBuffer().get(array, from, count);
+        }
+    }
+
+    /**
+     * Closes the stream.
+     * @throws IOException If the stream could not be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
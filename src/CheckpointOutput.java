@@ -0,0 +1,145 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes the state of a simulation to a checkpoint, which CheckpointInput reads back.
+ * Arrays are written in bulk through a reused byte buffer rather than one value at a time,
+ * so saving a hierarchy costs little more than copying its line arrays.
+ *
+ * Format: the magic bytes "CSCP" and a version (4 bytes), then the values in the order they were written.
+ * All multi-byte values are big-endian. Each array is its length (4 bytes, or -1 for a missing array) followed by its elements.
+ */
+public class CheckpointOutput implements AutoCloseable {
+    static final byte[] MAGIC = { 'C', 'S', 'C', 'P' }; // The magic bytes at the start of every checkpoint.
+    static final int VERSION = 1; // The version of the format written.
+    static final int CHUNK_SIZE = 1 << 16; // The size of the buffer arrays are copied through in bytes.
+
+    private final DataOutputStream output; // The stream the checkpoint is written to.
+    private final ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE); // Reused buffer holding part of an array being written.
+
+    /**
+     * Creates a checkpoint writer on an output stream and writes the header.
+     * @param output The stream to write the checkpoint to.
+     * @throws IOException If the header could not be written.
+     */
+    public CheckpointOutput(OutputStream output) throws IOException {
+        this.output = new DataOutputStream(new BufferedOutputStream(output, CHUNK_SIZE));
+        this.output.write(MAGIC);
+        this.output.writeInt(VERSION);
+    }
+
+    /**
+     * Writes a long.
+     * @param value The value to write.
+     * @throws IOException If the checkpoint could not be written.
+     */
+    public void writeLong(long value) throws IOException {
+        output.writeLong(value);
+    }
+
+    /**
+     * Writes an int.
+     * @param value The value to write.
+     * @throws IOException If the checkpoint could not be written.
+     */
+    public void writeInt(int value) throws IOException {
+        output.writeInt(value);
+    }
+
+    /**
+     * Writes a boolean.
+     * @param value The value to write.
+     * @throws IOException If the checkpoint could not be written.
+     */
+    public void writeBoolean(boolean value) throws IOException {
+        output.writeBoolean(value);
+    }
+
+    /**
+     * Writes a string.
+     * @param value The value to write.
+     * @throws IOException If the checkpoint could not be written.
+     */
+    public void writeString(String value) throws IOException {
+        output.writeUTF(value);
+    }
+
+    /**
+     * Writes an array of longs.
+     * @param array The array to write, or null.
+     * @throws IOException If the checkpoint could not be written.
+     */
+    public void writeLongs(long[] array) throws IOException {
+        if (writeLength(array == null ? -1 : array.length)) {
+            for (int from = 0; from < array.length; from += CHUNK_SIZE / Long.BYTES) {
+                int count = Math.min(CHUNK_SIZE / Long.BYTES, array.length - from);
+                chunk.clear();
+                chunk.asLongBuffer().put(array, from, count);
+                output.write(chunk.array(), 0, count * Long.BYTES);
+            }
+        }
+    }
+
+    /**
+     * Writes an array of ints.
+     * @param array The array to write, or null.
+     * @throws IOException If the checkpoint could not be written.
+     */
+    public void writeInts(int[] array) throws IOException {
+        if (writeLength(array == null ? -1 : array.length)) {
+            for (int from = 0; from < array.length; from += CHUNK_SIZE / Integer.BYTES) {
+                int count = Math.min(CHUNK_SIZE / Integer.BYTES, array.length - from);
+                chunk.clear();
+                chunk.asIntBuffer().put(array, from, count);
+                output.write(chunk.array(), 0, count * Integer.BYTES);
+            }
+        }
+    }
+
+    /**
+     * Writes an array of bytes.
+     * @param array The array to write, or null.
+     * @throws IOException If the checkpoint could not be written.
+     */
+    public void writeBytes(byte[] array) throws IOException {
+        if (writeLength(array == null ? -1 : array.length)) {
+            output.write(array);
+        }
+    }
+
+    /**
+     * Writes an array of booleans, one byte each.
+     * @param array The array to write, or null.
+     * @throws IOException If the checkpoint could not be written.
+     */
+    public void writeBooleans(boolean[] array) throws IOException {
+        if (writeLength(array == null ? -1 : array.length)) {
+            for (boolean value : array) {
+                output.write(value ? 1 : 0);
+            }
+        }
+    }
+
+    /**
+     * Writes the length of an array.
+     * @param length The length, or -1 for a missing array.
+     * @return Whether there are elements to write after the length.
+     * @throws IOException If the checkpoint could not be written.
+     */
+    private boolean writeLength(int length) throws IOException {
+        output.writeInt(length);
+        return length > 0;
+    }
+
+    /**
+     * Flushes the checkpoint and closes the stream.
+     * @throws IOException If the checkpoint could not be written.
+     */
+    @Override
+    public void close() throws IOException {
+        output.close();
+    }
+}
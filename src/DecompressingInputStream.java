@@ -0,0 +1,223 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads a gzip compressed trace, decompressing it on a background thread so decompression overlaps with simulation.
+ * The decompressor fills a bounded ring of reused chunks that the reading thread takes in order, so at most a few chunks
+ * are held in memory and a slow reader holds the decompressor back.
+ *
+ * Compressed traces are detected by their magic bytes. Only gzip is decompressed, as it is the only format the JDK includes.
+ * zstd and xz traces are recognised so they are rejected with an explanation instead of being parsed as text.
+ */
+public class DecompressingInputStream extends InputStream {
+    private static final byte[] GZIP_MAGIC = { 0x1F, (byte) 0x8B }; // The magic bytes at the start of a gzip file.
+    private static final byte[] ZSTD_MAGIC = { 0x28, (byte) 0xB5, 0x2F, (byte) 0xFD }; // The magic bytes at the start of a zstd frame.
+    private static final byte[] XZ_MAGIC = { (byte) 0xFD, '7', 'z', 'X', 'Z', 0x00 }; // The magic bytes at the start of an xz file.
+    private static final int CHUNK_SIZE = 1 << 16; // The size of each chunk of decompressed bytes.
+    private static final int CHUNK_COUNT = 8; // The number of chunks in the ring.
+
+    private final InputStream source; // The decompressing stream read by the background thread.
+    private final Thread decompressor; // The background thread filling the chunks.
+    private final byte[][] chunks = new byte[CHUNK_COUNT][CHUNK_SIZE]; // The ring of chunks, reused in turn.
+    private final int[] lengths = new int[CHUNK_COUNT]; // The number of decompressed bytes in each chunk.
+    private long produced; // The number of chunks filled by the decompressor.
+    private long consumed; // The number of chunks released by the reader.
+    private boolean finished; // Whether the decompressor has filled its last chunk.
+    private boolean closed; // Whether the stream has been closed, which stops the decompressor.
+    private Throwable failure; // The exception or error that stopped the decompressor, if any.
+
+    private byte[] current; // The chunk being read, or null before the first chunk.
+    private int currentPosition; // The index of the next unread byte in the current chunk.
+    private int currentLength; // The number of bytes in the current chunk.
+
+    /**
+     * Checks whether a trace file is compressed by looking for the magic bytes of the compression formats at its start.
+     * @param fileName The file name of the trace.
+     * @return Whether the file is gzip compressed.
+     * @throws IOException If the file could not be read or is compressed in a format that cannot be decompressed.
+     */
+    public static boolean isCompressed(String fileName) throws IOException {
+        byte[] magic;
+        try (InputStream stream = new FileInputStream(fileName)) {
+            magic = stream.readNBytes(XZ_MAGIC.length);
+        }
+        if (startsWith(magic, ZSTD_MAGIC) || startsWith(magic, XZ_MAGIC)) {
+            String format = startsWith(magic, ZSTD_MAGIC) ? "zstd" : "xz";
+            throw new IOException("The trace '" + fileName + "' is compressed with " + format + ", which the simulator cannot decompress."
+                    + " Decompress it first, or recompress it with gzip.");
+        }
+        return startsWith(magic, GZIP_MAGIC);
+    }
+
+    /**
+     * Opens a trace file for reading, decompressing it in the background if it is gzip compressed.
+     * @param fileName The file name of the trace.
+     * @return A stream of the trace's uncompressed bytes.
+     * @throws IOException If the file could not be opened or is compressed in a format that cannot be decompressed.
+     */
+    public static InputStream open(String fileName) throws IOException {
+        if (isCompressed(fileName)) {
+            return new DecompressingInputStream(new GZIPInputStream(new FileInputStream(fileName), CHUNK_SIZE));
+        }
+        return new FileInputStream(fileName);
+    }
+
+    /**
+     * Checks whether some bytes start with a magic number.
+     * @param bytes The bytes to check.
+     * @param magic The magic bytes.
+     * @return Whether the bytes start with the magic bytes.
+     */
+    private static boolean startsWith(byte[] bytes, byte[] magic) {
+        if (bytes.length < magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if (bytes[i] != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Starts decompressing a stream on a background thread.
+     * @param source The decompressing stream.
+     */
+    public DecompressingInputStream(InputStream source) {
+        this.source = source;
+        decompressor = new Thread(this::decompress, "trace-decompressor");
+        decompressor.setDaemon(true);
+        decompressor.start();
+    }
+
+    /**
+     * Fills chunks with decompressed bytes until the end of the source, waiting whenever every chunk is in use.
+     * Runs on the background thread.
+     */
+    private void decompress() {
+        try {
+            while (true) {
+                byte[] chunk;
+                synchronized (this) {
+                    while (produced - consumed == CHUNK_COUNT && !closed) {
+                        wait();
+                    }
+                    if (closed) {
+                        return;
+                    }
+                    chunk = chunks[(int) (produced % CHUNK_COUNT)];
+                }
+                // Only a short chunk ends the stream, as readNBytes fills the chunk unless the source ends.
+                int length = source.readNBytes(chunk, 0, CHUNK_SIZE);
+                synchronized (this) {
+                    if (length > 0) {
+                        lengths[(int) (produced % CHUNK_COUNT)] = length;
+                        produced++;
+                    }
+                    finished = length < CHUNK_SIZE;
+                    notifyAll();
+                    if (finished) {
+                        return;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            // Closed while waiting for a free chunk.
+        } catch (Throwable e) {
+            // Any failure, not only an IOException, must wake the reader or it waits for a chunk forever.
+            synchronized (this) {
+                failure = e;
+                finished = true;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Reads a single decompressed byte.
+     * @return The byte, or -1 at the end of the trace.
+     * @throws IOException If the trace could not be decompressed.
+     */
+    @Override
+    public int read() throws IOException {
+        if (currentPosition == currentLength && !nextChunk()) {
+            return -1;
+        }
+        return current[currentPosition++] & 0xFF;
+    }
+
+    /**
+     * Reads decompressed bytes, copying at most the rest of the current chunk.
+     * @param bytes The array to read into.
+     * @param offset The index of the first byte to read into.
+     * @param length The maximum number of bytes to read.
+     * @return The number of bytes read, or -1 at the end of the trace.
+     * @throws IOException If the trace could not be decompressed.
+     */
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (currentPosition == currentLength && !nextChunk()) {
+            return -1;
+        }
+        int count = Math.min(length, currentLength - currentPosition);
+        System.arraycopy(current, currentPosition, bytes, offset, count);
+        currentPosition += count;
+        return count;
+    }
+
+    /**
+     * Releases the current chunk to the decompressor and waits for the next one.
+     * @return Whether there was another chunk (false at the end of the trace).
+     * @throws IOException If the trace could not be decompressed or the reader was interrupted.
+     */
+    private synchronized boolean nextChunk() throws IOException {
+        if (current != null) {
+            current = null;
+            consumed++;
+            notifyAll();
+        }
+        while (consumed == produced) {
+            if (finished) {
+                if (failure != null) {
+                    throw new IOException("Could not decompress the trace: " + failure.getMessage(), failure);
+                }
+                return false;
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while waiting for the trace to be decompressed.");
+            }
+        }
+        int index = (int) (consumed % CHUNK_COUNT);
+        current = chunks[index];
+        currentPosition = 0;
+        currentLength = lengths[index];
+        return true;
+    }
+
+    /**
+     * Stops the decompressor and closes the compressed file.
+     * @throws IOException If the file could not be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            decompressor.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        source.close();
+    }
+}
@@ -0,0 +1,515 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Lookup and replacement structures for fully associative caches, which hold every line in a single set.
+ * Scanning that set costs time proportional to the number of lines, so instead:
+ * a hash index maps each valid tag to its line,
+ * LRU order is kept in an intrusive doubly linked list threaded through the lines,
+ * LFU victims come from a tournament tree over the line frequencies,
+ * RR victims cycle through the lines in fill order,
+ * RRIP victims come from a tournament tree over the predictions, which are aged all at once by a shared offset,
+ * and ARC keeps T1, T2 and the ghost lists B1 and B2 as intrusive lists, with the ghost tags in a hash index.
+ * Lookup, LRU / RR / ARC updates and eviction are constant time. LFU and RRIP updates are logarithmic in the worst case,
+ * which keeps the original tie breaks of evicting the first line with the lowest frequency or most distant prediction.
+ * Other policies keep their own metadata, treating the cache as set 0, and only the lookup goes through the index.
+ * Lines invalidated by an inclusive hierarchy are kept on a free list and refilled before any line is evicted.
+ */
+class FullyAssociativeIndex {
+    private static final int NONE = -1; // Marks a missing line or list.
+    private static final int RECENT = 0; // The list of the LRU order, or T1 for ARC.
+    private static final int FREQUENT = 1; // For ARC, T2.
+    private static final int RECENT_GHOSTS = 2; // For ARC, B1, the ghosts of T1.
+    private static final int FREQUENT_GHOSTS = 3; // For ARC, B2, the ghosts of T2.
+
+    private final ReplacementPolicy replacementPolicy; // The replacement / eviction policy of the cache.
+    private final ReplacementPolicy.Kind kind; // The kind of replacement policy, deciding which structures are used.
+    private final int lineCount; // The number of lines in the cache.
+    private final LongIntMap lineOfTag; // Maps the tag of each valid line to the index of the line.
+    private int filledLines; // The number of lines filled so far. Lines are filled in index order.
+    private int[] freeLines; // The lines invalidated since they were filled, allocated on the first invalidation.
+    private int freeCount; // The number of lines on the free list.
+
+    private int[] newer; // For LRU and ARC, the next more recently used node of each node's list, or NONE for the most recent.
+    private int[] older; // For LRU and ARC, the next less recently used node of each node's list, or NONE for the least recent.
+    private int[] mostRecent; // For LRU and ARC, the most recently used node of each list.
+    private int[] leastRecent; // For LRU and ARC, the least recently used node of each list.
+    private int[] listSizes; // For LRU and ARC, the number of nodes in each list.
+
+    private int[] frequencies; // For LFU, the use frequency of each line.
+    private int[] tournament; // For LFU and RRIP, a tournament tree whose nodes hold the line to evict first below them.
+    private int leafOffset; // For LFU and RRIP, the index of the first leaf in the tournament tree.
+
+    private int nextVictim; // For RR, the line to evict next.
+
+    private long[] predictionKeys; // For RRIP, the prediction of each line less the ageing offset.
+    private long ageing; // For RRIP, the total ageing of every line, added to the keys to give the predictions.
+
+    private byte[] lists; // For ARC, the list each node is in. Nodes below lineCount are lines, and the rest ghosts.
+    private long[] ghostTags; // For ARC, the tag remembered by each ghost, indexed by node less lineCount.
+    private LongIntMap ghostOfTag; // For ARC, maps the tag of each ghost to its node.
+    private int[] freeGhosts; // For ARC, the ghost nodes not in B1 or B2.
+    private int freeGhostCount; // For ARC, the number of free ghost nodes.
+    private int target; // For ARC, the target size p of T1.
+
+    /**
+     * Creates the index for an empty fully associative cache.
+     * @param lineCount The number of lines in the cache.
+     * @param replacementPolicy The replacement / eviction policy of the cache.
+     */
+    FullyAssociativeIndex(int lineCount, ReplacementPolicy replacementPolicy) {
+        this.lineCount = lineCount;
+        this.replacementPolicy = replacementPolicy;
+        kind = replacementPolicy.kind;
+        lineOfTag = new LongIntMap(lineCount, NONE);
+        switch (kind) {
+            case LRU:
+                createLists(lineCount, 1);
+                break;
+            case ARC:
+                // Each ghost list holds at most one cache's worth of tags.
+                createLists(lineCount * 3, 4);
+                lists = new byte[lineCount * 3];
+                ghostTags = new long[lineCount * 2];
+                ghostOfTag = new LongIntMap(lineCount * 2, NONE);
+                freeGhosts = new int[lineCount * 2];
+                for (int ghost = 0; ghost < freeGhosts.length; ghost++) {
+                    freeGhosts[ghost] = lineCount * 3 - 1 - ghost;
+                }
+                freeGhostCount = freeGhosts.length;
+                break;
+            case LFU:
+                frequencies = new int[lineCount];
+                createTournament();
+                break;
+            case RRIP:
+                predictionKeys = new long[lineCount];
+                createTournament();
+                break;
+            default: // Nothing to set up for RR or policies keeping their own metadata.
+        }
+    }
+
+    /**
+     * Allocates empty intrusive lists.
+     * @param nodeCount The number of nodes the lists are threaded through.
+     * @param listCount The number of lists.
+     */
+    private void createLists(int nodeCount, int listCount) {
+        newer = new int[nodeCount];
+        older = new int[nodeCount];
+        mostRecent = new int[listCount];
+        leastRecent = new int[listCount];
+        listSizes = new int[listCount];
+        Arrays.fill(mostRecent, NONE);
+        Arrays.fill(leastRecent, NONE);
+    }
+
+    /**
+     * Allocates the tournament tree with every line as a leaf.
+     */
+    private void createTournament() {
+        leafOffset = Integer.highestOneBit(Math.max(1, lineCount - 1)) << 1;
+        tournament = new int[leafOffset * 2];
+        for (int leaf = 0; leaf < leafOffset; leaf++) {
+            tournament[leafOffset + leaf] = leaf < lineCount ? leaf : NONE;
+        }
+        for (int node = leafOffset - 1; node > 0; node--) {
+            tournament[node] = winner(tournament[node * 2], tournament[node * 2 + 1]);
+        }
+    }
+
+    /**
+     * Finds the line holding a tag.
+     * @param tag The tag to look for.
+     * @return The index of the line, or -1 if no valid line holds the tag.
+     */
+    int find(long tag) {
+        return lineOfTag.get(tag);
+    }
+
+    /**
+     * Refreshes a line after a hit according to the replacement policy.
+     * @param line The index of the line that was hit.
+     */
+    void hit(int line) {
+        switch (kind) {
+            case LRU:
+                // Move the line to the most recent end of the list.
+                if (line != mostRecent[RECENT]) {
+                    unlink(line, RECENT);
+                    linkMostRecent(line, RECENT);
+                }
+                break;
+            case ARC:
+                // A block used again moves to (or stays at the most recent end of) T2.
+                if (line != mostRecent[FREQUENT]) {
+                    unlink(line, lists[line]);
+                    linkMostRecent(line, FREQUENT);
+                }
+                break;
+            case LFU:
+                // Increment the frequency. The line can only lose matches, so only nodes it currently wins need replaying.
+                frequencies[line]++;
+                replayWins(line);
+                break;
+            case RRIP:
+                // Predict a near re-reference, which can likewise only lose matches.
+                predictionKeys[line] = -ageing;
+                replayWins(line);
+                break;
+            case RR:
+                break; // Nothing to do for RR.
+            default:
+                replacementPolicy.hit(0, 0, line);
+        }
+    }
+
+    /**
+     * Chooses a line for a new block, filling lines in order until the cache is full and then evicting.
+     * @param tag The tag of the new block.
+     * @param tags The tag of each line, used to remove the tag of an evicted line from the index.
+     * @return The index of the line to place the block in.
+     */
+    int fill(long tag, long[] tags) {
+        // ARC first looks the tag up in the ghost lists, which decides both the victim and the list of the new block.
+        int ghostList = kind == ReplacementPolicy.Kind.ARC ? adapt(tag) : NONE;
+
+        int line;
+        if (freeCount > 0 || filledLines < lineCount) {
+            line = freeCount > 0 ? freeLines[--freeCount] : filledLines++;
+            if (kind == ReplacementPolicy.Kind.ARC && ghostList == NONE) {
+                // The cache is not full, so nothing needs to be evicted, only the ghosts trimmed.
+                int recentGhosts = listSizes[RECENT_GHOSTS];
+                if (listSizes[RECENT] + recentGhosts >= lineCount && recentGhosts > 0) {
+                    removeGhost(leastRecent[RECENT_GHOSTS]);
+                } else if (arcTotal() >= 2 * lineCount) {
+                    removeGhost(leastRecent[FREQUENT_GHOSTS]);
+                }
+            }
+        } else {
+            line = victim(tag, tags, ghostList);
+            lineOfTag.remove(tags[line]);
+            if (kind == ReplacementPolicy.Kind.LRU) {
+                unlink(line, RECENT);
+            }
+        }
+        lineOfTag.put(tag, line);
+
+        switch (kind) {
+            case LRU:
+                linkMostRecent(line, RECENT);
+                break;
+            case ARC:
+                // A block remembered by a ghost list has been used before, so it goes straight to T2.
+                linkMostRecent(line, ghostList != NONE ? FREQUENT : RECENT);
+                break;
+            case LFU:
+                // Reset the frequency to 1 and replay every match on the way to the root.
+                frequencies[line] = 1;
+                replayAll(line);
+                break;
+            case RRIP:
+                predictionKeys[line] = ((RripPolicy) replacementPolicy).insertionPrediction(0) - ageing;
+                replayAll(line);
+                break;
+            case RR:
+                break; // Nothing to do for RR.
+            default:
+                replacementPolicy.fill(0, 0, line, tag);
+        }
+        return line;
+    }
+
+    /**
+     * Removes an invalidated line from the index and the replacement structures, keeping it free for the next fill.
+     * LFU, RR and RRIP need no update, as their victims are only chosen once the free lines are refilled.
+     * @param line The index of the invalidated line.
+     * @param tag The tag the line held.
+     */
+    void invalidate(int line, long tag) {
+        lineOfTag.remove(tag);
+        if (freeLines == null) {
+            freeLines = new int[lineCount];
+        }
+        freeLines[freeCount++] = line;
+        switch (kind) {
+            case LRU:
+                unlink(line, RECENT);
+                break;
+            case ARC:
+                // The line leaves T1 or T2 without becoming a ghost, as it was not chosen by the policy.
+                unlink(line, lists[line]);
+                break;
+            case LFU:
+            case RR:
+            case RRIP:
+                break; // Nothing to do for LFU, RR or RRIP.
+            default:
+                replacementPolicy.invalidate(0, 0, line);
+        }
+    }
+
+    /**
+     * Chooses the line of the full cache to evict according to the replacement policy.
+     * @param tag The tag of the block about to be filled.
+     * @param tags The tag of each line, remembered by ARC's ghost lists.
+     * @param ghostList For ARC, the ghost list the tag was found in, or NONE.
+     * @return The index of the line to evict.
+     */
+    private int victim(long tag, long[] tags, int ghostList) {
+        switch (kind) {
+            case LRU:
+                return leastRecent[RECENT];
+            case LFU:
+                return tournament[1];
+            case RR:
+                int line = nextVictim;
+                nextVictim = line + 1 == lineCount ? 0 : line + 1;
+                return line;
+            case RRIP:
+                // Age every line at once until the line with the most distant prediction predicts a distant re-reference.
+                int victim = tournament[1];
+                long prediction = predictionKeys[victim] + ageing;
+                if (prediction < RripPolicy.DISTANT) {
+                    ageing += RripPolicy.DISTANT - prediction;
+                }
+                return victim;
+            case ARC:
+                return arcVictim(tags, ghostList);
+            default:
+                return replacementPolicy.victim(0, 0, lineCount, tag);
+        }
+    }
+
+    /**
+     * Chooses ARC's victim, evicting the least recently used line of T1 or T2 according to the target size of T1
+     * and remembering its tag as a ghost.
+     * @param tags The tag of each line.
+     * @param ghostList The ghost list the tag of the new block was found in, or NONE.
+     * @return The index of the line to evict.
+     */
+    private int arcVictim(long[] tags, int ghostList) {
+        if (ghostList == NONE) {
+            // A block in no list. Keep T1 and B1 within one cache's worth of tags, and all four lists within two.
+            int recentGhosts = listSizes[RECENT_GHOSTS];
+            if (listSizes[RECENT] + recentGhosts >= lineCount) {
+                if (recentGhosts == 0) {
+                    // T1 fills the cache, so evict its least recently used line without remembering it.
+                    int line = leastRecent[RECENT];
+                    unlink(line, RECENT);
+                    return line;
+                }
+                removeGhost(leastRecent[RECENT_GHOSTS]);
+            } else if (arcTotal() >= 2 * lineCount) {
+                removeGhost(leastRecent[FREQUENT_GHOSTS]);
+            }
+        }
+
+        int recent = listSizes[RECENT];
+        boolean fromRecent = recent > 0
+                && (recent > target || (ghostList == FREQUENT_GHOSTS && recent == target) || listSizes[FREQUENT] == 0);
+        int list = fromRecent ? RECENT : FREQUENT;
+        int line = leastRecent[list];
+        unlink(line, list);
+        addGhost(fromRecent ? RECENT_GHOSTS : FREQUENT_GHOSTS, tags[line]);
+        return line;
+    }
+
+    /**
+     * Looks for a tag in ARC's ghost lists, adapting the target size of T1 and removing the ghost if found.
+     * @param tag The tag of the block being filled.
+     * @return The ghost list the tag was found in, or NONE.
+     */
+    private int adapt(long tag) {
+        int ghost = ghostOfTag.get(tag);
+        if (ghost == NONE) {
+            return NONE;
+        }
+        int list = lists[ghost];
+        int recentGhosts = listSizes[RECENT_GHOSTS];
+        int frequentGhosts = listSizes[FREQUENT_GHOSTS];
+        if (list == RECENT_GHOSTS) {
+            target = Math.min(lineCount, target + Math.max(1, frequentGhosts / recentGhosts));
+        } else {
+            target = Math.max(0, target - Math.max(1, recentGhosts / frequentGhosts));
+        }
+        removeGhost(ghost);
+        return list;
+    }
+
+    /**
+     * Gets the number of lines and ghosts in all four of ARC's lists.
+     * @return The total size of T1, T2, B1 and B2.
+     */
+    private int arcTotal() {
+        return listSizes[RECENT] + listSizes[FREQUENT] + listSizes[RECENT_GHOSTS] + listSizes[FREQUENT_GHOSTS];
+    }
+
+    /**
+     * Adds a tag to the most recent end of an ARC ghost list, dropping its least recent ghost if it is full.
+     * @param list The ghost list.
+     * @param tag The tag to remember.
+     */
+    private void addGhost(int list, long tag) {
+        if (listSizes[list] == lineCount) {
+            removeGhost(leastRecent[list]);
+        }
+        int ghost = freeGhosts[--freeGhostCount];
+        ghostTags[ghost - lineCount] = tag;
+        ghostOfTag.put(tag, ghost);
+        linkMostRecent(ghost, list);
+    }
+
+    /**
+     * Removes a ghost from its ARC ghost list and the ghost index.
+     * @param ghost The node of the ghost.
+     */
+    private void removeGhost(int ghost) {
+        unlink(ghost, lists[ghost]);
+        ghostOfTag.remove(ghostTags[ghost - lineCount]);
+        freeGhosts[freeGhostCount++] = ghost;
+    }
+
+    /**
+     * Replays the matches of the tournament tree that a line currently wins, after the line became less likely to be evicted.
+     * @param line The index of the line.
+     */
+    private void replayWins(int line) {
+        for (int node = (leafOffset + line) >>> 1; node > 0 && tournament[node] == line; node >>>= 1) {
+            tournament[node] = winner(tournament[node * 2], tournament[node * 2 + 1]);
+        }
+    }
+
+    /**
+     * Replays every match of the tournament tree on the way from a line to the root.
+     * @param line The index of the line.
+     */
+    private void replayAll(int line) {
+        for (int node = (leafOffset + line) >>> 1; node > 0; node >>>= 1) {
+            tournament[node] = winner(tournament[node * 2], tournament[node * 2 + 1]);
+        }
+    }
+
+    /**
+     * Decides a match of the tournament tree.
+     * @param left The line from the left subtree, or NONE.
+     * @param right The line from the right subtree, or NONE.
+     * @return For LFU the line with the lower frequency, and for RRIP the line with the more distant prediction,
+     * preferring the left (lower index) line on ties.
+     */
+    private int winner(int left, int right) {
+        if (left == NONE) {
+            return right;
+        } else if (right == NONE) {
+            return left;
+        }
+        if (kind == ReplacementPolicy.Kind.RRIP) {
+            return predictionKeys[right] > predictionKeys[left] ? right : left;
+        }
+        return frequencies[right] < frequencies[left] ? right : left;
+    }
+
+    /**
+     * Removes a node from a list.
+     * @param node The index of the node.
+     * @param list The list the node is in.
+     */
+    private void unlink(int node, int list) {
+        int newerNode = newer[node];
+        int olderNode = older[node];
+        if (newerNode == NONE) {
+            mostRecent[list] = olderNode;
+        } else {
+            older[newerNode] = olderNode;
+        }
+        if (olderNode == NONE) {
+            leastRecent[list] = newerNode;
+        } else {
+            newer[olderNode] = newerNode;
+        }
+        listSizes[list]--;
+    }
+
+    /**
+     * Adds a node to the most recent end of a list.
+     * @param node The index of the node.
+     * @param list The list to add the node to.
+     */
+    private void linkMostRecent(int node, int list) {
+        int head = mostRecent[list];
+        newer[node] = NONE;
+        older[node] = head;
+        if (head == NONE) {
+            leastRecent[list] = node;
+        } else {
+            newer[head] = node;
+        }
+        mostRecent[list] = node;
+        listSizes[list]++;
+        if (lists != null) {
+            lists[node] = (byte) list;
+        }
+    }
+
+    /**
+     * Writes the index and the replacement structures of its policy to a checkpoint.
+     * Policies without structures here are saved with the cache, which shares them, as is BRRIP's generator.
+     * @param output The checkpoint being written.
+     * @throws IOException If the checkpoint could not be written.
+     */
+    void writeState(CheckpointOutput output) throws IOException {
+        lineOfTag.writeState(output);
+        output.writeInt(filledLines);
+        output.writeInts(freeLines);
+        output.writeInt(freeCount);
+        output.writeInts(newer);
+        output.writeInts(older);
+        output.writeInts(mostRecent);
+        output.writeInts(leastRecent);
+        output.writeInts(listSizes);
+        output.writeInts(frequencies);
+        output.writeInts(tournament);
+        output.writeInt(nextVictim);
+        output.writeLongs(predictionKeys);
+        output.writeLong(ageing);
+        output.writeBytes(lists);
+        output.writeLongs(ghostTags);
+        if (ghostOfTag != null) {
+            ghostOfTag.writeState(output);
+        }
+        output.writeInts(freeGhosts);
+        output.writeInt(freeGhostCount);
+        output.writeInt(target);
+    }
+
+    /**
+     * Restores the index and the replacement structures of its policy from a checkpoint written by writeState.
+     * @param input The checkpoint being read.
+     * @throws IOException If the checkpoint could not be read or does not match the cache.
+     */
+    void readState(CheckpointInput input) throws IOException {
+        lineOfTag.readState(input);
+        filledLines = input.readInt();
+        freeLines = input.readInts();
+        freeCount = input.readInt();
+        input.readInts(newer);
+        input.readInts(older);
+        input.readInts(mostRecent);
+        input.readInts(leastRecent);
+        input.readInts(listSizes);
+        input.readInts(frequencies);
+        input.readInts(tournament);
+        nextVictim = input.readInt();
+        input.readLongs(predictionKeys);
+        ageing = input.readLong();
+        input.readBytes(lists);
+        input.readLongs(ghostTags);
+        if (ghostOfTag != null) {
+            ghostOfTag.readState(input);
+        }
+        input.readInts(freeGhosts);
+        freeGhostCount = input.readInt();
+        target = input.readInt();
+    }
+}
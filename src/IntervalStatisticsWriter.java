@@ -0,0 +1,179 @@
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.annotation.JSONField;
+
+/**
+ * Writes the hits and misses of each cache level over fixed windows of trace operations, as a time series of program phases.
+ * Each record holds the change in the counters since the previous record, taken from snapshots of the counters,
+ * so memory use stays constant however long the trace is.
+ *
+ * Records are written as newline delimited JSON, one object per interval, or in a compact binary form.
+ * Binary format: an 8 byte header, the cache names, then one record per interval. All multi-byte values are little-endian.
+ * Header: the magic bytes "CSIV", a version byte and three reserved bytes.
+ * Names: the number of levels (4 bytes), then each name as its UTF-8 length (2 bytes) and bytes.
+ * Records: the index of the first operation after the interval (8 bytes), then the hits and misses of each level (8 bytes each).
+ */
+public class IntervalStatisticsWriter implements AutoCloseable {
+    /**
+     * The statistics of one interval, written as a line of JSON.
+     */
+    public static class IntervalRecord {
+        @JSONField(name = "interval")
+        public long interval; // The index of the interval, starting at 0.
+
+        @JSONField(name = "start")
+        public long start; // The index of the first trace operation in the interval.
+
+        @JSONField(name = "end")
+        public long end; // The index one past the last trace operation in the interval.
+
+        @JSONField(name = "caches")
+        public List<LevelRecord> caches = new ArrayList<>(); // The statistics of each cache level in the interval.
+
+        @JSONField(name = "main_memory_accesses")
+        public long mainMemoryAccesses; // The number of main memory accesses in the interval.
+    }
+
+    /**
+     * The statistics of one cache level in an interval.
+     */
+    public static class LevelRecord {
+        @JSONField(name = "name")
+        public String name; // The name of the cache.
+
+        @JSONField(name = "hits")
+        public long hits; // The number of hits in the interval.
+
+        @JSONField(name = "misses")
+        public long misses; // The number of misses in the interval.
+
+        @JSONField(name = "miss_rate")
+        public double missRate; // The fraction of the level's accesses in the interval that missed.
+    }
+
+    static final byte[] MAGIC = { 'C', 'S', 'I', 'V' }; // The magic bytes at the start of every binary interval file.
+    static final int VERSION = 1; // The version of the binary format written.
+    static final int HEADER_SIZE = 8; // The size of the header in bytes.
+
+    private final OutputStream output; // The stream the records are written to.
+    private final boolean binary; // Whether records are written in the binary form rather than as JSON.
+    private final Cache[] levels; // The caches whose counters are recorded, indexed by level.
+    private final long[] previousHits; // The hits of each level when the previous record was written.
+    private final long[] previousMisses; // The misses of each level when the previous record was written.
+    private final long[] previousAccesses; // The accesses of each level when the previous record was written.
+    private final IntervalRecord record = new IntervalRecord(); // The JSON record, reused for every interval.
+    private final ByteBuffer binaryRecord; // The binary record, reused for every interval.
+    private long previousEnd; // The index one past the last operation of the previous record.
+
+    /**
+     * Creates an interval statistics file and writes its header.
+     * @param fileName The file name of the interval statistics.
+     * @param binary Whether to write records in the binary form rather than as JSON.
+     * @param caches The caches to record, from the highest level to the lowest.
+     * @throws IOException If the file could not be created.
+     */
+    public IntervalStatisticsWriter(String fileName, boolean binary, List<Cache> caches) throws IOException {
+        this(new FileOutputStream(fileName), binary, caches);
+    }
+
+    /**
+     * Creates an interval statistics writer on an output stream and writes the header.
+     * @param output The stream to write the records to.
+     * @param binary Whether to write records in the binary form rather than as JSON.
+     * @param caches The caches to record, from the highest level to the lowest.
+     * @throws IOException If the header could not be written.
+     */
+    public IntervalStatisticsWriter(OutputStream output, boolean binary, List<Cache> caches) throws IOException {
+        this.output = new BufferedOutputStream(output);
+        this.binary = binary;
+        levels = caches.toArray(new Cache[0]);
+        previousHits = new long[levels.length];
+        previousMisses = new long[levels.length];
+        previousAccesses = new long[levels.length];
+        for (int level = 0; level < levels.length; level++) {
+            previousHits[level] = levels[level].hits;
+            previousMisses[level] = levels[level].misses;
+            previousAccesses[level] = levels[level].getAccesses();
+            LevelRecord levelRecord = new LevelRecord();
+            levelRecord.name = levels[level].name;
+            record.caches.add(levelRecord);
+        }
+        binaryRecord = ByteBuffer.allocate(Long.BYTES * (1 + 2 * levels.length)).order(ByteOrder.LITTLE_ENDIAN);
+
+        if (binary) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.put(MAGIC).put((byte) VERSION).put(new byte[3]).putInt(levels.length);
+            this.output.write(header.array());
+            for (Cache cache : levels) {
+                byte[] name = String.valueOf(cache.name).getBytes(StandardCharsets.UTF_8);
+                this.output.write(name.length & 0xFF);
+                this.output.write(name.length >>> 8);
+                this.output.write(name);
+            }
+        }
+    }
+
+    /**
+     * Writes the change in the counters since the previous record, unless no operations were simulated since.
+     * Each record is flushed straight away so the file can be followed while a long simulation runs.
+     * @param operations The number of trace operations simulated so far.
+     * @throws IOException If the record could not be written.
+     */
+    public void record(long operations) throws IOException {
+        if (operations == previousEnd) {
+            return;
+        }
+        if (binary) {
+            binaryRecord.clear();
+            binaryRecord.putLong(operations);
+        } else {
+            record.start = previousEnd;
+            record.end = operations;
+        }
+        for (int level = 0; level < levels.length; level++) {
+            long hits = levels[level].hits - previousHits[level];
+            long misses = levels[level].misses - previousMisses[level];
+            long accesses = levels[level].getAccesses() - previousAccesses[level];
+            previousHits[level] = levels[level].hits;
+            previousMisses[level] = levels[level].misses;
+            previousAccesses[level] = levels[level].getAccesses();
+            if (binary) {
+                binaryRecord.putLong(hits).putLong(misses);
+            } else {
+                LevelRecord levelRecord = record.caches.get(level);
+                levelRecord.hits = hits;
+                levelRecord.misses = misses;
+                levelRecord.missRate = accesses == 0 ? 0.0 : (double) misses / accesses;
+            }
+        }
+
+        if (binary) {
+            output.write(binaryRecord.array());
+        } else {
+            record.mainMemoryAccesses = record.caches.get(levels.length - 1).misses;
+            output.write(JSON.toJSONString(record).getBytes(StandardCharsets.UTF_8));
+            output.write('\n');
+            record.interval++;
+        }
+        output.flush();
+        previousEnd = operations;
+    }
+
+    /**
+     * Flushes the records written and closes the file.
+     * @throws IOException If the file could not be written.
+     */
+    @Override
+    public void close() throws IOException {
+        output.close();
+    }
+}
@@ -0,0 +1,53 @@
+import java.io.IOException;
+
+/**
+ * Least frequently used replacement, taking the first line of the set on ties.
+ * The frequency of a line counts its uses since it was filled.
+ */
+final class LfuPolicy extends ReplacementPolicy {
+    private final int[] frequencies; // The use frequency of each line.
+
+    /**
+     * Creates the policy with no lines used.
+     * @param numberOfSets The number of sets in the cache.
+     * @param setSize The number of lines per set.
+     */
+    LfuPolicy(int numberOfSets, int setSize) {
+        super(Kind.LFU);
+        frequencies = new int[numberOfSets * setSize];
+    }
+
+    @Override
+    public void hit(int setNumber, int firstLine, int line) {
+        // Increment the frequency for LFU.
+        frequencies[line]++;
+    }
+
+    @Override
+    public int victim(int setNumber, int firstLine, int endLine, long tag) {
+        // Evict the least frequently used line, taking the first in the set on ties.
+        int leastFrequentlyUsed = firstLine;
+        for (int line = firstLine + 1; line < endLine; line++) {
+            if (frequencies[line] < frequencies[leastFrequentlyUsed]) {
+                leastFrequentlyUsed = line;
+            }
+        }
+        return leastFrequentlyUsed;
+    }
+
+    @Override
+    public void fill(int setNumber, int firstLine, int line, long tag) {
+        // Reset the frequency of the line to 1.
+        frequencies[line] = 1;
+    }
+
+    @Override
+    public void writeState(CheckpointOutput output) throws IOException {
+        output.writeInts(frequencies);
+    }
+
+    @Override
+    public void readState(CheckpointInput input) throws IOException {
+        input.readInts(frequencies);
+    }
+}
@@ -0,0 +1,201 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A hash map from long keys to int values stored in primitive arrays using open addressing with linear probing.
+ * Avoids the boxing and per entry objects of HashMap, so lookups and updates allocate nothing unless the map grows.
+ */
+public class LongIntMap {
+    private static final long EMPTY = 0; // Key marking an empty slot. The real key 0 is stored separately.
+    private static final float LOAD_FACTOR = 0.5f; // The fraction of slots that can be used before the map grows.
+
+    private long[] keys; // The key of each slot, or EMPTY.
+    private int[] values; // The value of each slot.
+    private int mask; // The number of slots minus one. The number of slots is a power of two.
+    private int shift; // The right shift taking a mixed hash to a slot index.
+    private int size; // The number of entries, excluding the zero key.
+    private boolean hasZeroKey; // Whether the key 0 is present.
+    private int zeroKeyValue; // The value of the key 0 if present.
+    private final int missingValue; // The value returned by get for keys that are not present.
+
+    /**
+     * Creates a map sized to hold a number of entries without growing.
+     * @param expectedSize The number of entries expected.
+     * @param missingValue The value returned by get for keys that are not present.
+     */
+    public LongIntMap(int expectedSize, int missingValue) {
+        this.missingValue = missingValue;
+        allocate(Math.max(4, Integer.highestOneBit((int) Math.min(Integer.MAX_VALUE / 2, expectedSize / LOAD_FACTOR) - 1) << 1));
+    }
+
+    /**
+     * Allocates empty slot arrays.
+     * @param capacity The number of slots. Must be a power of two.
+     */
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        shift = Long.SIZE - Integer.numberOfTrailingZeros(capacity);
+    }
+
+    /**
+     * Gets the slot a key hashes to, spreading nearby keys (such as consecutive tags) across the table.
+     * @param key The key.
+     * @return The index of the slot to start probing from.
+     */
+    private int slot(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    /**
+     * Gets the value of a key.
+     * @param key The key.
+     * @return The value of the key, or the missing value if the key is not present.
+     */
+    public int get(long key) {
+        if (key == EMPTY) {
+            return hasZeroKey ? zeroKeyValue : missingValue;
+        }
+        for (int i = slot(key);; i = (i + 1) & mask) {
+            long current = keys[i];
+            if (current == key) {
+                return values[i];
+            } else if (current == EMPTY) {
+                return missingValue;
+            }
+        }
+    }
+
+    /**
+     * Sets the value of a key, adding it if it is not present.
+     * @param key The key.
+     * @param value The value.
+     */
+    public void put(long key, int value) {
+        if (key == EMPTY) {
+            hasZeroKey = true;
+            zeroKeyValue = value;
+            return;
+        }
+        int i = slot(key);
+        while (keys[i] != EMPTY) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > (mask + 1) * LOAD_FACTOR) {
+            grow();
+        }
+    }
+
+    /**
+     * Removes a key.
+     * Later entries of the probe sequence are shifted back into the gap so lookups never need tombstones.
+     * @param key The key.
+     * @return The value the key had, or the missing value if it was not present.
+     */
+    public int remove(long key) {
+        if (key == EMPTY) {
+            int value = hasZeroKey ? zeroKeyValue : missingValue;
+            hasZeroKey = false;
+            return value;
+        }
+        int i = slot(key);
+        while (keys[i] != key) {
+            if (keys[i] == EMPTY) {
+                return missingValue;
+            }
+            i = (i + 1) & mask;
+        }
+        int value = values[i];
+        size--;
+
+        // Shift back entries whose probe sequence passes through the freed slot.
+        int gap = i;
+        for (int j = (gap + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+            int home = slot(keys[j]);
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                gap = j;
+            }
+        }
+        keys[gap] = EMPTY;
+        return value;
+    }
+
+    /**
+     * Gets the number of entries in the map.
+     * @return The number of entries.
+     */
+    public int size() {
+        return size + (hasZeroKey ? 1 : 0);
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+        hasZeroKey = false;
+    }
+
+    /**
+     * Doubles the number of slots and reinserts every entry.
+     */
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(keys.length * 2);
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != EMPTY) {
+                int i = slot(oldKeys[j]);
+                while (keys[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    /**
+     * Writes the entries of the map to a checkpoint as its slot arrays.
+     * @param output The checkpoint being written.
+     * @throws IOException If the checkpoint could not be written.
+     */
+    public void writeState(CheckpointOutput output) throws IOException {
+        output.writeLongs(keys);
+        output.writeInts(values);
+        output.writeInt(size);
+        output.writeBoolean(hasZeroKey);
+        output.writeInt(zeroKeyValue);
+    }
+
+    /**
+     * Replaces the entries of the map with those written to a checkpoint by writeState.
+     * @param input The checkpoint being read.
+     * @throws IOException If the checkpoint could not be read or holds an invalid map.
+     */
+    public void readState(CheckpointInput input) throws IOException {
+        long[] readKeys = input.readLongs();
+        int[] readValues = input.readInts();
+        if (readKeys == null || readValues == null || readKeys.length != readValues.length
+                || readKeys.length < 4 || Integer.bitCount(readKeys.length) != 1) {
+            throw new IOException("The checkpoint holds an invalid map.");
+        }
+        keys = readKeys;
+        values = readValues;
+        mask = keys.length - 1;
+        shift = Long.SIZE - Integer.numberOfTrailingZeros(keys.length);
+        size = input.readInt();
+        hasZeroKey = input.readBoolean();
+        zeroKeyValue = input.readInt();
+    }
+}
@@ -0,0 +1,57 @@
+import java.io.IOException;
+
+/**
+ * Least recently used replacement.
+ * Each set has a use clock incremented on every use of one of its lines, and each line records the clock of its last use,
+ * so the least recently used line is the one with the lowest recorded clock.
+ */
+final class LruPolicy extends ReplacementPolicy {
+    private final long[] lastUses; // The value of the set's use clock when each line was last used.
+    private final long[] useClocks; // A counter per set incremented on each use of one of its lines.
+
+    /**
+     * Creates the policy with no lines used.
+     * @param numberOfSets The number of sets in the cache.
+     * @param setSize The number of lines per set.
+     */
+    LruPolicy(int numberOfSets, int setSize) {
+        super(Kind.LRU);
+        lastUses = new long[numberOfSets * setSize];
+        useClocks = new long[numberOfSets];
+    }
+
+    @Override
+    public void hit(int setNumber, int firstLine, int line) {
+        // Mark the line as the most recently used in its set.
+        lastUses[line] = ++useClocks[setNumber];
+    }
+
+    @Override
+    public int victim(int setNumber, int firstLine, int endLine, long tag) {
+        // Evict the least recently used line.
+        int leastRecentlyUsed = firstLine;
+        for (int line = firstLine + 1; line < endLine; line++) {
+            if (lastUses[line] < lastUses[leastRecentlyUsed]) {
+                leastRecentlyUsed = line;
+            }
+        }
+        return leastRecentlyUsed;
+    }
+
+    @Override
+    public void fill(int setNumber, int firstLine, int line, long tag) {
+        lastUses[line] = ++useClocks[setNumber];
+    }
+
+    @Override
+    public void writeState(CheckpointOutput output) throws IOException {
+        output.writeLongs(lastUses);
+        output.writeLongs(useClocks);
+    }
+
+    @Override
+    public void readState(CheckpointInput input) throws IOException {
+        input.readLongs(lastUses);
+        input.readLongs(useClocks);
+    }
+}
@@ -0,0 +1,407 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.IntStream;
+
+/**
+ * Reads memory operations from a text program trace by memory mapping the file in large windows.
+ * Each window is split into chunks on line boundaries that are decoded in parallel into primitive arrays,
+ * while the next window is decoded in the background as the current one is consumed.
+ * Lines in the standard fixed-width layout are decoded at fixed column offsets straight from the mapping.
+ * Other lines (different widths, CRLF endings) fall back to scanning for separators and newlines.
+ */
+public class MappedTraceReader extends TraceReader {
+    private static final long WINDOW_SIZE = 64L << 20; // The number of bytes mapped at a time.
+    private static final int FIXED_LINE_LENGTH = 40; // The length of a standard trace line including its newline.
+    private static final int PROGRAM_COUNTER_DIGITS = 16; // The number of program counter digits at the start of a standard line.
+    private static final int ADDRESS_COLUMN = 17; // The column of the first memory address digit in a standard line.
+    private static final int ADDRESS_DIGITS = 16; // The number of memory address digits in a standard line.
+    private static final int KIND_COLUMN = 34; // The column of the operation kind in a standard line.
+    private static final int SIZE_COLUMN = 36; // The column of the first size digit in a standard line.
+    private static final int SIZE_DIGITS = 3; // The number of size digits in a standard line.
+
+    private final FileChannel channel; // The channel of the mapped trace file.
+    private final long fileSize; // The size of the trace file in bytes.
+    private final int chunkCount; // The number of chunks each window is split into for parallel decoding.
+    private DecodedWindow current; // The window currently being consumed.
+    private CompletableFuture<DecodedWindow> pending; // The window being decoded in the background, or null after the last window.
+    private int chunk; // The index of the chunk currently being consumed.
+    private int index; // The index of the next operation within the current chunk.
+    private int chunkLength; // The number of operations in the current chunk.
+
+    /**
+     * Holds the operations decoded from one mapped window, stored per chunk in primitive arrays.
+     */
+    private class DecodedWindow {
+        final long[][] programCounters = new long[chunkCount][]; // The decoded program counters of each chunk.
+        final long[][] addresses = new long[chunkCount][]; // The decoded memory addresses of each chunk.
+        final int[][] sizes = new int[chunkCount][]; // The decoded sizes of each chunk.
+        final boolean[][] writes = new boolean[chunkCount][]; // The decoded operation kinds of each chunk.
+        final int[] counts = new int[chunkCount]; // The number of operations decoded in each chunk.
+        long end; // The file offset one past the last byte decoded in this window.
+
+        DecodedWindow() {
+            for (int i = 0; i < chunkCount; i++) {
+                programCounters[i] = new long[1024];
+                addresses[i] = new long[1024];
+                sizes[i] = new int[1024];
+                writes[i] = new boolean[1024];
+            }
+        }
+
+        /**
+         * Appends a decoded operation to a chunk, growing its arrays if necessary.
+         * @param chunk The chunk to append to.
+         * @param programCounter The program counter of the operation.
+         * @param address The memory address of the operation.
+         * @param size The size of the operation.
+         * @param write Whether the operation is a write.
+         */
+        void add(int chunk, long programCounter, long address, int size, boolean write) {
+            int count = counts[chunk];
+            if (count == addresses[chunk].length) {
+                programCounters[chunk] = Arrays.copyOf(programCounters[chunk], count * 2);
+                addresses[chunk] = Arrays.copyOf(addresses[chunk], count * 2);
+                sizes[chunk] = Arrays.copyOf(sizes[chunk], count * 2);
+                writes[chunk] = Arrays.copyOf(writes[chunk], count * 2);
+            }
+            programCounters[chunk][count] = programCounter;
+            addresses[chunk][count] = address;
+            sizes[chunk][count] = size;
+            writes[chunk][count] = write;
+            counts[chunk] = count + 1;
+        }
+    }
+
+    /**
+     * Opens a memory mapped trace reader on a file and starts decoding its first window.
+     * @param fileName The file name of the program trace.
+     * @throws IOException If the file could not be opened.
+     */
+    public MappedTraceReader(String fileName) throws IOException {
+        channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+        fileSize = channel.size();
+        chunkCount = Runtime.getRuntime().availableProcessors();
+
+        // Start with an exhausted empty window so the first read swaps in the first decoded window.
+        current = new DecodedWindow();
+        chunk = chunkCount;
+        pending = fileSize > 0 ? decodeAsync(0, new DecodedWindow()) : null;
+    }
+
+    /**
+     * Reads the next memory operation into the operation fields.
+     * @return Whether an operation was read (false at the end of the trace).
+     * @throws IOException If the trace could not be read or a line is malformed.
+     */
+    @Override
+    public boolean next() throws IOException {
+        while (index == chunkLength) {
+            if (chunk < chunkCount - 1) {
+                // Move on to the next chunk of the current window.
+                chunk++;
+                index = 0;
+                chunkLength = current.counts[chunk];
+            } else {
+                if (pending == null) {
+                    return false;
+                }
+
+                // Swap in the decoded window and reuse the finished one to decode the window after it.
+                DecodedWindow finished = current;
+                current = await(pending);
+                pending = current.end < fileSize ? decodeAsync(current.end, finished) : null;
+                chunk = 0;
+                index = 0;
+                chunkLength = current.counts[0];
+            }
+        }
+
+        programCounter = current.programCounters[chunk][index];
+        address = current.addresses[chunk][index];
+        size = current.sizes[chunk][index];
+        write = current.writes[chunk][index];
+        index++;
+        return true;
+    }
+
+    /**
+     * Waits for a window to finish decoding.
+     * @param future The future of the window.
+     * @return The decoded window.
+     * @throws IOException If decoding the window failed.
+     */
+    private static DecodedWindow await(CompletableFuture<DecodedWindow> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Starts decoding a window of the trace in the background.
+     * @param start The file offset of the start of the window. Must be the start of a line.
+     * @param window The window to decode into. Its previous contents are discarded.
+     * @return A future completing with the decoded window.
+     */
+    private CompletableFuture<DecodedWindow> decodeAsync(long start, DecodedWindow window) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                decodeWindow(start, window);
+                return window;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Maps and decodes a window of the trace, splitting it into chunks on line boundaries that are decoded in parallel.
+     * @param start The file offset of the start of the window. Must be the start of a line.
+     * @param window The window to decode into.
+     * @throws IOException If the file could not be mapped or a line is malformed.
+     */
+    private void decodeWindow(long start, DecodedWindow window) throws IOException {
+        long length = Math.min(WINDOW_SIZE, fileSize - start);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+
+        // Only decode up to the last complete line unless this is the final window.
+        int usable = start + length < fileSize ? lineStartAfter(buffer, (int) length - 1, -1) : (int) length;
+        if (usable == 0) {
+            throw new IOException("Trace line at byte " + start + " is longer than " + WINDOW_SIZE + " bytes.");
+        }
+        window.end = start + usable;
+
+        // Split the window into chunks that each start at the beginning of a line.
+        int[] boundaries = new int[chunkCount + 1];
+        boundaries[chunkCount] = usable;
+        for (int i = 1; i < chunkCount; i++) {
+            int approximate = (int) ((long) usable * i / chunkCount);
+            boundaries[i] = Math.max(boundaries[i - 1], lineStartAfter(buffer, approximate - 1, 1));
+        }
+
+        // Decode the chunks in parallel.
+        try {
+            IntStream.range(0, chunkCount).parallel().forEach(i -> {
+                try {
+                    decodeChunk(buffer, start, boundaries[i], Math.min(boundaries[i + 1], usable), window, i);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Finds the start of the line following a position by scanning for a newline.
+     * @param buffer The mapped window.
+     * @param from The position to start scanning from.
+     * @param step The direction to scan in (1 for forwards, -1 for backwards).
+     * @return The index one past the newline found, or 0 / the limit if there is none.
+     */
+    private static int lineStartAfter(MappedByteBuffer buffer, int from, int step) {
+        int limit = buffer.limit();
+        for (int i = Math.max(from, 0); i >= 0 && i < limit; i += step) {
+            if (buffer.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return step > 0 ? limit : 0;
+    }
+
+    /**
+     * Decodes the lines of one chunk of a window.
+     * Lines in the standard fixed-width layout are decoded at fixed offsets. Other lines are parsed by scanning.
+     * @param buffer The mapped window.
+     * @param windowStart The file offset of the window. Used for error messages.
+     * @param from The index of the first byte of the chunk.
+     * @param to The index one past the last byte of the chunk.
+     * @param window The window to decode into.
+     * @param chunk The index of the chunk within the window.
+     * @throws IOException If a line is malformed.
+     */
+    private static void decodeChunk(MappedByteBuffer buffer, long windowStart, int from, int to, DecodedWindow window, int chunk) throws IOException {
+        window.counts[chunk] = 0;
+        int position = from;
+        while (position < to) {
+            if (position + FIXED_LINE_LENGTH <= to && buffer.get(position + FIXED_LINE_LENGTH - 1) == '\n'
+                    && buffer.get(position + ADDRESS_COLUMN - 1) == ' ' && buffer.get(position + KIND_COLUMN - 1) == ' '
+                    && buffer.get(position + SIZE_COLUMN - 1) == ' ') {
+                // Decode each field at its fixed columns, combining the digit values to detect invalid digits.
+                long programCounter = 0;
+                int invalid = 0;
+                for (int i = position; i < position + PROGRAM_COUNTER_DIGITS; i++) {
+                    int value = HEX_VALUES[buffer.get(i) & 0xFF];
+                    invalid |= value;
+                    programCounter = (programCounter << 4) | value;
+                }
+                long address = 0;
+                for (int i = position + ADDRESS_COLUMN; i < position + ADDRESS_COLUMN + ADDRESS_DIGITS; i++) {
+                    int value = HEX_VALUES[buffer.get(i) & 0xFF];
+                    invalid |= value;
+                    address = (address << 4) | value;
+                }
+                byte kind = buffer.get(position + KIND_COLUMN);
+                if (kind != 'R' && kind != 'W') {
+                    invalid = -1;
+                }
+                int size = 0;
+                for (int i = position + SIZE_COLUMN; i < position + SIZE_COLUMN + SIZE_DIGITS; i++) {
+                    int value = buffer.get(i) - '0';
+                    invalid |= value | (9 - value);
+                    size = size * 10 + value;
+                }
+                if (invalid < 0) {
+                    throw malformed(windowStart + position);
+                }
+                window.add(chunk, programCounter, address, size, kind == 'W');
+                position += FIXED_LINE_LENGTH;
+            } else {
+                // Find the end of the line and parse it field by field.
+                int end = position;
+                while (end < to && buffer.get(end) != '\n') {
+                    end++;
+                }
+                parseLine(buffer, windowStart, position, end, window, chunk);
+                position = end + 1;
+            }
+        }
+    }
+
+    /**
+     * Parses a line that is not in the standard fixed-width layout by scanning its whitespace separated fields.
+     * Blank lines are skipped.
+     * @param buffer The mapped window.
+     * @param windowStart The file offset of the window. Used for error messages.
+     * @param start The index of the first byte of the line.
+     * @param end The index one past the last byte of the line.
+     * @param window The window to decode into.
+     * @param chunk The index of the chunk within the window.
+     * @throws IOException If the line is malformed.
+     */
+    private static void parseLine(MappedByteBuffer buffer, long windowStart, int start, int end, DecodedWindow window, int chunk) throws IOException {
+        long offset = windowStart + start;
+
+        // Decode the program counter from hex.
+        int i = skipWhitespace(buffer, start, end);
+        if (i == end) {
+            return;
+        }
+        int tokenEnd = skipToken(buffer, i, end);
+        long programCounter = parseHex(buffer, i, tokenEnd, offset);
+
+        // Decode the memory address from hex.
+        i = skipWhitespace(buffer, tokenEnd, end);
+        tokenEnd = skipToken(buffer, i, end);
+        long address = parseHex(buffer, i, tokenEnd, offset);
+
+        // Decode the operation kind.
+        i = skipWhitespace(buffer, tokenEnd, end);
+        tokenEnd = skipToken(buffer, i, end);
+        byte kind = tokenEnd == i + 1 ? buffer.get(i) : 0;
+        if (kind != 'R' && kind != 'W') {
+            throw malformed(offset);
+        }
+
+        // Decode the size from decimal.
+        i = skipWhitespace(buffer, tokenEnd, end);
+        tokenEnd = skipToken(buffer, i, end);
+        if (tokenEnd == i) {
+            throw malformed(offset);
+        }
+        int size = 0;
+        for (; i < tokenEnd; i++) {
+            int value = buffer.get(i) - '0';
+            if (value < 0 || value > 9) {
+                throw malformed(offset);
+            }
+            size = size * 10 + value;
+        }
+        window.add(chunk, programCounter, address, size, kind == 'W');
+    }
+
+    /**
+     * Decodes a token of up to 16 hex digits.
+     * @param buffer The mapped window.
+     * @param start The index of the first digit.
+     * @param end The index one past the last digit.
+     * @param offset The file offset of the line. Used for error messages.
+     * @return The decoded value.
+     * @throws IOException If the token is empty, too long or holds a non-hex digit.
+     */
+    private static long parseHex(MappedByteBuffer buffer, int start, int end, long offset) throws IOException {
+        if (start == end || end - start > 16) {
+            throw malformed(offset);
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = HEX_VALUES[buffer.get(i) & 0xFF];
+            if (digit < 0) {
+                throw malformed(offset);
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    /**
+     * Skips whitespace within a line.
+     * @param buffer The mapped window.
+     * @param i The index to start from.
+     * @param end The end of the line.
+     * @return The index of the next non-whitespace byte or the end of the line.
+     */
+    private static int skipWhitespace(MappedByteBuffer buffer, int i, int end) {
+        while (i < end && isWhitespace(buffer.get(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Skips a whitespace separated token within a line.
+     * @param buffer The mapped window.
+     * @param i The index to start from.
+     * @param end The end of the line.
+     * @return The index of the next whitespace byte or the end of the line.
+     */
+    private static int skipToken(MappedByteBuffer buffer, int i, int end) {
+        while (i < end && !isWhitespace(buffer.get(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Creates an exception describing a malformed line.
+     * @param offset The file offset of the start of the line.
+     * @return The exception to throw.
+     */
+    private static IOException malformed(long offset) {
+        return new IOException("Malformed trace line at byte " + offset + ".");
+    }
+
+    /**
+     * Closes the mapped file. Any window still being decoded in the background is discarded.
+     * @throws IOException If the file could not be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (pending != null) {
+            pending.cancel(false);
+        }
+        channel.close();
+    }
+}
@@ -0,0 +1,592 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.annotation.JSONField;
+
+/**
+ * Simulates several cores sharing the lower levels of a cache hierarchy, each core running its own program trace.
+ * Every core has private copies of the upper levels, and the misses of every core go through the same shared levels below.
+ * The operations of the cores are interleaved one core at a time, and a MESI directory keeps the private caches coherent
+ * using the R / W column of the traces.
+ *
+ * The directory tracks each block of the private line size: the cores that may hold it, and whether the only one of them
+ * holds it exclusive (E) or modified (M), with any other block shared (S) and blocks missing from the directory invalid (I).
+ * A write to a block other cores may hold invalidates their copies, and a read of a block another core modified downgrades
+ * that copy to shared, writing its changes back to the shared levels. Private caches evict blocks without telling the
+ * directory, as sparse directories allow, so a core may still be listed after its copy is gone. Its caches are looked up
+ * before an invalidation or downgrade is counted, and a downgrade that finds no copy drops the core from the directory.
+ *
+ * Most operations leave the directory as it is, but looking a block up in it would mostly miss the host's caches on large
+ * traces. Each core keeps a small direct mapped filter of the blocks it last requested, so reads of blocks it is listed for
+ * and writes of blocks it modified skip the lookup. Any request of another core changing such a block clears its slot.
+ */
+public class MultiCoreSimulator {
+    /**
+     * Runs a multi-core simulation from the command line.
+     * @param args The command line arguments, starting with "multicore".
+     */
+    static void run(String[] args) {
+        // Split the arguments after "multicore" into the configuration, the traces and options.
+        MultiCoreSimulator multiCoreSimulator = new MultiCoreSimulator();
+        List<String> traceFileNames = new ArrayList<>();
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("--mmap")) {
+                multiCoreSimulator.memoryMapped = true;
+            } else if (args[i].equals("--extended")) {
+                multiCoreSimulator.extendedReport = true;
+            } else if (args[i].startsWith("--")) {
+                System.err.println("Unknown option '" + args[i] + "'.");
+                System.exit(1);
+            } else {
+                traceFileNames.add(args[i]);
+            }
+        }
+        if (args.length < 2 || traceFileNames.isEmpty()) {
+            System.err.println(
+                    "Invalid arguments. Arguments must be in the form:\n ./CacheSimulator multicore <path to json multi-core cache file> <path to trace file>... [--mmap] [--extended]");
+            System.exit(1);
+        }
+
+        multiCoreSimulator.simulate(args[1], traceFileNames);
+    }
+
+    static final int MAX_CORES = 29; // The most cores the directory can list, one bit each below the state bits.
+    private static final int MODIFIED = 1 << 30; // Directory state bit: the only listed core has written the block (M).
+    private static final int EXCLUSIVE = 1 << 29; // Directory state bit: the only listed core read the block while no other held it (E).
+    private static final int SHARERS = EXCLUSIVE - 1; // Masks the directory state bits listing the cores that may hold the block.
+    private static final int KNOWN_BLOCK_BITS = 12; // The log2 of the number of slots of each core's filter of known blocks.
+
+    /**
+     * A core with its own trace and private caches.
+     */
+    public static class Core {
+        @JSONField(name = "trace")
+        public String traceFileName; // The file name of the program trace the core runs.
+
+        @JSONField(name = "operations")
+        public long operations; // The number of trace operations the core has simulated.
+
+        @JSONField(name = "caches")
+        public List<Cache> caches; // The private caches of the core, from the highest level to the lowest.
+
+        @JSONField(name = "invalidations")
+        public long invalidations; // The number of blocks this core held that writes of other cores invalidated.
+
+        @JSONField(name = "downgrades")
+        public long downgrades; // The number of blocks this core modified that reads of other cores downgraded to shared.
+
+        @JSONField(name = "upgrades")
+        public long upgrades; // The number of writes of this core to shared blocks, which invalidated the copies of other cores.
+
+        private final int index; // The index of the core, which is its bit in the directory.
+        private final CacheSimulator simulator; // Simulates the private levels of the core followed by the shared levels.
+        private final Cache[] levels; // The private levels of the core followed by the shared levels.
+        private final long[] missesBefore; // The misses of each level before the current operation, to time it.
+        private final long[] knownBlocks; // Blocks the directory lists the core for, shifted left with the low bit set if modified, or -1.
+        private TraceReader reader; // The reader of the core's trace, or null once it has ended.
+        private long cycles; // The simulated cycle count of the core, only kept when interleaving by cycles.
+        private boolean timed; // Whether the cycle count is kept and reported.
+
+        /**
+         * Creates a core with no operations simulated.
+         * @param index The index of the core.
+         * @param traceFileName The file name of the program trace the core runs.
+         * @param caches The private caches of the core.
+         * @param simulator The simulator of the private levels followed by the shared levels.
+         */
+        Core(int index, String traceFileName, List<Cache> caches, CacheSimulator simulator) {
+            this.index = index;
+            this.traceFileName = traceFileName;
+            this.caches = caches;
+            this.simulator = simulator;
+            levels = simulator.caches.toArray(new Cache[0]);
+            missesBefore = new long[levels.length];
+            knownBlocks = new long[1 << KNOWN_BLOCK_BITS];
+            Arrays.fill(knownBlocks, -1);
+        }
+
+        /**
+         * Gets the simulated cycle count of the core, for the JSON output.
+         * @return The cycle count, or null unless interleaving by cycles so the field is left out.
+         */
+        @JSONField(name = "cycles")
+        public Long getCycles() {
+            return timed ? cycles : null;
+        }
+    }
+
+    @JSONField(name = "cores")
+    public List<Core> cores = new ArrayList<>(); // The cores, in the order of their traces.
+
+    @JSONField(name = "shared_caches")
+    public List<Cache> sharedCaches; // The caches shared by every core, from the highest level to the lowest.
+
+    @JSONField(name = "interleave")
+    public String interleave; // How the operations of the cores are interleaved: "round-robin" or "cycles".
+
+    @JSONField(name = "main_memory_accesses")
+    public long main_memory_accesses; // The number of main memory accesses performed. Equal to the misses of the lowest shared level.
+
+    private Core[] coreArray; // The cores as an array, indexed by core.
+    private int privateLevels; // The number of private levels of each core, which is the index of the first shared level.
+    private int blockBits; // The number of offset bits of the private line size, the block size the directory tracks.
+    private LongIntMap directory; // Maps each block number to its directory state: the listed cores and the M or E bit.
+    private int quantum; // The number of operations each core simulates per turn when interleaving round-robin.
+    private int[] latencies; // The cycles taken by an access to each level, when interleaving by cycles.
+    private int memoryLatency; // The cycles taken by an access to main memory, when interleaving by cycles.
+    boolean memoryMapped; // Whether to memory map text traces instead of streaming them.
+    boolean extendedReport; // Whether every cache reports its extended statistics.
+
+    /**
+     * Simulates the cores over their traces and prints the statistics of every core and the shared levels as JSON.
+     * @param cacheConfigFileName The file name of the multi-core cache config.
+     * @param traceFileNames The file names of the program traces, one per core.
+     */
+    void simulate(String cacheConfigFileName, List<String> traceFileNames) {
+        try {
+            readConfiguration(cacheConfigFileName, traceFileNames);
+            try {
+                for (Core core : coreArray) {
+                    core.reader = TraceReader.open(core.traceFileName, memoryMapped);
+                    if (core.reader.getFilteredLevels() > 0) {
+                        throw new Exception("Filtered traces cannot be simulated on multiple cores.");
+                    }
+                }
+                if (latencies != null) {
+                    simulateByCycles();
+                } else {
+                    simulateRoundRobin();
+                }
+            } finally {
+                for (Core core : coreArray) {
+                    if (core.reader != null) {
+                        core.reader.close();
+                    }
+                }
+            }
+
+            // The number of main memory accesses is equal to the misses of the lowest shared level.
+            main_memory_accesses = sharedCaches.get(sharedCaches.size() - 1).misses;
+            System.out.println(JSON.toJSONString(this));
+        } catch (IOException e) {
+            System.err.println("Could not read cache information from file:\n" + e.getMessage());
+        } catch (Exception e) {
+            System.err.println(e.toString());
+        }
+    }
+
+    /**
+     * Reads a multi-core cache config and creates one core per trace, each with its own copy of the private caches.
+     * @param cacheConfigFileName The file name of the multi-core cache config.
+     * @param traceFileNames The file names of the program traces, one per core.
+     * @throws Exception If there is an issue reading the config file or initialising each cache, or the config is invalid.
+     */
+    void readConfiguration(String cacheConfigFileName, List<String> traceFileNames) throws Exception {
+        if (traceFileNames.size() > MAX_CORES) {
+            throw new Exception("At most " + MAX_CORES + " cores can be simulated.");
+        }
+        String jsonString;
+        try (BufferedReader reader = new BufferedReader(new FileReader(cacheConfigFileName))) {
+            jsonString = reader.lines().collect(Collectors.joining(System.lineSeparator()));
+        }
+
+        // Each core parses the config again for its own private caches, and the first parse also gives the shared caches.
+        MultiCoreConfiguration configuration = JSON.parseObject(jsonString, MultiCoreConfiguration.class);
+        if (configuration.getPrivateCaches() == null || configuration.getPrivateCaches().isEmpty()
+                || configuration.getSharedCaches() == null || configuration.getSharedCaches().isEmpty()) {
+            throw new Exception("A multi-core config needs at least one private and one shared cache.");
+        }
+        sharedCaches = configuration.getSharedCaches();
+        for (Cache cache : sharedCaches) {
+            cache.initialise();
+        }
+        setInterleave(configuration);
+        privateLevels = configuration.getPrivateCaches().size();
+
+        for (int i = 0; i < traceFileNames.size(); i++) {
+            List<Cache> privateCaches = i == 0 ? configuration.getPrivateCaches()
+                    : JSON.parseObject(jsonString, MultiCoreConfiguration.class).getPrivateCaches();
+            for (Cache cache : privateCaches) {
+                cache.initialise();
+                if (cache.lineSize != privateCaches.get(0).lineSize) {
+                    throw new Exception("The private caches must all have the same line size, which is the block size the directory tracks.");
+                } else if (cache.prefetches()) {
+                    throw new Exception("Private caches cannot have prefetchers, as their fills would bypass the directory.");
+                }
+            }
+            List<Cache> levels = new ArrayList<>(privateCaches);
+            levels.addAll(sharedCaches);
+            CacheSimulator simulator = new CacheSimulator();
+            simulator.extendedReport = extendedReport;
+            simulator.useCaches(levels);
+            Core core = new Core(i, traceFileNames.get(i), privateCaches, simulator);
+            core.timed = latencies != null;
+            cores.add(core);
+        }
+        coreArray = cores.toArray(new Core[0]);
+        blockBits = Cache.log2(coreArray[0].levels[0].lineSize);
+        directory = new LongIntMap(1 << 16, -1);
+    }
+
+    /**
+     * Sets how the operations of the cores are interleaved from a multi-core cache config.
+     * @param configuration The multi-core cache config.
+     * @throws Exception If the interleave policy is unsupported, or its quantum or latencies are invalid.
+     */
+    private void setInterleave(MultiCoreConfiguration configuration) throws Exception {
+        interleave = configuration.getInterleave() == null ? "round-robin" : configuration.getInterleave();
+        switch (interleave) {
+            case ("round-robin"):
+                quantum = configuration.getQuantum();
+                if (quantum < 1) {
+                    throw new Exception("The quantum must be a positive number of operations.");
+                }
+                break;
+            case ("cycles"):
+                latencies = configuration.getLatencies();
+                memoryLatency = configuration.getMemoryLatency();
+                if (latencies == null || latencies.length != configuration.getPrivateCaches().size() + sharedCaches.size()) {
+                    throw new Exception("Interleaving by cycles needs the latency of every private and shared cache.");
+                }
+                for (int latency : latencies) {
+                    if (latency < 0) {
+                        throw new Exception("Latencies cannot be negative.");
+                    }
+                }
+                if (memoryLatency < 0) {
+                    throw new Exception("Latencies cannot be negative.");
+                }
+                break;
+            default:
+                throw new Exception("The interleave policy '" + interleave + "' is not supported by the simulator!");
+        }
+    }
+
+    /**
+     * Simulates the cores in turn, each running a quantum of operations, until every trace has ended.
+     * @throws IOException If a trace could not be read.
+     */
+    private void simulateRoundRobin() throws IOException {
+        int running = coreArray.length;
+        while (running > 0) {
+            for (Core core : coreArray) {
+                TraceReader reader = core.reader;
+                if (reader == null) {
+                    continue;
+                }
+                for (int i = 0; i < quantum; i++) {
+                    if (!reader.next()) {
+                        reader.close();
+                        core.reader = null;
+                        running--;
+                        break;
+                    }
+                    simulateOperation(core, reader);
+                }
+            }
+        }
+    }
+
+    /**
+     * Simulates the next operation of the core with the lowest cycle count until every trace has ended, as the operations
+     * of cores running in parallel would arrive at the shared levels. Each operation takes the latency of the first level,
+     * plus the latency of the level below (or main memory) for each miss, so cores missing more fall behind.
+     * Ties go to the lowest core.
+     * @throws IOException If a trace could not be read.
+     */
+    private void simulateByCycles() throws IOException {
+        while (true) {
+            Core next = null;
+            for (Core core : coreArray) {
+                if (core.reader != null && (next == null || core.cycles < next.cycles)) {
+                    next = core;
+                }
+            }
+            if (next == null) {
+                return;
+            }
+            TraceReader reader = next.reader;
+            if (!reader.next()) {
+                reader.close();
+                next.reader = null;
+                continue;
+            }
+
+            Cache[] levels = next.levels;
+            long[] missesBefore = next.missesBefore;
+            for (int level = 0; level < levels.length; level++) {
+                missesBefore[level] = levels[level].misses;
+            }
+            simulateOperation(next, reader);
+            long cycles = latencies[0];
+            for (int level = 0; level < levels.length; level++) {
+                long misses = levels[level].misses - missesBefore[level];
+                cycles += misses * (level + 1 < levels.length ? latencies[level + 1] : memoryLatency);
+            }
+            next.cycles += cycles;
+        }
+    }
+
+    /**
+     * Simulates the operation just read from a core's trace: the directory handles each block it touches,
+     * then the core's private levels and the shared levels serve it as in a single core hierarchy.
+     * @param core The core.
+     * @param reader The reader of the core's trace, holding the operation.
+     */
+    private void simulateOperation(Core core, TraceReader reader) {
+        long address = reader.address;
+        int size = reader.size;
+        boolean write = reader.write;
+        long[] knownBlocks = core.knownBlocks;
+        long lastBlock = (address + Math.max(size, 1) - 1) >>> blockBits;
+        for (long block = address >>> blockBits; block <= lastBlock; block++) {
+            int slot = knownSlot(block);
+            long known = knownBlocks[slot];
+            if (write) {
+                if (known != (block << 1 | 1)) {
+                    requestWrite(core, block);
+                    knownBlocks[slot] = block << 1 | 1;
+                }
+            } else if (known >> 1 != block) {
+                requestRead(core, block);
+                knownBlocks[slot] = block << 1;
+            }
+        }
+        core.operations++;
+        core.simulator.simulateMemoryOp(reader.programCounter, address, size, write);
+    }
+
+    /**
+     * Updates the directory for a read of a block by a core.
+     * A block no core holds is granted exclusive, a block another core modified is downgraded to shared (written back),
+     * and a block another core holds exclusive becomes shared. Cores already listed read their own copy.
+     * @param core The reading core.
+     * @param block The block number.
+     */
+    private void requestRead(Core core, long block) {
+        int bit = 1 << core.index;
+        int state = directory.get(block);
+        if (state < 0) {
+            directory.put(block, bit | EXCLUSIVE);
+            return;
+        }
+        if ((state & bit) != 0) {
+            return;
+        }
+
+        // The M and E bits always go with a single listed core, which keeps its copy as shared if it still has one.
+        if ((state & (MODIFIED | EXCLUSIVE)) != 0) {
+            Core owner = coreArray[Integer.numberOfTrailingZeros(state & SHARERS)];
+            boolean held = (state & MODIFIED) != 0 ? downgrade(owner, block) : holds(owner, block);
+            int slot = knownSlot(block);
+            if (owner.knownBlocks[slot] >> 1 == block) {
+                owner.knownBlocks[slot] = held ? block << 1 : -1;
+            }
+            directory.put(block, held ? (state & SHARERS) | bit : bit | EXCLUSIVE);
+            return;
+        }
+        directory.put(block, state | bit);
+    }
+
+    /**
+     * Updates the directory for a write of a block by a core, invalidating the copies of every other listed core.
+     * The block becomes modified by the writing core.
+     * @param core The writing core.
+     * @param block The block number.
+     */
+    private void requestWrite(Core core, long block) {
+        int bit = 1 << core.index;
+        int state = directory.get(block);
+        if (state == (bit | MODIFIED)) {
+            return;
+        }
+        if (state >= 0) {
+            int others = state & SHARERS & ~bit;
+            if (others != 0 && (state & bit) != 0) {
+                core.upgrades++;
+            }
+            int slot = knownSlot(block);
+            for (; others != 0; others &= others - 1) {
+                Core other = coreArray[Integer.numberOfTrailingZeros(others)];
+                if (invalidate(other, block)) {
+                    other.invalidations++;
+                }
+                if (other.knownBlocks[slot] >> 1 == block) {
+                    other.knownBlocks[slot] = -1;
+                }
+            }
+        }
+        directory.put(block, bit | MODIFIED);
+    }
+
+    /**
+     * Finds the slot of a block in the filters of known blocks.
+     * @param block The block number.
+     * @return The slot.
+     */
+    private static int knownSlot(long block) {
+        return (int) ((block * 0x9E3779B97F4A7C15L) >>> (Long.SIZE - KNOWN_BLOCK_BITS));
+    }
+
+    /**
+     * Checks whether any private level of a core holds a block.
+     * @param core The core.
+     * @param block The block number.
+     * @return Whether the core holds the block.
+     */
+    private boolean holds(Core core, long block) {
+        long address = block << blockBits;
+        for (int level = 0; level < privateLevels; level++) {
+            if (core.levels[level].holds(address)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Downgrades a block a core modified to shared, writing any dirty copy in its private levels back to the shared levels.
+     * @param core The core that modified the block.
+     * @param block The block number.
+     * @return Whether the core still held the block.
+     */
+    private boolean downgrade(Core core, long block) {
+        if (!holds(core, block)) {
+            return false;
+        }
+        core.downgrades++;
+        long address = block << blockBits;
+        boolean dirty = false;
+        for (int level = 0; level < privateLevels; level++) {
+            dirty |= core.levels[level].cleanBlock(address);
+        }
+        if (dirty) {
+            core.simulator.writeDown(privateLevels, address, 1 << blockBits);
+        }
+        return true;
+    }
+
+    /**
+     * Invalidates a block in every private level of a core.
+     * @param core The core.
+     * @param block The block number.
+     * @return Whether the core held the block.
+     */
+    private boolean invalidate(Core core, long block) {
+        long address = block << blockBits;
+        boolean held = false;
+        for (int level = 0; level < privateLevels; level++) {
+            held |= core.levels[level].invalidateBlock(address);
+        }
+        return held;
+    }
+
+    /**
+     * Gets the number of writes reaching main memory from every core, for the JSON output.
+     * @return The number of main memory writes, or null if writes are not modelled so the field is left out.
+     */
+    @JSONField(name = "main_memory_writes")
+    public Long getMainMemoryWrites() {
+        Long total = null;
+        for (Core core : cores) {
+            Long writes = core.simulator.getMainMemoryWrites();
+            if (writes != null) {
+                total = (total == null ? 0 : total) + writes;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Gets the number of prefetched blocks fetched from main memory by every core, for the JSON output.
+     * @return The number of main memory prefetches, or null if no cache prefetches so the field is left out.
+     */
+    @JSONField(name = "main_memory_prefetches")
+    public Long getMainMemoryPrefetches() {
+        Long total = null;
+        for (Core core : cores) {
+            Long prefetches = core.simulator.getMainMemoryPrefetches();
+            if (prefetches != null) {
+                total = (total == null ? 0 : total) + prefetches;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Special class to support loading a multi-core hierarchy via JSON parsing.
+     */
+    public static class MultiCoreConfiguration {
+        @JSONField(name = "private_caches")
+        List<Cache> privateCaches;
+
+        @JSONField(name = "shared_caches")
+        List<Cache> sharedCaches;
+
+        @JSONField(name = "interleave")
+        String interleave;
+
+        @JSONField(name = "quantum")
+        int quantum = 1;
+
+        @JSONField(name = "latencies")
+        int[] latencies;
+
+        @JSONField(name = "memory_latency")
+        int memoryLatency = 100;
+
+        public List<Cache> getPrivateCaches() {
+            return privateCaches;
+        }
+
+        public void setPrivateCaches(List<Cache> privateCaches) {
+            this.privateCaches = privateCaches;
+        }
+
+        public List<Cache> getSharedCaches() {
+            return sharedCaches;
+        }
+
+        public void setSharedCaches(List<Cache> sharedCaches) {
+            this.sharedCaches = sharedCaches;
+        }
+
+        public String getInterleave() {
+            return interleave;
+        }
+
+        public void setInterleave(String interleave) {
+            this.interleave = interleave;
+        }
+
+        public int getQuantum() {
+            return quantum;
+        }
+
+        public void setQuantum(int quantum) {
+            this.quantum = quantum;
+        }
+
+        public int[] getLatencies() {
+            return latencies;
+        }
+
+        public void setLatencies(int[] latencies) {
+            this.latencies = latencies;
+        }
+
+        public int getMemoryLatency() {
+            return memoryLatency;
+        }
+
+        public void setMemoryLatency(int memoryLatency) {
+            this.memoryLatency = memoryLatency;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+/**
+ * Tagged next-line prefetching.
+ * A miss, or the first use of a prefetched line, prefetches the blocks following the accessed one,
+ * so a sequential scan keeps the prefetches one step ahead after its first miss. No table is kept.
+ */
+final class NextLinePrefetcher extends Prefetcher {
+    /**
+     * Creates the prefetcher.
+     * @param degree The number of following blocks prefetched when the prefetcher triggers.
+     */
+    NextLinePrefetcher(int degree) {
+        super(degree);
+    }
+
+    @Override
+    int train(long programCounter, long block, boolean miss, boolean prefetchHit) {
+        if (!miss && !prefetchHit) {
+            return 0;
+        }
+        for (int i = 0; i < degree; i++) {
+            candidates[i] = block + i + 1;
+        }
+        return degree;
+    }
+
+    @Override
+    void writeState(CheckpointOutput output) {
+        // Nothing to save.
+    }
+
+    @Override
+    void readState(CheckpointInput input) {
+        // Nothing to restore.
+    }
+}
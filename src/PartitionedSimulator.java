@@ -0,0 +1,194 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Simulates one cache hierarchy with the sets of each level partitioned across worker threads.
+ *
+ * Sets never affect each other under RR, LRU and LFU, so each worker can own a fixed group of sets and simulate
+ * the accesses that map to them in trace order, giving the same result as a serial run.
+ * The trace is simulated in batches, one level at a time:
+ * 1. Each request for the level is split into the blocks it touches, recording overruns as simulateMemoryOp does.
+ * 2. The workers look up the blocks of their own sets, recording a hit or miss per block.
+ * 3. The missed blocks are collected in order and become the requests for the next level.
+ * Which blocks a request touches depends only on its address and size, so the next level receives its requests
+ * in exactly the order the recursive simulation would send them.
+ */
+public class PartitionedSimulator {
+    private static final int BATCH_SIZE = 1 << 16; // The number of trace operations simulated per batch.
+    private static final int SETS_PER_BLOCK = 64; // Sets are dealt to workers in blocks of this many so no two workers share a valid bitmap word.
+
+    private final List<Cache> caches; // The cache hierarchy, from the highest level to the lowest.
+    private final int partitions; // The number of worker threads, each owning a group of sets per level.
+    private final int filteredLevels; // The number of cache levels the trace was filtered through before the first level.
+    private final ExecutorService workers; // The worker threads.
+
+    private long[] requestAddresses = new long[BATCH_SIZE]; // The memory address of each request for the current level.
+    private int[] requestSizes = new int[BATCH_SIZE]; // The size of each request for the current level.
+    private int requestCount; // The number of requests for the current level.
+    private long[] blockAddresses = new long[BATCH_SIZE]; // The address of each block accessed on the current level.
+    private int[] blockSizesRemaining = new int[BATCH_SIZE]; // The size left in the line of each block, passed to the next level on a miss.
+    private boolean[] blockHits = new boolean[BATCH_SIZE]; // Whether each block accessed on the current level hit.
+    private int blockCount; // The number of blocks accessed on the current level.
+
+    /**
+     * Creates a partitioned simulator for an initialised cache hierarchy.
+     * @param caches The cache hierarchy, from the highest level to the lowest.
+     * @param partitions The number of worker threads.
+     * @param filteredLevels The number of cache levels the trace was filtered through, or 0 for a program trace.
+     */
+    public PartitionedSimulator(List<Cache> caches, int partitions, int filteredLevels) {
+        this.caches = caches;
+        this.partitions = partitions;
+        this.filteredLevels = filteredLevels;
+        workers = Executors.newFixedThreadPool(partitions, runnable -> {
+            Thread thread = new Thread(runnable, "partition-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Simulates every memory operation of a trace on the hierarchy.
+     * @param reader The reader of the program trace.
+     * @throws Exception If the trace could not be read or a worker failed.
+     */
+    public void simulate(TraceReader reader) throws Exception {
+        try {
+            boolean more = true;
+            while (more) {
+                // Read a batch of operations as the requests for the first level.
+                requestCount = 0;
+                while (requestCount < BATCH_SIZE && (more = reader.next())) {
+                    requestAddresses[requestCount] = reader.address;
+                    requestSizes[requestCount] = reader.size;
+                    requestCount++;
+                }
+
+                // Pass the batch down the hierarchy until there are no misses left to pass on.
+                for (int cacheIndex = 0; cacheIndex < caches.size() && requestCount > 0; cacheIndex++) {
+                    Cache cache = caches.get(cacheIndex);
+                    splitIntoBlocks(cache, cacheIndex);
+                    accessBlocks(cache);
+                    collectMisses();
+                }
+            }
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    /**
+     * Splits the requests for a level into the blocks they access, recording overruns as simulateMemoryOp does.
+     * @param cache The cache of the level.
+     * @param cacheIndex The index of the level.
+     */
+    private void splitIntoBlocks(Cache cache, int cacheIndex) {
+        blockCount = 0;
+        for (int i = 0; i < requestCount; i++) {
+            long address = requestAddresses[i];
+            int size = requestSizes[i];
+            while (true) {
+                int lineSizeRemaining = cache.lineSize - (int) (address & cache.offsetMask);
+                addBlock(address, lineSizeRemaining);
+                if (size <= lineSizeRemaining) {
+                    break;
+                }
+
+                // Mark this as an overrun and subtract a hit to avoid counting the overrun as a hit on the same level.
+                cache.overruns++;
+                if (cacheIndex + filteredLevels > 0) {
+                    cache.hits--;
+                }
+                address += cache.blockSize;
+                size -= cache.lineSize;
+            }
+        }
+    }
+
+    /**
+     * Appends a block access to the current level, growing the block arrays if necessary.
+     * @param address The address of the block access.
+     * @param lineSizeRemaining The size left in the line from the address.
+     */
+    private void addBlock(long address, int lineSizeRemaining) {
+        if (blockCount == blockAddresses.length) {
+            blockAddresses = Arrays.copyOf(blockAddresses, blockCount * 2);
+            blockSizesRemaining = Arrays.copyOf(blockSizesRemaining, blockCount * 2);
+            blockHits = Arrays.copyOf(blockHits, blockCount * 2);
+        }
+        blockAddresses[blockCount] = address;
+        blockSizesRemaining[blockCount] = lineSizeRemaining;
+        blockCount++;
+    }
+
+    /**
+     * Looks up every block of the current level, with each worker handling the blocks of its own sets in order.
+     * @param cache The cache of the level.
+     * @throws Exception If a worker failed.
+     */
+    private void accessBlocks(Cache cache) throws Exception {
+        // Caches with too few sets to give each worker a block of sets are simulated on the calling thread.
+        int setBlocks = Math.max(1, cache.getNumberOfSets() / SETS_PER_BLOCK);
+        int usedPartitions = Math.min(partitions, setBlocks);
+        if (usedPartitions == 1) {
+            cache.recordAccesses(blockCount, accessPartition(cache, 0, 1));
+            return;
+        }
+
+        List<Callable<Integer>> tasks = new ArrayList<>(usedPartitions);
+        for (int p = 0; p < usedPartitions; p++) {
+            int partition = p;
+            tasks.add(() -> accessPartition(cache, partition, usedPartitions));
+        }
+        int hitCount = 0;
+        for (Future<Integer> result : workers.invokeAll(tasks)) {
+            hitCount += result.get();
+        }
+        cache.recordAccesses(blockCount, hitCount);
+    }
+
+    /**
+     * Looks up the blocks of the current level that map to the sets of one partition, in order.
+     * @param cache The cache of the level.
+     * @param partition The index of the partition.
+     * @param usedPartitions The number of partitions the sets are dealt to.
+     * @return The number of hits in the partition.
+     */
+    private int accessPartition(Cache cache, int partition, int usedPartitions) {
+        int hitCount = 0;
+        for (int i = 0; i < blockCount; i++) {
+            long address = blockAddresses[i];
+            if ((cache.getSet(address) / SETS_PER_BLOCK) % usedPartitions == partition) {
+                boolean hit = cache.access(address);
+                blockHits[i] = hit;
+                if (hit) {
+                    hitCount++;
+                }
+            }
+        }
+        return hitCount;
+    }
+
+    /**
+     * Collects the missed blocks of the current level, in order, as the requests for the next level.
+     */
+    private void collectMisses() {
+        requestCount = 0;
+        if (requestAddresses.length < blockCount) {
+            requestAddresses = new long[blockAddresses.length];
+            requestSizes = new int[blockAddresses.length];
+        }
+        for (int i = 0; i < blockCount; i++) {
+            if (!blockHits[i]) {
+                requestAddresses[requestCount] = blockAddresses[i];
+                requestSizes[requestCount] = blockSizesRemaining[i];
+                requestCount++;
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+import java.io.IOException;
+
+/**
+ * A hardware prefetcher attached to a cache level, predicting the blocks about to be accessed from its demand accesses.
+ * Prefetchers are trained on every demand access of their level and write the block numbers to prefetch into candidates,
+ * which the simulator fills into the cache once the demand access has been served by the levels below.
+ * Their tables are fixed-size primitive arrays allocated with the cache, so training allocates nothing
+ * and the memory used does not grow with the trace.
+ *
+ * Prefetchers are created by name from the prefetcher of a cache config.
+ */
+abstract class Prefetcher {
+    final int degree; // The number of blocks prefetched when the prefetcher triggers.
+    final long[] candidates; // The block numbers chosen by the most recent training, reused by every call.
+
+    /**
+     * Creates a prefetcher with room for the candidates of one trigger.
+     * @param degree The number of blocks prefetched when the prefetcher triggers.
+     */
+    Prefetcher(int degree) {
+        this.degree = degree;
+        candidates = new long[degree];
+    }
+
+    /**
+     * Creates a prefetcher by name.
+     * @param name The name of the prefetcher, as used for prefetcher: "next-line", "stride" or "stream".
+     * @param degree The number of blocks prefetched when the prefetcher triggers.
+     * @param tableSize The number of entries of the stride or stream table, or 0 for the default of the prefetcher.
+     * @return The prefetcher.
+     * @throws Exception If the prefetcher is not supported or the table size does not suit it.
+     */
+    static Prefetcher create(String name, int degree, int tableSize) throws Exception {
+        switch (name) {
+            case ("next-line"):
+                return new NextLinePrefetcher(degree);
+            case ("stride"):
+                tableSize = tableSize == 0 ? StridePrefetcher.DEFAULT_TABLE_SIZE : tableSize;
+                if (Integer.bitCount(tableSize) != 1) {
+                    throw new Exception("The stride prefetcher table size " + tableSize + " is not a power of two!");
+                }
+                return new StridePrefetcher(degree, tableSize);
+            case ("stream"):
+                return new StreamPrefetcher(degree, tableSize == 0 ? StreamPrefetcher.DEFAULT_TABLE_SIZE : tableSize);
+            default:
+                throw new Exception("The prefetcher '" + name + "' is not supported by the simulator!");
+        }
+    }
+
+    /**
+     * Trains the prefetcher on a demand access of its level and chooses the blocks to prefetch.
+     * @param programCounter The program counter of the operation, or 0 if the trace has none.
+     * @param block The block number accessed, the address without its offset bits.
+     * @param miss Whether the access missed.
+     * @param prefetchHit Whether the access hit a line filled by a prefetch and not used before.
+     * @return The number of block numbers written to candidates.
+     */
+    abstract int train(long programCounter, long block, boolean miss, boolean prefetchHit);
+
+    /**
+     * Writes the tables of the prefetcher to a checkpoint.
+     * @param output The checkpoint being written.
+     * @throws IOException If the checkpoint could not be written.
+     */
+    abstract void writeState(CheckpointOutput output) throws IOException;
+
+    /**
+     * Restores the tables of the prefetcher from a checkpoint written by writeState for the same configuration.
+     * @param input The checkpoint being read.
+     * @throws IOException If the checkpoint could not be read or does not match the prefetcher.
+     */
+    abstract void readState(CheckpointInput input) throws IOException;
+}
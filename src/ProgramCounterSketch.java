@@ -0,0 +1,196 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.alibaba.fastjson2.annotation.JSONField;
+
+/**
+ * Finds the program counters causing the most misses of a cache in fixed memory with the Space-Saving algorithm.
+ * A fixed number of counters each monitor one program counter. A monitored program counter has its counter incremented,
+ * and any other takes over the counter with the lowest count, keeping that count as the most it may be overestimated by.
+ * With c counters and n misses, every program counter missing more than n / c times is monitored,
+ * and no count is more than its error above the true count.
+ *
+ * The counters stay in fixed slots, found from the program counter through a hash index,
+ * and a binary min-heap of slots by count finds the lowest count, so each miss costs O(log c).
+ */
+class ProgramCounterSketch {
+    static final int COUNTERS_PER_ENTRY = 16; // The number of counters kept for each program counter reported.
+    static final int MIN_COUNTERS = 4096; // The fewest counters kept, as programs often have thousands of missing program counters.
+
+    /**
+     * A program counter reported among those causing the most misses.
+     */
+    public static class Entry {
+        @JSONField(name = "pc")
+        public String programCounter; // The program counter, as 16 hexadecimal digits like in text traces.
+
+        @JSONField(name = "misses")
+        public long misses; // The number of misses counted, at most error above the true number.
+
+        @JSONField(name = "error")
+        public long error; // The most the misses may be overestimated by.
+    }
+
+    private final int reported; // The number of program counters reported.
+    private final long[] programCounters; // The program counter monitored by each slot.
+    private final long[] counts; // The miss count of each slot.
+    private final long[] errors; // The most the count of each slot may be overestimated by.
+    private final int[] heap; // The used slots as a binary min-heap by count.
+    private final int[] heapPositions; // The position of each used slot in the heap.
+    private final LongIntMap slotOfProgramCounter; // Maps each monitored program counter to its slot.
+    private int used; // The number of slots in use, which are the first ones.
+
+    /**
+     * Creates a sketch with no misses counted.
+     * @param reported The number of program counters to report.
+     */
+    ProgramCounterSketch(int reported) {
+        this.reported = reported;
+        int capacity = Math.max(reported * COUNTERS_PER_ENTRY, MIN_COUNTERS);
+        programCounters = new long[capacity];
+        counts = new long[capacity];
+        errors = new long[capacity];
+        heap = new int[capacity];
+        heapPositions = new int[capacity];
+        slotOfProgramCounter = new LongIntMap(capacity, -1);
+    }
+
+    /**
+     * Counts a miss caused by a program counter.
+     * @param programCounter The program counter of the operation that missed.
+     */
+    void record(long programCounter) {
+        int slot = slotOfProgramCounter.get(programCounter);
+        if (slot >= 0) {
+            counts[slot]++;
+            siftDown(heapPositions[slot]);
+            return;
+        }
+        if (used < heap.length) {
+            // Take a free slot, which has the lowest count of 1 until it moves up the heap.
+            slot = used++;
+            programCounters[slot] = programCounter;
+            counts[slot] = 1;
+            errors[slot] = 0;
+            slotOfProgramCounter.put(programCounter, slot);
+            heap[used - 1] = slot;
+            heapPositions[slot] = used - 1;
+            siftUp(used - 1);
+            return;
+        }
+
+        // Take over the slot with the lowest count, whose count the new program counter may not have had.
+        slot = heap[0];
+        slotOfProgramCounter.remove(programCounters[slot]);
+        programCounters[slot] = programCounter;
+        errors[slot] = counts[slot];
+        counts[slot]++;
+        slotOfProgramCounter.put(programCounter, slot);
+        siftDown(0);
+    }
+
+    /**
+     * Moves a slot towards the root of the heap while its count is lower than its parent's.
+     * @param position The position of the slot in the heap.
+     */
+    private void siftUp(int position) {
+        int slot = heap[position];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (counts[heap[parent]] <= counts[slot]) {
+                break;
+            }
+            heap[position] = heap[parent];
+            heapPositions[heap[position]] = position;
+            position = parent;
+        }
+        heap[position] = slot;
+        heapPositions[slot] = position;
+    }
+
+    /**
+     * Moves a slot towards the leaves of the heap while its count is higher than one of its children's.
+     * @param position The position of the slot in the heap.
+     */
+    private void siftDown(int position) {
+        int slot = heap[position];
+        while (true) {
+            int child = position * 2 + 1;
+            if (child >= used) {
+                break;
+            }
+            if (child + 1 < used && counts[heap[child + 1]] < counts[heap[child]]) {
+                child++;
+            }
+            if (counts[slot] <= counts[heap[child]]) {
+                break;
+            }
+            heap[position] = heap[child];
+            heapPositions[heap[position]] = position;
+            position = child;
+        }
+        heap[position] = slot;
+        heapPositions[slot] = position;
+    }
+
+    /**
+     * Gets the program counters with the most misses, most first.
+     * @return The reported entries, fewer if fewer program counters missed.
+     */
+    List<Entry> getTopEntries() {
+        Integer[] slots = new Integer[used];
+        for (int slot = 0; slot < used; slot++) {
+            slots[slot] = slot;
+        }
+        Arrays.sort(slots, (a, b) -> Long.compare(counts[b], counts[a]));
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < Math.min(reported, used); i++) {
+            Entry entry = new Entry();
+            entry.programCounter = String.format("%016x", programCounters[slots[i]]);
+            entry.misses = counts[slots[i]];
+            entry.error = errors[slots[i]];
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    /**
+     * Forgets every miss counted, so a warmed cache starts measuring afresh.
+     */
+    void clear() {
+        slotOfProgramCounter.clear();
+        used = 0;
+    }
+
+    /**
+     * Writes the counters to a checkpoint.
+     * @param output The checkpoint being written.
+     * @throws IOException If the checkpoint could not be written.
+     */
+    void writeState(CheckpointOutput output) throws IOException {
+        output.writeInt(used);
+        output.writeLongs(programCounters);
+        output.writeLongs(counts);
+        output.writeLongs(errors);
+        output.writeInts(heap);
+        output.writeInts(heapPositions);
+        slotOfProgramCounter.writeState(output);
+    }
+
+    /**
+     * Restores the counters from a checkpoint written by writeState for the same number of reported program counters.
+     * @param input The checkpoint being read.
+     * @throws IOException If the checkpoint could not be read or does not match the sketch.
+     */
+    void readState(CheckpointInput input) throws IOException {
+        used = input.readInt();
+        input.readLongs(programCounters);
+        input.readLongs(counts);
+        input.readLongs(errors);
+        input.readInts(heap);
+        input.readInts(heapPositions);
+        slotOfProgramCounter.readState(input);
+    }
+}
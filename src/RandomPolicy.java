@@ -0,0 +1,90 @@
+import java.io.IOException;
+
+/**
+ * Random replacement, evicting a uniformly chosen line of the set.
+ * The choices come from a seeded xorshift generator per set, so runs with the same seed evict the same lines,
+ * even when the sets are simulated on several threads.
+ */
+final class RandomPolicy extends ReplacementPolicy {
+    private final int setSize; // The number of lines per set.
+    private final long[] states; // The state of the xorshift generator of each set. Never 0.
+
+    /**
+     * Creates the policy.
+     * @param numberOfSets The number of sets in the cache.
+     * @param setSize The number of lines per set.
+     * @param seed The seed of the generators.
+     */
+    RandomPolicy(int numberOfSets, int setSize, long seed) {
+        super(Kind.RANDOM);
+        this.setSize = setSize;
+        states = seededStates(numberOfSets, seed);
+    }
+
+    /**
+     * Seeds a generator for each set.
+     * @param numberOfSets The number of sets in the cache.
+     * @param seed The seed of the cache.
+     * @return The initial state of the generator of each set.
+     */
+    static long[] seededStates(int numberOfSets, long seed) {
+        long[] states = new long[numberOfSets];
+        for (int setNumber = 0; setNumber < numberOfSets; setNumber++) {
+            states[setNumber] = mix(seed + setNumber);
+        }
+        return states;
+    }
+
+    /**
+     * Spreads a seed over all bits so nearby seeds give unrelated sequences, avoiding the all zero state.
+     * @param seed The seed.
+     * @return A non zero generator state.
+     */
+    static long mix(long seed) {
+        long z = seed + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z ^= z >>> 31;
+        return z != 0 ? z : 0x9E3779B97F4A7C15L;
+    }
+
+    /**
+     * Advances a xorshift64* generator.
+     * @param state The current state.
+     * @return The next state.
+     */
+    static long next(long state) {
+        state ^= state >>> 12;
+        state ^= state << 25;
+        state ^= state >>> 27;
+        return state;
+    }
+
+    @Override
+    public void hit(int setNumber, int firstLine, int line) {
+        // Nothing to do for random replacement.
+    }
+
+    @Override
+    public int victim(int setNumber, int firstLine, int endLine, long tag) {
+        long state = next(states[setNumber]);
+        states[setNumber] = state;
+        long random = (state * 0x2545F4914F6CDD1DL) >>> 32;
+        return firstLine + (int) ((random * setSize) >>> 32);
+    }
+
+    @Override
+    public void fill(int setNumber, int firstLine, int line, long tag) {
+        // Nothing to do for random replacement.
+    }
+
+    @Override
+    public void writeState(CheckpointOutput output) throws IOException {
+        output.writeLongs(states);
+    }
+
+    @Override
+    public void readState(CheckpointInput input) throws IOException {
+        input.readLongs(states);
+    }
+}
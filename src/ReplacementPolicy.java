@@ -0,0 +1,158 @@
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A replacement / eviction policy, choosing which line of a full set to replace.
+ * Policies keep their state for every set of a cache in primitive arrays indexed by line or set number,
+ * and are told about every hit and fill so they can update it. A call may only touch the state of its own set,
+ * as --shards simulates disjoint groups of sets on different threads. Invalid lines are always filled first by the cache,
+ * in way order, so victim is only asked for full sets.
+ *
+ * Policies are created by name from the replacement_policy of a cache config, and further policies can be added
+ * with register. The built in policies are final classes that the cache calls through a switch on their kind,
+ * so each call is statically bound and can be inlined instead of dispatched virtually.
+ */
+public abstract class ReplacementPolicy {
+    /**
+     * Creates a policy for a cache.
+     */
+    public interface Factory {
+        /**
+         * Creates a policy with empty state for every set.
+         * @param numberOfSets The number of sets in the cache.
+         * @param setSize The number of lines per set.
+         * @param seed The seed of any random choices made by the policy.
+         * @return The policy.
+         */
+        ReplacementPolicy create(int numberOfSets, int setSize, long seed);
+    }
+
+    /**
+     * The built in policies, which the cache calls without virtual dispatch, and CUSTOM for registered ones.
+     */
+    enum Kind {
+        RR,
+        LRU,
+        LFU,
+        PLRU,
+        RRIP,
+        ARC,
+        RANDOM,
+        CUSTOM
+    }
+
+    private static final Map<String, Factory> FACTORIES = new LinkedHashMap<>(); // The factory of each policy name.
+
+    static {
+        FACTORIES.put("rr", (numberOfSets, setSize, seed) -> new RoundRobinPolicy(numberOfSets, setSize));
+        FACTORIES.put("lru", (numberOfSets, setSize, seed) -> new LruPolicy(numberOfSets, setSize));
+        FACTORIES.put("lfu", (numberOfSets, setSize, seed) -> new LfuPolicy(numberOfSets, setSize));
+        FACTORIES.put("plru", (numberOfSets, setSize, seed) -> new TreePlruPolicy(numberOfSets, setSize));
+        FACTORIES.put("srrip", (numberOfSets, setSize, seed) -> new RripPolicy(numberOfSets, setSize, false, seed));
+        FACTORIES.put("brrip", (numberOfSets, setSize, seed) -> new RripPolicy(numberOfSets, setSize, true, seed));
+        FACTORIES.put("arc", (numberOfSets, setSize, seed) -> new ArcPolicy(numberOfSets, setSize));
+        FACTORIES.put("random", (numberOfSets, setSize, seed) -> new RandomPolicy(numberOfSets, setSize, seed));
+    }
+
+    final Kind kind; // The kind of policy, used by the cache to bind calls to the built in policies statically.
+
+    /**
+     * Creates a registered (custom) policy.
+     */
+    protected ReplacementPolicy() {
+        this(Kind.CUSTOM);
+    }
+
+    /**
+     * Creates a policy of a specific kind.
+     * @param kind The kind of policy.
+     */
+    ReplacementPolicy(Kind kind) {
+        this.kind = kind;
+    }
+
+    /**
+     * Adds a policy that can be selected by name in cache configs.
+     * @param name The name of the policy, as used for replacement_policy.
+     * @param factory Creates the policy for each cache.
+     */
+    public static synchronized void register(String name, Factory factory) {
+        FACTORIES.put(name, factory);
+    }
+
+    /**
+     * Creates a policy by name.
+     * @param name The name of the policy.
+     * @param numberOfSets The number of sets in the cache.
+     * @param setSize The number of lines per set.
+     * @param seed The seed of any random choices made by the policy.
+     * @return The policy.
+     * @throws Exception If no policy has the name.
+     */
+    static synchronized ReplacementPolicy create(String name, int numberOfSets, int setSize, long seed) throws Exception {
+        Factory factory = FACTORIES.get(name);
+        if (factory == null) {
+            throw new Exception("The replacement policy '" + name + "' is not supported by the simulator! Supported policies are "
+                    + String.join(", ", FACTORIES.keySet()) + ".");
+        }
+        return factory.create(numberOfSets, setSize, seed);
+    }
+
+    /**
+     * Updates the state of a line after a hit.
+     * @param setNumber The number of the set.
+     * @param firstLine The index of the first line of the set.
+     * @param line The index of the line that was hit.
+     */
+    public abstract void hit(int setNumber, int firstLine, int line);
+
+    /**
+     * Chooses the line of a full set to evict.
+     * @param setNumber The number of the set.
+     * @param firstLine The index of the first line of the set.
+     * @param endLine The index one past the last line of the set.
+     * @param tag The tag of the block about to be filled.
+     * @return The index of the line to evict.
+     */
+    public abstract int victim(int setNumber, int firstLine, int endLine, long tag);
+
+    /**
+     * Initialises the state of a line after a new block is placed in it.
+     * @param setNumber The number of the set.
+     * @param firstLine The index of the first line of the set.
+     * @param line The index of the filled line.
+     * @param tag The tag of the new block.
+     */
+    public abstract void fill(int setNumber, int firstLine, int line, long tag);
+
+    /**
+     * Forgets a line that was invalidated rather than replaced, as when an inclusive hierarchy back-invalidates it.
+     * The cache refills invalid lines before asking for a victim again, so most policies have nothing to do,
+     * and only policies counting the lines of a set override this.
+     * @param setNumber The number of the set.
+     * @param firstLine The index of the first line of the set.
+     * @param line The index of the invalidated line.
+     */
+    public void invalidate(int setNumber, int firstLine, int line) {
+    }
+
+    /**
+     * Writes the state of every set to a checkpoint. The built in policies write their arrays in bulk,
+     * and registered policies must override this and readState to be saved.
+     * @param output The checkpoint being written.
+     * @throws IOException If the checkpoint could not be written or the policy cannot be saved.
+     */
+    public void writeState(CheckpointOutput output) throws IOException {
+        throw new IOException("The replacement policy " + getClass().getSimpleName() + " cannot be saved in a checkpoint.");
+    }
+
+    /**
+     * Restores the state of every set from a checkpoint written by writeState for the same cache geometry.
+     * @param input The checkpoint being read.
+     * @throws IOException If the checkpoint could not be read or does not match the policy.
+     */
+    public void readState(CheckpointInput input) throws IOException {
+        throw new IOException("The replacement policy " + getClass().getSimpleName() + " cannot be restored from a checkpoint.");
+    }
+}
@@ -0,0 +1,48 @@
+import java.io.IOException;
+
+/**
+ * Round robin replacement, evicting the ways of each set in turn.
+ * Invalid lines are filled in way order, so this always evicts the line filled longest ago (FIFO).
+ */
+final class RoundRobinPolicy extends ReplacementPolicy {
+    private final int setSize; // The number of lines per set.
+    private final int[] nextVictims; // The way of each set to evict next.
+
+    /**
+     * Creates the policy with every set evicting way 0 first.
+     * @param numberOfSets The number of sets in the cache.
+     * @param setSize The number of lines per set.
+     */
+    RoundRobinPolicy(int numberOfSets, int setSize) {
+        super(Kind.RR);
+        this.setSize = setSize;
+        nextVictims = new int[numberOfSets];
+    }
+
+    @Override
+    public void hit(int setNumber, int firstLine, int line) {
+        // Nothing to do for RR.
+    }
+
+    @Override
+    public int victim(int setNumber, int firstLine, int endLine, long tag) {
+        int way = nextVictims[setNumber];
+        nextVictims[setNumber] = way + 1 == setSize ? 0 : way + 1;
+        return firstLine + way;
+    }
+
+    @Override
+    public void fill(int setNumber, int firstLine, int line, long tag) {
+        // Nothing to do for RR.
+    }
+
+    @Override
+    public void writeState(CheckpointOutput output) throws IOException {
+        output.writeInts(nextVictims);
+    }
+
+    @Override
+    public void readState(CheckpointInput input) throws IOException {
+        input.readInts(nextVictims);
+    }
+}
@@ -0,0 +1,89 @@
+import java.io.IOException;
+
+/**
+ * Re-reference interval prediction (RRIP) replacement, in its static (SRRIP) and bimodal (BRRIP) forms.
+ * Each line holds a 2 bit re-reference prediction value (RRPV), where 0 predicts a near re-reference and 3 a distant one.
+ * Hits predict a near re-reference. The victim is the first line predicting a distant re-reference,
+ * after ageing the whole set until one does.
+ * SRRIP fills lines with a long (2) prediction so a block must be reused to outlive older reused blocks,
+ * which protects the cache from scans. BRRIP fills most lines with a distant (3) prediction and only 1 in 32 with a long one,
+ * which also keeps part of a working set larger than the cache resident under thrashing.
+ */
+final class RripPolicy extends ReplacementPolicy {
+    static final byte DISTANT = 3; // The RRPV predicting a distant re-reference.
+    private static final byte LONG = 2; // The RRPV predicting a long re-reference.
+    private static final int BIMODAL_THROTTLE_BITS = 5; // BRRIP fills 1 in 2^this (32) lines with a long prediction.
+
+    private final byte[] predictions; // The RRPV of each line.
+    private final boolean bimodal; // Whether this is BRRIP rather than SRRIP.
+    private final long[] states; // The state of the xorshift generator of each set choosing BRRIP's long predictions, or null for SRRIP.
+
+    /**
+     * Creates the policy.
+     * @param numberOfSets The number of sets in the cache.
+     * @param setSize The number of lines per set.
+     * @param bimodal Whether to use BRRIP rather than SRRIP.
+     * @param seed The seed of BRRIP's choices.
+     */
+    RripPolicy(int numberOfSets, int setSize, boolean bimodal, long seed) {
+        super(Kind.RRIP);
+        predictions = new byte[numberOfSets * setSize];
+        this.bimodal = bimodal;
+        states = bimodal ? RandomPolicy.seededStates(numberOfSets, seed) : null;
+    }
+
+    @Override
+    public void hit(int setNumber, int firstLine, int line) {
+        predictions[line] = 0;
+    }
+
+    @Override
+    public int victim(int setNumber, int firstLine, int endLine, long tag) {
+        // Find the first line with the most distant prediction, then age the set as if that had been repeated until it was distant.
+        int victim = firstLine;
+        for (int line = firstLine + 1; line < endLine; line++) {
+            if (predictions[line] > predictions[victim]) {
+                victim = line;
+            }
+        }
+        int ageing = DISTANT - predictions[victim];
+        if (ageing > 0) {
+            for (int line = firstLine; line < endLine; line++) {
+                predictions[line] += ageing;
+            }
+        }
+        return victim;
+    }
+
+    @Override
+    public void fill(int setNumber, int firstLine, int line, long tag) {
+        predictions[line] = insertionPrediction(setNumber);
+    }
+
+    /**
+     * Chooses the prediction of a newly filled line, advancing BRRIP's generator for the set.
+     * Also used by the fully associative index, which keeps its own predictions.
+     * @param setNumber The number of the set being filled.
+     * @return The RRPV to fill the line with.
+     */
+    byte insertionPrediction(int setNumber) {
+        if (bimodal) {
+            long state = RandomPolicy.next(states[setNumber]);
+            states[setNumber] = state;
+            return ((state * 0x2545F4914F6CDD1DL) >>> (Long.SIZE - BIMODAL_THROTTLE_BITS)) == 0 ? LONG : DISTANT;
+        }
+        return LONG;
+    }
+
+    @Override
+    public void writeState(CheckpointOutput output) throws IOException {
+        output.writeBytes(predictions);
+        output.writeLongs(states);
+    }
+
+    @Override
+    public void readState(CheckpointInput input) throws IOException {
+        input.readBytes(predictions);
+        input.readLongs(states);
+    }
+}
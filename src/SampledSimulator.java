@@ -0,0 +1,192 @@
+import java.io.IOException;
+import java.util.List;
+
+import com.alibaba.fastjson2.annotation.JSONField;
+
+/**
+ * Estimates the statistics of a whole trace by simulating periodic windows of it in detail (systematic sampling, as in SMARTS).
+ * The trace is split into periods of equal length. Each period starts with a fast-forward region, followed by a
+ * detailed warmup region that is simulated but not measured, and ends with the measured window.
+ * During fast-forward the caches are either functionally warmed, updating their lines without statistics or overruns
+ * bookkeeping so they hold the same state as in a full run, or the operations are skipped without decoding where the
+ * trace format allows, leaving the detailed warmup to refresh the caches.
+ *
+ * The hits and misses per operation of each window are treated as one sample. The totals are estimated as the mean
+ * rate times the number of operations in the trace, with a confidence interval from the spread of the window rates.
+ */
+public class SampledSimulator {
+    /**
+     * A summary of how a trace was sampled and how precise the estimates are, for the JSON output.
+     */
+    public static class SamplingSummary {
+        @JSONField(name = "operations")
+        public long operations; // The number of operations in the trace.
+
+        @JSONField(name = "sampled_operations")
+        public long sampledOperations; // The number of operations in the measured windows.
+
+        @JSONField(name = "windows")
+        public long windows; // The number of measured windows.
+
+        @JSONField(name = "confidence")
+        public double confidence = CONFIDENCE; // The confidence level of the intervals given for the estimates.
+
+        @JSONField(name = "main_memory_accesses_error")
+        public long mainMemoryAccessesError; // The half width of the confidence interval of the main memory accesses.
+    }
+
+    private static final double CONFIDENCE = 0.95; // The confidence level of the intervals.
+    private static final double Z_SCORE = 1.96; // The standard normal quantile for the confidence level.
+
+    private final CacheSimulator simulator; // The simulator holding the hierarchy.
+    private final Cache[] levels; // The caches of the hierarchy, indexed by level.
+    private final long period; // The number of operations in each period.
+    private final long window; // The number of measured operations at the end of each period.
+    private final long warmup; // The number of detailed but unmeasured operations before each window.
+    private final boolean functionalWarming; // Whether fast-forward regions warm the caches rather than being skipped.
+
+    private final double[] hitRateSums; // The sum over windows of the hits per operation of each level.
+    private final double[] hitRateSquares; // The sum over windows of the squared hits per operation of each level.
+    private final double[] missRateSums; // The sum over windows of the misses per operation of each level.
+    private final double[] missRateSquares; // The sum over windows of the squared misses per operation of each level.
+    private final long[] windowHits; // The hits of each level at the start of the current window.
+    private final long[] windowMisses; // The misses of each level at the start of the current window.
+
+    /**
+     * Creates a sampled simulation of a hierarchy.
+     * @param simulator The simulator holding the hierarchy.
+     * @param caches The caches of the hierarchy, from the highest level to the lowest.
+     * @param period The number of operations in each period.
+     * @param window The number of measured operations at the end of each period.
+     * @param warmup The number of detailed but unmeasured operations before each window.
+     * @param functionalWarming Whether to warm the caches during fast-forward regions rather than skip them.
+     */
+    public SampledSimulator(CacheSimulator simulator, List<Cache> caches, long period, long window, long warmup, boolean functionalWarming) {
+        this.simulator = simulator;
+        levels = caches.toArray(new Cache[0]);
+        this.period = period;
+        this.window = window;
+        this.warmup = warmup;
+        this.functionalWarming = functionalWarming;
+        hitRateSums = new double[levels.length];
+        hitRateSquares = new double[levels.length];
+        missRateSums = new double[levels.length];
+        missRateSquares = new double[levels.length];
+        windowHits = new long[levels.length];
+        windowMisses = new long[levels.length];
+    }
+
+    /**
+     * Simulates the sampled windows of a trace, then replaces the hits and misses of each cache with the estimates.
+     * @param reader The reader of the program trace.
+     * @return The summary of the sampling.
+     * @throws IOException If the trace could not be read.
+     * @throws Exception If the trace ended before the first window.
+     */
+    public SamplingSummary simulate(TraceReader reader) throws Exception {
+        SamplingSummary summary = new SamplingSummary();
+        long fastForward = period - warmup - window;
+        boolean endOfTrace = false;
+        while (!endOfTrace) {
+            // Fast-forward to the detailed warmup.
+            long operations;
+            if (functionalWarming) {
+                operations = 0;
+                while (operations < fastForward && reader.next()) {
+                    simulator.warmMemoryOp(reader.address, reader.size);
+                    operations++;
+                }
+            } else {
+                operations = reader.skip(fastForward);
+            }
+            summary.operations += operations;
+
+            // Simulate the detailed warmup, then measure the window.
+            operations = simulateDetailed(reader, warmup);
+            summary.operations += operations;
+            if (operations < warmup) {
+                break;
+            }
+            for (int level = 0; level < levels.length; level++) {
+                windowHits[level] = levels[level].hits;
+                windowMisses[level] = levels[level].misses;
+            }
+            operations = simulateDetailed(reader, window);
+            summary.operations += operations;
+            endOfTrace = operations < window;
+            if (operations > 0) {
+                summary.windows++;
+                summary.sampledOperations += operations;
+                for (int level = 0; level < levels.length; level++) {
+                    double hitRate = (double) (levels[level].hits - windowHits[level]) / operations;
+                    double missRate = (double) (levels[level].misses - windowMisses[level]) / operations;
+                    hitRateSums[level] += hitRate;
+                    hitRateSquares[level] += hitRate * hitRate;
+                    missRateSums[level] += missRate;
+                    missRateSquares[level] += missRate * missRate;
+                }
+            }
+        }
+
+        if (summary.windows == 0) {
+            throw new Exception("The trace ended before the first sampled window. Use a shorter --sample period.");
+        }
+        extrapolate(summary);
+        return summary;
+    }
+
+    /**
+     * Simulates operations in detail, updating the statistics of every level.
+     * @param reader The reader of the program trace.
+     * @param count The number of operations to simulate.
+     * @return The number of operations simulated, which is less than the count only at the end of the trace.
+     * @throws IOException If the trace could not be read.
+     */
+    private long simulateDetailed(TraceReader reader, long count) throws IOException {
+        long operations = 0;
+        while (operations < count && reader.next()) {
+            simulator.simulateMemoryOp(reader.address, reader.size);
+            operations++;
+        }
+        return operations;
+    }
+
+    /**
+     * Sets the hits and misses of each cache to the mean rate of the windows times the number of operations in the trace.
+     * The confidence interval uses the standard error of the window rates, with the finite population correction
+     * for the fraction of all possible windows that were measured.
+     * @param summary The summary of the sampling, which receives the error of the main memory accesses.
+     */
+    private void extrapolate(SamplingSummary summary) {
+        long windows = summary.windows;
+        double populationWindows = Math.max(windows, (double) summary.operations / window);
+        double correction = Math.sqrt(Math.max(0, 1 - windows / populationWindows));
+        for (int level = 0; level < levels.length; level++) {
+            Cache cache = levels[level];
+            cache.hits = Math.round(hitRateSums[level] / windows * summary.operations);
+            cache.misses = Math.round(missRateSums[level] / windows * summary.operations);
+            cache.setSamplingErrors(
+                    errorOf(hitRateSums[level], hitRateSquares[level], windows, summary.operations, correction),
+                    errorOf(missRateSums[level], missRateSquares[level], windows, summary.operations, correction));
+        }
+        summary.mainMemoryAccessesError = levels[levels.length - 1].getSamplingMissesError();
+    }
+
+    /**
+     * Calculates the half width of the confidence interval of an extrapolated total.
+     * @param sum The sum of the window rates.
+     * @param squares The sum of the squared window rates.
+     * @param windows The number of windows.
+     * @param operations The number of operations in the trace.
+     * @param correction The finite population correction.
+     * @return The half width, rounded up, or 0 with a single window.
+     */
+    private static long errorOf(double sum, double squares, long windows, long operations, double correction) {
+        if (windows < 2) {
+            return 0;
+        }
+        double mean = sum / windows;
+        double variance = Math.max(0, (squares - windows * mean * mean) / (windows - 1));
+        return (long) Math.ceil(Z_SCORE * Math.sqrt(variance / windows) * correction * operations);
+    }
+}
@@ -0,0 +1,369 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.annotation.JSONField;
+
+/**
+ * Computes LRU hit ratio against capacity curves for many cache sizes in a single pass over a program trace.
+ *
+ * Each memory operation is split into the blocks it touches for each line size, exactly as the first cache level
+ * of the simulator would access them, so every point of a curve matches the hits and misses of a single level LRU run.
+ * Fully associative curves come from the stack distance of each access (see StackDistanceTracker),
+ * which gives the hits of every capacity at once.
+ * Set associative curves keep one LRU stack per set for each number of sets,
+ * as the distance within a set depends on how many sets the blocks are spread over.
+ */
+public class StackDistanceAnalyser {
+    /**
+     * Runs an analysis from the command line.
+     * @param args The command line arguments, starting with "stack".
+     */
+    static void run(String[] args) {
+        if (args.length < 2) {
+            System.err.println(
+                    "Invalid arguments. Arguments must be in the form:\n ./CacheSimulator stack <path to trace file> [--line-size <bytes>]... [--kind <kind>]... [--max-size <bytes>] [--mmap]");
+            System.exit(1);
+        }
+
+        List<Integer> lineSizes = new ArrayList<>();
+        List<String> kinds = new ArrayList<>();
+        long maxSize = DEFAULT_MAX_SIZE;
+        boolean memoryMapped = false;
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+                case ("--mmap"):
+                    memoryMapped = true;
+                    break;
+                case ("--line-size"):
+                case ("--kind"):
+                case ("--max-size"):
+                    if (i + 1 == args.length) {
+                        System.err.println("Option '" + args[i] + "' needs a value.");
+                        System.exit(1);
+                    }
+                    String option = args[i++];
+                    if (option.equals("--line-size")) {
+                        lineSizes.add(Integer.parseInt(args[i]));
+                    } else if (option.equals("--kind")) {
+                        kinds.add(args[i]);
+                    } else {
+                        maxSize = Long.parseLong(args[i]);
+                    }
+                    break;
+                default:
+                    System.err.println("Unknown option '" + args[i] + "'.");
+                    System.exit(1);
+            }
+        }
+        if (lineSizes.isEmpty()) {
+            lineSizes.add(DEFAULT_LINE_SIZE);
+        }
+        if (kinds.isEmpty()) {
+            kinds.add("full");
+        }
+
+        try {
+            StackDistanceAnalyser analyser = new StackDistanceAnalyser(lineSizes, kinds, maxSize);
+            try (TraceReader reader = TraceReader.open(args[1], memoryMapped)) {
+                analyser.analyse(reader);
+            }
+            System.out.println(JSON.toJSONString(analyser));
+        } catch (IOException e) {
+            System.err.println("Could not read trace:\n" + e.getMessage());
+        } catch (Exception e) {
+            System.err.println(e.toString());
+        }
+    }
+
+    /**
+     * The hits and misses of one cache size.
+     */
+    public static class Point {
+        @JSONField(name = "size", ordinal = 0)
+        public long size; // The total size of the cache in bytes.
+
+        @JSONField(name = "hits", ordinal = 1)
+        public long hits; // The number of hits of a single level LRU cache of this size.
+
+        @JSONField(name = "misses", ordinal = 2)
+        public long misses; // The number of misses of a single level LRU cache of this size.
+
+        @JSONField(name = "hit_ratio", ordinal = 3)
+        public double hitRatio; // The fraction of accesses that hit.
+    }
+
+    /**
+     * The hit ratio against capacity curve of one line size and kind of cache.
+     */
+    public static class Curve {
+        @JSONField(name = "line_size", ordinal = 0)
+        public int lineSize; // The size of each cache line in bytes.
+
+        @JSONField(name = "kind", ordinal = 1)
+        public String kind; // The kind of cache, as in a cache config.
+
+        @JSONField(name = "accesses", ordinal = 2)
+        public long accesses; // The number of block accesses, counting each block of an overrun separately.
+
+        @JSONField(name = "compulsory_misses", ordinal = 3)
+        public long compulsoryMisses; // The number of first accesses to a block, which miss at every size.
+
+        @JSONField(name = "points", ordinal = 4)
+        public List<Point> points = new ArrayList<>(); // The hits and misses of each size, smallest first.
+    }
+
+    private static final int DEFAULT_LINE_SIZE = 64; // The line size analysed if none are given.
+    private static final long DEFAULT_MAX_SIZE = 1L << 24; // The largest cache size on each curve if none is given.
+
+    @JSONField(name = "operations", ordinal = 0)
+    public long operations; // The number of memory operations in the trace.
+
+    @JSONField(name = "curves", ordinal = 1)
+    public List<Curve> curves = new ArrayList<>(); // One curve per line size and kind, in the order given.
+
+    private final LineSizeAnalysis[] analyses; // The analysis of each line size.
+
+    /**
+     * Creates an analyser for a set of line sizes and kinds of cache.
+     * @param lineSizes The line sizes to analyse in bytes. Each must be a power of two.
+     * @param kinds The kinds of cache to analyse, as in a cache config ("direct", "full" or "&lt;n&gt;way").
+     * @param maxSize The largest cache size to report in bytes.
+     * @throws Exception If a line size or kind is not supported.
+     */
+    StackDistanceAnalyser(List<Integer> lineSizes, List<String> kinds, long maxSize) throws Exception {
+        analyses = new LineSizeAnalysis[lineSizes.size()];
+        for (int i = 0; i < analyses.length; i++) {
+            int lineSize = lineSizes.get(i);
+            if (lineSize <= 0 || Integer.bitCount(lineSize) != 1) {
+                throw new Exception("The line size " + lineSize + " is not a power of two!");
+            }
+            analyses[i] = new LineSizeAnalysis(lineSize, kinds, maxSize);
+        }
+    }
+
+    /**
+     * Analyses every memory operation of a trace and fills in the curves.
+     * @param reader The reader of the program trace.
+     * @throws IOException If the trace could not be read.
+     */
+    void analyse(TraceReader reader) throws IOException {
+        while (reader.next()) {
+            operations++;
+            for (LineSizeAnalysis analysis : analyses) {
+                analysis.access(reader.address, reader.size);
+            }
+        }
+        for (LineSizeAnalysis analysis : analyses) {
+            analysis.addCurves(curves);
+        }
+    }
+
+    /**
+     * Gets the number of ways of a kind of cache.
+     * @param kind The kind of cache, as in a cache config.
+     * @return The number of ways, or 0 for a fully associative cache.
+     * @throws Exception If the kind is not supported.
+     */
+    static int waysOf(String kind) throws Exception {
+        if (kind.equals("full")) {
+            return 0;
+        } else if (kind.equals("direct")) {
+            return 1;
+        } else if (kind.matches("[1-9][0-9]*way")) {
+            return Integer.parseInt(kind.substring(0, kind.length() - 3));
+        }
+        throw new Exception("The cache type '" + kind + "' is not supported by the analyser!");
+    }
+
+    /**
+     * The stack distances of one line size, for every kind of cache requested.
+     */
+    private static class LineSizeAnalysis {
+        private final int lineSize; // The size of each cache line in bytes.
+        private final int offsetBits; // The number of bits used for the offset.
+        private final long maxLines; // The number of lines in the largest cache size reported.
+        private final List<String> kinds; // The kinds of cache to report, in the order given.
+        private long accesses; // The number of block accesses.
+
+        private StackDistanceTracker tracker; // The fully associative stack distances, or null if not requested.
+        private long[] distanceCounts = new long[1024]; // The number of accesses with each fully associative stack distance below maxLines.
+        private LongIntMap seenBlocks; // The blocks accessed so far, used to count compulsory misses when there is no tracker.
+
+        private final int[] ways; // The number of ways of each kind, or 0 for fully associative.
+        private final long[][] setStacks; // For each set associative kind and number of sets, the blocks of each set from most to least recent.
+        private final int[][] setDepths; // For each set associative kind and number of sets, the number of blocks held by each set.
+        private final long[][] setHits; // For each set associative kind, the hits of each number of sets.
+
+        /**
+         * Creates the analysis of one line size.
+         * @param lineSize The size of each cache line in bytes.
+         * @param kinds The kinds of cache to report.
+         * @param maxSize The largest cache size to report in bytes.
+         * @throws Exception If a kind is not supported.
+         */
+        LineSizeAnalysis(int lineSize, List<String> kinds, long maxSize) throws Exception {
+            this.lineSize = lineSize;
+            this.kinds = kinds;
+            offsetBits = Integer.numberOfTrailingZeros(lineSize);
+            maxLines = Math.max(1, maxSize / lineSize);
+
+            ways = new int[kinds.size()];
+            setStacks = new long[kinds.size()][];
+            setDepths = new int[kinds.size()][];
+            setHits = new long[kinds.size()][];
+            for (int k = 0; k < ways.length; k++) {
+                ways[k] = waysOf(kinds.get(k));
+                if (ways[k] == 0) {
+                    tracker = new StackDistanceTracker();
+                } else {
+                    // Sizes run from one set up to the largest power of two number of sets within the maximum size.
+                    // The stacks of every number of sets are stored one after another, so 2^s sets start at block (2^s - 1) * ways.
+                    int setCounts = 0;
+                    while (ways[k] * (1L << setCounts) <= maxLines && setCounts < 31) {
+                        setCounts++;
+                    }
+                    long totalSets = (1L << setCounts) - 1;
+                    if (totalSets * ways[k] > Integer.MAX_VALUE) {
+                        throw new Exception("The maximum size is too large to analyse the cache type '" + kinds.get(k) + "'!");
+                    }
+                    setStacks[k] = new long[(int) (totalSets * ways[k])];
+                    setDepths[k] = new int[(int) totalSets];
+                    setHits[k] = new long[setCounts];
+                }
+            }
+            if (tracker == null) {
+                seenBlocks = new LongIntMap(1024, 0);
+            }
+        }
+
+        /**
+         * Records a memory operation, splitting it into blocks like the first level of the simulator.
+         * @param address The memory address of the operation.
+         * @param size The size of the operation.
+         */
+        void access(long address, int size) {
+            long offsetMask = lineSize - 1;
+            while (true) {
+                accessBlock(address >>> offsetBits);
+                int lineSizeRemaining = lineSize - (int) (address & offsetMask);
+                if (size <= lineSizeRemaining) {
+                    return;
+                }
+                address += lineSize;
+                size -= lineSize;
+            }
+        }
+
+        /**
+         * Records an access to one block on every kind of cache.
+         * @param block The block number of the access.
+         */
+        private void accessBlock(long block) {
+            accesses++;
+            if (tracker != null) {
+                int distance = tracker.access(block);
+                if (distance != StackDistanceTracker.COLD && distance < maxLines) {
+                    if (distance >= distanceCounts.length) {
+                        distanceCounts = Arrays.copyOf(distanceCounts, (int) Math.min(maxLines, distanceCounts.length * 2L + distance));
+                    }
+                    distanceCounts[distance]++;
+                }
+            } else if (seenBlocks.get(block) == 0) {
+                seenBlocks.put(block, 1);
+            }
+            for (int k = 0; k < ways.length; k++) {
+                if (ways[k] != 0) {
+                    accessSets(k, block);
+                }
+            }
+        }
+
+        /**
+         * Records an access to one block on every number of sets of a set associative kind.
+         * @param k The index of the kind.
+         * @param block The block number of the access.
+         */
+        private void accessSets(int k, long block) {
+            long[] stacks = setStacks[k];
+            int[] depths = setDepths[k];
+            long[] hits = setHits[k];
+            int setSize = ways[k];
+            for (int s = 0; s < hits.length; s++) {
+                // Find the block in its set, then move it (or insert it) to the most recent end.
+                int set = (1 << s) - 1 + (int) (block & ((1L << s) - 1));
+                int first = set * setSize;
+                int depth = depths[set];
+                int found = 0;
+                while (found < depth && stacks[first + found] != block) {
+                    found++;
+                }
+                if (found < depth) {
+                    hits[s]++;
+                } else if (depth < setSize) {
+                    depths[set] = depth + 1;
+                } else {
+                    found = depth - 1;
+                }
+                System.arraycopy(stacks, first, stacks, first + 1, found);
+                stacks[first] = block;
+            }
+        }
+
+        /**
+         * Adds the finished curve of each kind to a list.
+         * @param curves The list to add to.
+         */
+        void addCurves(List<Curve> curves) {
+            long compulsoryMisses = countCompulsoryMisses();
+            for (int k = 0; k < ways.length; k++) {
+                Curve curve = new Curve();
+                curve.lineSize = lineSize;
+                curve.kind = kinds.get(k);
+                curve.accesses = accesses;
+                curve.compulsoryMisses = compulsoryMisses;
+                if (ways[k] == 0) {
+                    // Every access with a distance below the number of lines hits.
+                    long hits = 0;
+                    int counted = 0;
+                    for (long lines = 1; lines <= maxLines; lines *= 2) {
+                        while (counted < Math.min(lines, distanceCounts.length)) {
+                            hits += distanceCounts[counted++];
+                        }
+                        curve.points.add(point(lines, hits));
+                    }
+                } else {
+                    for (int s = 0; s < setHits[k].length; s++) {
+                        curve.points.add(point((long) ways[k] << s, setHits[k][s]));
+                    }
+                }
+                curves.add(curve);
+            }
+        }
+
+        /**
+         * Counts the distinct blocks accessed, which is the number of compulsory misses.
+         * @return The number of compulsory misses.
+         */
+        private long countCompulsoryMisses() {
+            return tracker != null ? tracker.getDistinctBlocks() : seenBlocks.size();
+        }
+
+        /**
+         * Creates the point of one cache size.
+         * @param lines The number of lines of the cache.
+         * @param hits The number of hits of the cache.
+         * @return The point.
+         */
+        private Point point(long lines, long hits) {
+            Point point = new Point();
+            point.size = lines * lineSize;
+            point.hits = hits;
+            point.misses = accesses - hits;
+            point.hitRatio = accesses == 0 ? 0 : (double) hits / accesses;
+            return point;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * Measures LRU stack distances with Mattson's stack algorithm.
+ * The stack distance of an access is the number of distinct other blocks used since the last access to the same block,
+ * so the access hits in every fully associative LRU cache holding more lines than its distance.
+ *
+ * Rather than keeping the stack itself, each block is marked at the position (time) of its last access
+ * in a Fenwick tree, and the distance is the number of marks after that position.
+ * Each access therefore costs O(log n) in the number of positions. Positions are compacted once they run out,
+ * so memory stays proportional to the number of distinct blocks rather than the length of the trace.
+ */
+class StackDistanceTracker {
+    static final int COLD = -1; // The distance returned for the first access to a block.
+    private static final int INITIAL_CAPACITY = 1 << 16; // The smallest number of positions kept.
+
+    private final LongIntMap lastPositions = new LongIntMap(INITIAL_CAPACITY, COLD); // The position of the last access to each block.
+    private long[] blocksAt; // The block last accessed at each position, used when compacting.
+    private int[] tree; // The Fenwick tree over the positions, 1-based, counting the positions that are a last access.
+    private int capacity; // The number of positions available before the next compaction.
+    private int nextPosition; // The position of the next access.
+    private int distinctBlocks; // The number of distinct blocks seen, equal to the number of marked positions.
+
+    /**
+     * Creates a tracker for a trace with no accesses yet.
+     */
+    StackDistanceTracker() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Records an access to a block.
+     * @param block The block number of the access, which is the address shifted right by the offset bits.
+     * @return The stack distance of the access, or COLD if the block has not been accessed before.
+     */
+    int access(long block) {
+        if (nextPosition == capacity) {
+            compact();
+        }
+
+        int lastPosition = lastPositions.get(block);
+        int distance;
+        if (lastPosition == COLD) {
+            distance = COLD;
+            distinctBlocks++;
+        } else {
+            // Every marked position is before the next position, so the marks after the last access are the total minus a prefix.
+            distance = distinctBlocks - prefixCount(lastPosition);
+            add(lastPosition, -1);
+        }
+
+        add(nextPosition, 1);
+        blocksAt[nextPosition] = block;
+        lastPositions.put(block, nextPosition);
+        nextPosition++;
+        return distance;
+    }
+
+    /**
+     * Gets the number of distinct blocks accessed so far.
+     * @return The number of distinct blocks.
+     */
+    int getDistinctBlocks() {
+        return distinctBlocks;
+    }
+
+    /**
+     * Allocates empty position arrays.
+     * @param newCapacity The number of positions.
+     */
+    private void allocate(int newCapacity) {
+        capacity = newCapacity;
+        blocksAt = new long[newCapacity];
+        tree = new int[newCapacity + 1];
+    }
+
+    /**
+     * Moves the last access of every block to the front of the positions, keeping their order, and rebuilds the tree.
+     * The number of positions is doubled if more than half of them would still be in use.
+     */
+    private void compact() {
+        long[] oldBlocksAt = blocksAt;
+        int oldPositions = nextPosition;
+        allocate(Math.max(capacity, distinctBlocks * 2));
+        nextPosition = 0;
+        for (int position = 0; position < oldPositions; position++) {
+            long block = oldBlocksAt[position];
+            if (lastPositions.get(block) == position) {
+                blocksAt[nextPosition] = block;
+                lastPositions.put(block, nextPosition);
+                nextPosition++;
+            }
+        }
+
+        // Build the tree in linear time, with every compacted position marked.
+        for (int i = 1; i <= capacity; i++) {
+            if (i <= nextPosition) {
+                tree[i]++;
+            }
+            int parent = i + (i & -i);
+            if (parent <= capacity) {
+                tree[parent] += tree[i];
+            }
+        }
+    }
+
+    /**
+     * Adds to the count of a position.
+     * @param position The position.
+     * @param delta The amount to add.
+     */
+    private void add(int position, int delta) {
+        for (int i = position + 1; i <= capacity; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    /**
+     * Counts the marked positions up to and including a position.
+     * @param position The last position to count.
+     * @return The number of marked positions.
+     */
+    private int prefixCount(int position) {
+        int count = 0;
+        for (int i = position + 1; i > 0; i -= i & -i) {
+            count += tree[i];
+        }
+        return count;
+    }
+}
@@ -0,0 +1,88 @@
+import java.io.IOException;
+
+/**
+ * Stream prefetching, following sequential streams of misses in either direction regardless of the program counter.
+ * Each tracker of the table follows one stream: the last block it triggered on and the direction it moves in.
+ * A miss, or the first use of a prefetched line, within a window of blocks around a tracker moves that tracker on,
+ * and once two moves in a row go the same way the tracker prefetches the next blocks in its direction.
+ * Triggers near no tracker start a new stream in the least recently moved one.
+ */
+final class StreamPrefetcher extends Prefetcher {
+    static final int DEFAULT_TABLE_SIZE = 16; // The number of trackers when the config does not give a table size.
+    private static final long WINDOW = 16; // The distance in blocks from its last block within which a trigger moves a tracker.
+
+    private final long[] lastBlocks; // The block each tracker last triggered on.
+    private final byte[] directions; // The direction of each tracker's last move: 1 ascending, -1 descending or 0 before its first move.
+    private final long[] lastUses; // The clock when each tracker last moved, or 0 if it follows no stream.
+    private long clock; // Incremented on every trigger.
+
+    /**
+     * Creates the prefetcher with no streams.
+     * @param degree The number of blocks ahead of a stream prefetched when the prefetcher triggers.
+     * @param tableSize The number of stream trackers.
+     */
+    StreamPrefetcher(int degree, int tableSize) {
+        super(degree);
+        lastBlocks = new long[tableSize];
+        directions = new byte[tableSize];
+        lastUses = new long[tableSize];
+    }
+
+    @Override
+    int train(long programCounter, long block, boolean miss, boolean prefetchHit) {
+        if (!miss && !prefetchHit) {
+            return 0;
+        }
+        clock++;
+
+        // Find the tracker whose stream the block continues, or the least recently moved one to start a new stream.
+        int tracker = -1;
+        int leastRecent = 0;
+        for (int i = 0; i < lastBlocks.length; i++) {
+            if (lastUses[i] != 0 && Math.abs(block - lastBlocks[i]) <= WINDOW) {
+                tracker = i;
+                break;
+            }
+            if (lastUses[i] < lastUses[leastRecent]) {
+                leastRecent = i;
+            }
+        }
+        if (tracker < 0) {
+            lastBlocks[leastRecent] = block;
+            directions[leastRecent] = 0;
+            lastUses[leastRecent] = clock;
+            return 0;
+        }
+
+        lastUses[tracker] = clock;
+        if (block == lastBlocks[tracker]) {
+            return 0;
+        }
+        byte direction = block > lastBlocks[tracker] ? (byte) 1 : (byte) -1;
+        lastBlocks[tracker] = block;
+        if (direction != directions[tracker]) {
+            directions[tracker] = direction;
+            return 0;
+        }
+        for (int i = 0; i < degree; i++) {
+            candidates[i] = block + direction * (i + 1L);
+        }
+        return degree;
+    }
+
+    @Override
+    void writeState(CheckpointOutput output) throws IOException {
+        output.writeLongs(lastBlocks);
+        output.writeBytes(directions);
+        output.writeLongs(lastUses);
+        output.writeLong(clock);
+    }
+
+    @Override
+    void readState(CheckpointInput input) throws IOException {
+        input.readLongs(lastBlocks);
+        input.readBytes(directions);
+        input.readLongs(lastUses);
+        clock = input.readLong();
+    }
+}
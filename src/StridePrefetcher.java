@@ -0,0 +1,92 @@
+import java.io.IOException;
+
+/**
+ * PC-indexed stride prefetching with a reference prediction table.
+ * Each entry belongs to one program counter and records the last block it accessed, the stride between its last two
+ * accesses and a 2 bit confidence. A repeated stride raises the confidence and a different one lowers it,
+ * replacing the stride once the confidence is gone. From a confidence of 2, every access of the program counter
+ * prefetches the next blocks along its stride. The table is direct mapped by a hash of the program counter,
+ * so program counters mapping to the same entry take it over from each other.
+ */
+final class StridePrefetcher extends Prefetcher {
+    static final int DEFAULT_TABLE_SIZE = 256; // The number of entries when the config does not give a table size.
+    private static final int MAX_CONFIDENCE = 3; // The confidence saturates at the top of its 2 bits.
+    private static final int PREFETCH_CONFIDENCE = 2; // The confidence from which the prefetcher triggers.
+
+    private final int indexShift; // The right shift taking a hashed program counter to a table index.
+    private final long[] programCounters; // The program counter owning each entry.
+    private final boolean[] used; // Whether each entry has been allocated.
+    private final long[] lastBlocks; // The block most recently accessed by the program counter of each entry.
+    private final long[] strides; // The stride of each entry in blocks.
+    private final byte[] confidences; // The confidence in the stride of each entry, from 0 to 3.
+
+    /**
+     * Creates the prefetcher with an empty table.
+     * @param degree The number of blocks along the stride prefetched when the prefetcher triggers.
+     * @param tableSize The number of table entries, a power of two.
+     */
+    StridePrefetcher(int degree, int tableSize) {
+        super(degree);
+        indexShift = Long.SIZE - Integer.numberOfTrailingZeros(tableSize);
+        programCounters = new long[tableSize];
+        used = new boolean[tableSize];
+        lastBlocks = new long[tableSize];
+        strides = new long[tableSize];
+        confidences = new byte[tableSize];
+    }
+
+    @Override
+    int train(long programCounter, long block, boolean miss, boolean prefetchHit) {
+        // Fibonacci hashing spreads the program counters, whose low bits are mostly alike, over the table.
+        int entry = indexShift == Long.SIZE ? 0 : (int) ((programCounter * 0x9E3779B97F4A7C15L) >>> indexShift);
+        if (!used[entry] || programCounters[entry] != programCounter) {
+            used[entry] = true;
+            programCounters[entry] = programCounter;
+            lastBlocks[entry] = block;
+            strides[entry] = 0;
+            confidences[entry] = 0;
+            return 0;
+        }
+
+        // Accesses within the same block tell nothing about the stride.
+        long stride = block - lastBlocks[entry];
+        if (stride == 0) {
+            return 0;
+        }
+        lastBlocks[entry] = block;
+        if (stride == strides[entry]) {
+            if (confidences[entry] < MAX_CONFIDENCE) {
+                confidences[entry]++;
+            }
+        } else if (confidences[entry] > 0) {
+            confidences[entry]--;
+        } else {
+            strides[entry] = stride;
+        }
+        if (confidences[entry] < PREFETCH_CONFIDENCE) {
+            return 0;
+        }
+        for (int i = 0; i < degree; i++) {
+            candidates[i] = block + stride * (i + 1);
+        }
+        return degree;
+    }
+
+    @Override
+    void writeState(CheckpointOutput output) throws IOException {
+        output.writeLongs(programCounters);
+        output.writeBooleans(used);
+        output.writeLongs(lastBlocks);
+        output.writeLongs(strides);
+        output.writeBytes(confidences);
+    }
+
+    @Override
+    void readState(CheckpointInput input) throws IOException {
+        input.readLongs(programCounters);
+        input.readBooleans(used);
+        input.readLongs(lastBlocks);
+        input.readLongs(strides);
+        input.readBytes(confidences);
+    }
+}
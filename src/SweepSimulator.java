@@ -0,0 +1,197 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.alibaba.fastjson2.JSON;
+
+/**
+ * Simulates several cache configurations over the same program trace in a single pass.
+ * Each memory operation is decoded once and then run through the caches of every configuration,
+ * which turns one full trace read per configuration into one read in total.
+ */
+public class SweepSimulator {
+    /**
+     * Runs a sweep from the command line.
+     * @param args The command line arguments, starting with "sweep".
+     */
+    static void run(String[] args) {
+        // Split the arguments after "sweep" into the trace, the configurations and options.
+        SweepSimulator sweepSimulator = new SweepSimulator();
+        List<String> configFileNames = new ArrayList<>();
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("--mmap")) {
+                sweepSimulator.memoryMapped = true;
+            } else if (args[i].equals("--threads") && i + 1 < args.length) {
+                sweepSimulator.threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--extended")) {
+                sweepSimulator.extendedReport = true;
+            } else if (args[i].startsWith("--")) {
+                System.err.println("Unknown option '" + args[i] + "'.");
+                System.exit(1);
+            } else {
+                configFileNames.add(args[i]);
+            }
+        }
+        if (args.length < 2 || configFileNames.isEmpty()) {
+            System.err.println(
+                    "Invalid arguments. Arguments must be in the form:\n ./CacheSimulator sweep <path to trace file> <path to json cache file>... [--mmap] [--threads <n>] [--extended]");
+            System.exit(1);
+        }
+
+        sweepSimulator.sweep(args[1], configFileNames);
+    }
+
+    private static final int BATCH_SIZE = 1 << 14; // The number of operations in each batch passed to worker threads.
+    private static final int RING_CAPACITY = 16; // The number of batches in flight between the reader and the workers.
+
+    private final List<CacheSimulator> simulators = new ArrayList<>(); // One simulator per configuration, in the order given.
+    boolean memoryMapped; // Whether to memory map a text trace instead of streaming it.
+    int threads = 1; // The number of worker threads to simulate on. 1 simulates on the calling thread.
+    boolean extendedReport; // Whether each configuration reports its extended statistics.
+
+    /**
+     * Simulates every configuration over a program trace and prints one JSON result per configuration.
+     * @param programTraceFileName The file name of the program trace.
+     * @param cacheConfigFileNames The file names of the cache configs.
+     */
+    void sweep(String programTraceFileName, List<String> cacheConfigFileNames) {
+        try {
+            // Read each cache configuration into its own simulator.
+            for (String cacheConfigFileName : cacheConfigFileNames) {
+                CacheSimulator simulator = new CacheSimulator();
+                simulator.extendedReport = extendedReport;
+                simulator.readConfiguration(cacheConfigFileName);
+                simulators.add(simulator);
+            }
+
+            try (TraceReader reader = TraceReader.open(programTraceFileName, memoryMapped)) {
+                for (CacheSimulator simulator : simulators) {
+                    simulator.setFilteredLevels(reader.getFilteredLevels());
+                    simulator.checkProgramCounters(reader);
+                }
+                if (threads > 1 && simulators.size() > 1) {
+                    simulateParallel(reader);
+                } else {
+                    simulateSerial(reader);
+                }
+            }
+
+            // Print the simulation data of each configuration to the console, one per line.
+            for (CacheSimulator simulator : simulators) {
+                simulator.finishSimulation();
+                System.out.println(JSON.toJSONString(simulator));
+            }
+        } catch (IOException e) {
+            System.err.println("Could not read cache information from file:\n" + e.getMessage());
+        } catch (Exception e) {
+            System.err.println(e.toString());
+        }
+    }
+
+    /**
+     * Decodes each memory operation once and simulates it on every configuration on the calling thread.
+     * @param reader The reader of the program trace.
+     * @throws IOException If the trace could not be read.
+     */
+    private void simulateSerial(TraceReader reader) throws IOException {
+        CacheSimulator[] simulatorArray = simulators.toArray(new CacheSimulator[0]);
+        while (reader.next()) {
+            for (CacheSimulator simulator : simulatorArray) {
+                simulator.simulateMemoryOp(reader.programCounter, reader.address, reader.size, reader.write);
+            }
+        }
+    }
+
+    /**
+     * Decodes the trace into batches on the calling thread and simulates the configurations on worker threads.
+     * Each worker owns a fixed subset of the configurations and consumes every batch in order,
+     * so each configuration sees exactly the same sequence of operations as in a serial run.
+     * @param reader The reader of the program trace.
+     * @throws Exception If the trace could not be read or a worker failed.
+     * @throws Error If a worker failed with an error, such as running out of memory.
+     */
+    private void simulateParallel(TraceReader reader) throws Exception {
+        int workerCount = Math.min(threads, simulators.size());
+        TraceBatchRing ring = new TraceBatchRing(RING_CAPACITY, BATCH_SIZE, workerCount);
+        Throwable[] workerFailures = new Throwable[workerCount];
+
+        // Deal the configurations out to the workers in turn.
+        Thread[] workers = new Thread[workerCount];
+        for (int w = 0; w < workerCount; w++) {
+            List<CacheSimulator> owned = new ArrayList<>();
+            for (int i = w; i < simulators.size(); i += workerCount) {
+                owned.add(simulators.get(i));
+            }
+            int worker = w;
+            workers[w] = new Thread(() -> {
+                try {
+                    consumeBatches(ring, worker, owned.toArray(new CacheSimulator[0]));
+                } catch (Throwable e) {
+                    // Errors are caught too, as a worker that stops without abandoning the ring blocks the reader forever.
+                    workerFailures[worker] = e;
+                    ring.abandon(worker);
+                }
+            }, "sweep-worker-" + w);
+            workers[w].start();
+        }
+
+        // Decode the trace into batches and publish them to the workers.
+        try {
+            TraceBatchRing.TraceBatch batch = ring.claim();
+            while (reader.next()) {
+                batch.programCounters[batch.count] = reader.programCounter;
+                batch.addresses[batch.count] = reader.address;
+                batch.sizes[batch.count] = reader.size;
+                batch.writes[batch.count] = reader.write;
+                batch.count++;
+                if (batch.isFull()) {
+                    ring.publish();
+                    batch = ring.claim();
+                }
+            }
+            if (batch.count > 0) {
+                ring.publish();
+            }
+            ring.finish(null);
+        } catch (Throwable e) {
+            // Errors are caught too, as workers the reader never finishes the ring for wait for a batch forever.
+            ring.finish(e);
+            throw e;
+        } finally {
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        }
+
+        for (Throwable failure : workerFailures) {
+            if (failure instanceof Exception) {
+                throw (Exception) failure;
+            } else if (failure != null) {
+                throw (Error) failure;
+            }
+        }
+    }
+
+    /**
+     * Simulates every published batch on a worker's configurations until the end of the trace.
+     * @param ring The ring the batches are published to.
+     * @param worker The index of the worker.
+     * @param owned The simulators of the configurations owned by the worker.
+     * @throws InterruptedException If the worker is interrupted while waiting for a batch.
+     */
+    private static void consumeBatches(TraceBatchRing ring, int worker, CacheSimulator[] owned) throws InterruptedException {
+        TraceBatchRing.TraceBatch batch;
+        while ((batch = ring.take(worker)) != null) {
+            for (int i = 0; i < batch.count; i++) {
+                long programCounter = batch.programCounters[i];
+                long address = batch.addresses[i];
+                int size = batch.sizes[i];
+                boolean write = batch.writes[i];
+                for (CacheSimulator simulator : owned) {
+                    simulator.simulateMemoryOp(programCounter, address, size, write);
+                }
+            }
+            ring.release(worker);
+        }
+    }
+}
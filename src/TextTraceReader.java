@@ -0,0 +1,262 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads memory operations from a text program trace without allocating objects per record.
+ * Bytes are read into a reused buffer and each line is decoded in place into primitive values.
+ * Lines have the form: [program counter hex] [memory address hex] [R/W] [size decimal]
+ */
+public class TextTraceReader extends TraceReader {
+    private static final int BUFFER_SIZE = 1 << 16; // The size of the read buffer in bytes. Must be larger than any single line.
+
+    private final InputStream input; // The stream the trace is read from.
+    private final byte[] buffer = new byte[BUFFER_SIZE]; // Reused buffer holding raw bytes of the trace.
+    private int position; // The index of the next unread byte in the buffer.
+    private int limit; // The index one past the last valid byte in the buffer.
+    private boolean endOfInput; // Whether the underlying stream has been fully read.
+    private long lineNumber; // The number of lines read so far. Used for error messages.
+    private long bufferOffset; // The offset in the trace file of the first byte in the buffer.
+    private boolean fromFile; // Whether the trace is read straight from a file, so byte offsets can be reopened.
+
+    /**
+     * Opens a text trace reader on a file.
+     * @param fileName The file name of the program trace.
+     * @throws IOException If the file could not be opened.
+     */
+    public TextTraceReader(String fileName) throws IOException {
+        this(new FileInputStream(fileName));
+        fromFile = true;
+    }
+
+    /**
+     * Opens a text trace reader on a file at the byte offset of a line.
+     * Line numbers in error messages then count from the offset.
+     * @param fileName The file name of the program trace.
+     * @param byteOffset The byte offset of the next line to read, as returned by getByteOffset.
+     * @throws IOException If the file could not be opened.
+     */
+    public TextTraceReader(String fileName, long byteOffset) throws IOException {
+        this(new FileInputStream(fileName));
+        fromFile = true;
+        ((FileInputStream) input).getChannel().position(byteOffset);
+        bufferOffset = byteOffset;
+    }
+
+    /**
+     * Creates a text trace reader on an input stream.
+     * @param input The stream to read the trace from.
+     */
+    public TextTraceReader(InputStream input) {
+        this.input = input;
+    }
+
+    /**
+     * Reads the next memory operation into the operation fields.
+     * Blank lines are skipped.
+     * @return Whether an operation was read (false at the end of the trace).
+     * @throws IOException If the trace could not be read or a line is malformed.
+     */
+    @Override
+    public boolean next() throws IOException {
+        while (true) {
+            int lineEnd = findLineEnd();
+            if (lineEnd < 0) {
+                return false;
+            }
+            int lineStart = position;
+            position = lineEnd < limit ? lineEnd + 1 : limit;
+            lineNumber++;
+            if (parseLine(lineStart, lineEnd)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Moves past memory operations by finding the ends of their lines, without decoding them.
+     * Blank lines are not counted as operations, as in next(), but other lines are not checked for errors.
+     * @param count The number of operations to skip.
+     * @return The number of operations skipped, which is less than the count only at the end of the trace.
+     * @throws IOException If the trace could not be read.
+     */
+    @Override
+    public long skip(long count) throws IOException {
+        long skipped = 0;
+        while (skipped < count) {
+            int lineEnd = findLineEnd();
+            if (lineEnd < 0) {
+                break;
+            }
+            int lineStart = position;
+            position = lineEnd < limit ? lineEnd + 1 : limit;
+            lineNumber++;
+            if (skipWhitespace(lineStart, lineEnd) != lineEnd) {
+                skipped++;
+            }
+        }
+        return skipped;
+    }
+
+    /**
+     * Gets the byte offset in the trace file of the next line to read.
+     * @return The byte offset, or -1 if the trace is not read straight from a file (such as a decompressed trace).
+     */
+    @Override
+    public long getByteOffset() {
+        return fromFile ? bufferOffset + position : -1;
+    }
+
+    /**
+     * Finds the end of the next line, refilling the buffer if the line is not fully buffered.
+     * @return The index of the newline ending the line (or the limit for a final unterminated line), or -1 at the end of the trace.
+     * @throws IOException If the trace could not be read or a line does not fit in the buffer.
+     */
+    private int findLineEnd() throws IOException {
+        int scan = position;
+        while (true) {
+            while (scan < limit) {
+                if (buffer[scan] == '\n') {
+                    return scan;
+                }
+                scan++;
+            }
+            if (endOfInput) {
+                return position < limit ? limit : -1;
+            }
+
+            // Move the partial line to the start of the buffer and read more bytes after it.
+            int remaining = limit - position;
+            if (remaining == buffer.length) {
+                throw new IOException("Trace line " + (lineNumber + 1) + " is longer than " + buffer.length + " bytes.");
+            }
+            System.arraycopy(buffer, position, buffer, 0, remaining);
+            bufferOffset += position;
+            scan -= position;
+            position = 0;
+            limit = remaining;
+            int read = input.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                endOfInput = true;
+            } else {
+                limit += read;
+            }
+        }
+    }
+
+    /**
+     * Decodes a single line of the trace into the operation fields.
+     * @param start The index of the first byte of the line.
+     * @param end The index one past the last byte of the line.
+     * @return Whether the line held an operation (false for blank lines).
+     * @throws IOException If the line is malformed.
+     */
+    private boolean parseLine(int start, int end) throws IOException {
+        // Decode the program counter from hex.
+        int i = skipWhitespace(start, end);
+        if (i == end) {
+            return false;
+        }
+        int tokenEnd = skipToken(i, end);
+        long parsedProgramCounter = parseHex(i, tokenEnd);
+
+        // Decode the memory address from hex.
+        i = skipWhitespace(tokenEnd, end);
+        tokenEnd = skipToken(i, end);
+        long parsedAddress = parseHex(i, tokenEnd);
+
+        // Decode the operation kind.
+        i = skipWhitespace(tokenEnd, end);
+        tokenEnd = skipToken(i, end);
+        if (tokenEnd != i + 1 || (buffer[i] != 'R' && buffer[i] != 'W')) {
+            throw malformed();
+        }
+        boolean parsedWrite = buffer[i] == 'W';
+
+        // Decode the size from decimal.
+        i = skipWhitespace(tokenEnd, end);
+        tokenEnd = skipToken(i, end);
+        if (tokenEnd == i) {
+            throw malformed();
+        }
+        int parsedSize = 0;
+        for (; i < tokenEnd; i++) {
+            int value = buffer[i] - '0';
+            if (value < 0 || value > 9) {
+                throw malformed();
+            }
+            parsedSize = parsedSize * 10 + value;
+        }
+
+        programCounter = parsedProgramCounter;
+        address = parsedAddress;
+        size = parsedSize;
+        write = parsedWrite;
+        return true;
+    }
+
+    /**
+     * Decodes a token of up to 16 hex digits.
+     * @param start The index of the first digit.
+     * @param end The index one past the last digit.
+     * @return The decoded value.
+     * @throws IOException If the token is empty, too long or holds a non-hex digit.
+     */
+    private long parseHex(int start, int end) throws IOException {
+        if (start == end || end - start > 16) {
+            throw malformed();
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = HEX_VALUES[buffer[i] & 0xFF];
+            if (digit < 0) {
+                throw malformed();
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    /**
+     * Skips whitespace within a line.
+     * @param i The index to start from.
+     * @param end The end of the line.
+     * @return The index of the next non-whitespace byte or the end of the line.
+     */
+    private int skipWhitespace(int i, int end) {
+        while (i < end && isWhitespace(buffer[i])) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Skips a whitespace separated token within a line.
+     * @param i The index to start from.
+     * @param end The end of the line.
+     * @return The index of the next whitespace byte or the end of the line.
+     */
+    private int skipToken(int i, int end) {
+        while (i < end && !isWhitespace(buffer[i])) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Creates an exception describing a malformed line.
+     * @return The exception to throw.
+     */
+    private IOException malformed() {
+        return new IOException("Malformed trace line " + lineNumber + ".");
+    }
+
+    /**
+     * Closes the underlying stream.
+     * @throws IOException If the stream could not be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * A bounded ring of batches of decoded memory operations, published by one reader thread to several consumer threads.
+ * Every consumer sees every batch in order. A batch is only reused for new operations once all consumers have released it,
+ * so a slow consumer holds the reader back rather than missing operations.
+ */
+public class TraceBatchRing {
+    /**
+     * A batch of decoded memory operations stored in primitive arrays.
+     */
+    public static class TraceBatch {
+        public final long[] programCounters; // The program counter of each operation.
+        public final long[] addresses; // The memory address of each operation.
+        public final int[] sizes; // The size of each operation.
+        public final boolean[] writes; // Whether each operation is a write.
+        public int count; // The number of operations in the batch.
+
+        /**
+         * Creates an empty batch.
+         * @param capacity The maximum number of operations the batch can hold.
+         */
+        TraceBatch(int capacity) {
+            programCounters = new long[capacity];
+            addresses = new long[capacity];
+            sizes = new int[capacity];
+            writes = new boolean[capacity];
+        }
+
+        /**
+         * Checks whether the batch has no room for more operations.
+         * @return Whether the batch is full.
+         */
+        public boolean isFull() {
+            return count == addresses.length;
+        }
+    }
+
+    private final TraceBatch[] batches; // The batches of the ring, reused in turn.
+    private final long[] consumed; // The number of batches each consumer has released.
+    private long published; // The number of batches published by the reader.
+    private boolean finished; // Whether the reader has published its last batch.
+    private Throwable failure; // The exception or error that stopped the reader, if any.
+
+    /**
+     * Creates a ring of empty batches.
+     * @param capacity The number of batches in the ring.
+     * @param batchSize The number of operations each batch can hold.
+     * @param consumers The number of consumer threads.
+     */
+    public TraceBatchRing(int capacity, int batchSize, int consumers) {
+        batches = new TraceBatch[capacity];
+        for (int i = 0; i < capacity; i++) {
+            batches[i] = new TraceBatch(batchSize);
+        }
+        consumed = new long[consumers];
+    }
+
+    /**
+     * Claims the next batch for the reader to fill, waiting until every consumer has released it.
+     * @return The emptied batch.
+     * @throws InterruptedException If the reader is interrupted while waiting.
+     */
+    public synchronized TraceBatch claim() throws InterruptedException {
+        while (published - slowestConsumed() >= batches.length) {
+            wait();
+        }
+        TraceBatch batch = batches[(int) (published % batches.length)];
+        batch.count = 0;
+        return batch;
+    }
+
+    /**
+     * Publishes the most recently claimed batch to the consumers.
+     */
+    public synchronized void publish() {
+        published++;
+        notifyAll();
+    }
+
+    /**
+     * Marks the end of the trace, so consumers stop after the published batches,
+     * or that the reader failed, so consumers stop at once without taking the batches still unread.
+     * @param exception The exception or error that stopped the reader, or null at the end of the trace.
+     */
+    public synchronized void finish(Throwable exception) {
+        finished = true;
+        failure = exception;
+        notifyAll();
+    }
+
+    /**
+     * Takes the next batch for a consumer, waiting until one is published.
+     * @param consumer The index of the consumer.
+     * @return The next batch, or null once every batch has been taken and the reader has finished.
+     * @throws InterruptedException If the consumer is interrupted while waiting.
+     */
+    public synchronized TraceBatch take(int consumer) throws InterruptedException {
+        while (consumed[consumer] == published && !finished) {
+            wait();
+        }
+        if (consumed[consumer] == published || failure != null) {
+            return null;
+        }
+        return batches[(int) (consumed[consumer] % batches.length)];
+    }
+
+    /**
+     * Releases the batch most recently taken by a consumer so the reader can reuse it.
+     * @param consumer The index of the consumer.
+     */
+    public synchronized void release(int consumer) {
+        consumed[consumer]++;
+        notifyAll();
+    }
+
+    /**
+     * Stops a consumer from holding back the reader, for example after the consumer fails.
+     * @param consumer The index of the consumer.
+     */
+    public synchronized void abandon(int consumer) {
+        consumed[consumer] = Long.MAX_VALUE;
+        notifyAll();
+    }
+
+    /**
+     * Gets the number of batches released by the slowest consumer.
+     * @return The lowest number of batches released by any consumer.
+     */
+    private long slowestConsumed() {
+        long slowest = Long.MAX_VALUE;
+        for (long count : consumed) {
+            slowest = Math.min(slowest, count);
+        }
+        return slowest;
+    }
+}
@@ -0,0 +1,161 @@
+import java.io.IOException;
+import java.io.PushbackInputStream;
+import java.util.Arrays;
+
+/**
+ * Base class for readers that decode memory operations from a program trace into primitive values.
+ * Each call to next() overwrites the public fields with the next operation, so no objects are allocated per record.
+ */
+public abstract class TraceReader implements AutoCloseable {
+    protected static final byte[] HEX_VALUES = new byte[256]; // Lookup table from an ASCII byte to its hex digit value, or -1 if not a hex digit.
+
+    static {
+        for (int i = 0; i < HEX_VALUES.length; i++) {
+            HEX_VALUES[i] = -1;
+        }
+        for (int i = 0; i < 10; i++) {
+            HEX_VALUES['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            HEX_VALUES['a' + i] = (byte) (10 + i);
+            HEX_VALUES['A' + i] = (byte) (10 + i);
+        }
+    }
+
+    public long programCounter; // The program counter of the most recently read operation.
+    public long address; // The memory address of the most recently read operation.
+    public int size; // The size of the most recently read operation.
+    public boolean write; // Whether the most recently read operation was a write (W) rather than a read (R).
+
+    /**
+     * Opens a reader for a program trace file, detecting gzip compressed and binary traces by their magic bytes.
+     * Compressed traces are always streamed, as they cannot be memory mapped.
+     * @param fileName The file name of the program trace.
+     * @param memoryMapped Whether to memory map a text trace instead of streaming it.
+     * @return A reader positioned before the first operation of the trace.
+     * @throws IOException If the file could not be opened or is compressed in a format that cannot be decompressed.
+     */
+    public static TraceReader open(String fileName, boolean memoryMapped) throws IOException {
+        if (DecompressingInputStream.isCompressed(fileName)) {
+            return openCompressed(fileName);
+        }
+        if (BinaryTraceReader.isBinaryTrace(fileName)) {
+            return new BinaryTraceReader(fileName);
+        }
+        if (memoryMapped) {
+            return new MappedTraceReader(fileName);
+        }
+        return new TextTraceReader(fileName);
+    }
+
+    /**
+     * Opens a reader for a program trace file at a byte offset returned by getByteOffset, to resume a simulation.
+     * Delta encoded binary traces also need the address and program counter of the operation before the offset
+     * put back into the public fields before the next call to next().
+     * @param fileName The file name of the program trace.
+     * @param memoryMapped Whether to memory map a text trace instead of streaming it.
+     * @param byteOffset The byte offset of the next operation to read, or -1 to start at the first operation.
+     * @return A reader positioned at the offset, or a reader positioned before the first operation if the offset is -1
+     * or the reader cannot start at an offset (in which case its getByteOffset returns -1).
+     * @throws IOException If the file could not be opened or is compressed in a format that cannot be decompressed.
+     */
+    public static TraceReader open(String fileName, boolean memoryMapped, long byteOffset) throws IOException {
+        if (byteOffset < 0 || DecompressingInputStream.isCompressed(fileName)) {
+            return open(fileName, memoryMapped);
+        }
+        if (BinaryTraceReader.isBinaryTrace(fileName)) {
+            return new BinaryTraceReader(fileName, byteOffset);
+        }
+        if (memoryMapped) {
+            return new MappedTraceReader(fileName);
+        }
+        return new TextTraceReader(fileName, byteOffset);
+    }
+
+    /**
+     * Opens a reader for a gzip compressed trace, which is decompressed in the background.
+     * The first decompressed bytes are peeked at to tell binary traces from text traces.
+     * @param fileName The file name of the compressed trace.
+     * @return A reader positioned before the first operation of the trace.
+     * @throws IOException If the file could not be opened or decompressed.
+     */
+    private static TraceReader openCompressed(String fileName) throws IOException {
+        PushbackInputStream input = new PushbackInputStream(DecompressingInputStream.open(fileName), BinaryTraceWriter.MAGIC.length);
+        try {
+            byte[] magic = input.readNBytes(BinaryTraceWriter.MAGIC.length);
+            input.unread(magic);
+            if (Arrays.equals(magic, BinaryTraceWriter.MAGIC)) {
+                return new BinaryTraceReader(input);
+            }
+            return new TextTraceReader(input);
+        } catch (IOException e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the next memory operation into the public fields.
+     * @return Whether an operation was read (false at the end of the trace).
+     * @throws IOException If the trace could not be read or is malformed.
+     */
+    public abstract boolean next() throws IOException;
+
+    /**
+     * Moves past memory operations without simulating them, leaving the public fields undefined until the next call to next().
+     * Readers override this when they can skip operations faster than decoding them.
+     * @param count The number of operations to skip.
+     * @return The number of operations skipped, which is less than the count only at the end of the trace.
+     * @throws IOException If the trace could not be read or is malformed.
+     */
+    public long skip(long count) throws IOException {
+        long skipped = 0;
+        while (skipped < count && next()) {
+            skipped++;
+        }
+        return skipped;
+    }
+
+    /**
+     * Gets the number of cache levels the trace was filtered through, whose misses it holds instead of program operations.
+     * The misses are simulated on the levels below, which then count their overruns as the levels of a full hierarchy do.
+     * @return The number of filtered levels, or 0 for a program trace.
+     */
+    public int getFilteredLevels() {
+        return 0;
+    }
+
+    /**
+     * Gets whether the operations of the trace carry their program counters.
+     * Text traces always do, while binary traces can be written without them.
+     * @return Whether the program counters are read, rather than left at 0.
+     */
+    public boolean hasProgramCounters() {
+        return true;
+    }
+
+    /**
+     * Gets the byte offset in the trace file of the next operation to read, so a later run can resume from it.
+     * Readers that stream the file override this.
+     * @return The byte offset, or -1 if the reader cannot be opened at an offset.
+     */
+    public long getByteOffset() {
+        return -1;
+    }
+
+    /**
+     * Releases any resources held by the reader.
+     * @throws IOException If the underlying file could not be closed.
+     */
+    @Override
+    public abstract void close() throws IOException;
+
+    /**
+     * Checks whether a byte is a whitespace separator within a trace line (including the carriage return of CRLF lines).
+     * @param b The byte to check.
+     * @return Whether the byte is whitespace.
+     */
+    protected static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+}
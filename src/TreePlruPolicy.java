@@ -0,0 +1,82 @@
+import java.io.IOException;
+
+/**
+ * Tree pseudo least recently used replacement.
+ * Each set has a binary tree over its ways whose nodes point towards the half holding the pseudo least recently used line.
+ * Using a line points every node on its path away from it, and the victim is found by following the pointers from the root.
+ * This needs one bit per way instead of a full recency order. Sets whose size is not a power of two use the tree
+ * of the next power of two, never following a pointer into a half with no ways.
+ */
+final class TreePlruPolicy extends ReplacementPolicy {
+    private final int setSize; // The number of lines per set.
+    private final int leaves; // The number of leaves of each tree, the set size rounded up to a power of two.
+    private final long[] pointers; // Bitmap of the node pointers of every tree. A set bit points to the right half.
+
+    /**
+     * Creates the policy with every pointer to the left.
+     * @param numberOfSets The number of sets in the cache.
+     * @param setSize The number of lines per set.
+     */
+    TreePlruPolicy(int numberOfSets, int setSize) {
+        super(Kind.PLRU);
+        this.setSize = setSize;
+        leaves = setSize <= 1 ? 1 : Integer.highestOneBit(setSize - 1) << 1;
+        pointers = new long[(int) (((long) numberOfSets * leaves + Long.SIZE - 1) / Long.SIZE)];
+    }
+
+    @Override
+    public void hit(int setNumber, int firstLine, int line) {
+        touch(setNumber, line - firstLine);
+    }
+
+    @Override
+    public int victim(int setNumber, int firstLine, int endLine, long tag) {
+        // Follow the pointers down from the root, keeping to the left where the right half has no ways.
+        long base = (long) setNumber * leaves;
+        int node = 1;
+        int firstWay = 0;
+        int span = leaves;
+        while (node < leaves) {
+            span >>>= 1;
+            long bit = base + node;
+            boolean right = (pointers[(int) (bit >>> 6)] & (1L << bit)) != 0 && firstWay + span < setSize;
+            node = node * 2 + (right ? 1 : 0);
+            if (right) {
+                firstWay += span;
+            }
+        }
+        return firstLine + firstWay;
+    }
+
+    @Override
+    public void fill(int setNumber, int firstLine, int line, long tag) {
+        touch(setNumber, line - firstLine);
+    }
+
+    /**
+     * Points every node on the path to a way away from it.
+     * @param setNumber The number of the set.
+     * @param way The way that was used.
+     */
+    private void touch(int setNumber, int way) {
+        long base = (long) setNumber * leaves;
+        for (int node = leaves + way; node > 1; node >>>= 1) {
+            long bit = base + (node >>> 1);
+            if ((node & 1) == 0) {
+                pointers[(int) (bit >>> 6)] |= 1L << bit; // Used the left half, so point right.
+            } else {
+                pointers[(int) (bit >>> 6)] &= ~(1L << bit); // Used the right half, so point left.
+            }
+        }
+    }
+
+    @Override
+    public void writeState(CheckpointOutput output) throws IOException {
+        output.writeLongs(pointers);
+    }
+
+    @Override
+    public void readState(CheckpointInput input) throws IOException {
+        input.readLongs(pointers);
+    }
+}